@@ -0,0 +1,537 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** A timing harness whose main program may be invoked as follows:
+ *      java gitlet.Benchmark BENCH [ARGS...]
+ *  from an empty scratch directory. Each benchmark builds a synthetic
+ *  repository in the current directory with the real commands, times
+ *  the operation it is named after, prints the results and removes
+ *  everything it created.
+ *  @author willharvey
+ */
+public class Benchmark {
+
+    /** Default number of commits in a synthetic history. */
+    static final int DEFAULT_COMMITS = 200;
+
+    /** Nanoseconds per millisecond. */
+    static final double NANOS_PER_MILLI = 1e6;
+
+    /** Default number of files in a synthetic working tree. */
+    static final int DEFAULT_FILES = 200;
+
+    /** Default size of each synthetic file, in bytes. */
+    static final int DEFAULT_FILE_SIZE = 64 * 1024;
+
+    /** Default size of each synthetic file in the diff benchmark. */
+    static final int DEFAULT_DIFF_SIZE = 1 << 20;
+
+    /** One line in this many is changed by the diff benchmark. */
+    static final int DIFF_CHANGE_RATE = 500;
+
+    /** Bytes per megabyte. */
+    static final double MEGABYTE = 1 << 20;
+
+    /** Seed for synthetic contents, so runs are comparable. */
+    static final long SEED = 61;
+
+    /** Words synthetic text files are made of. */
+    static final String[] WORDS = {
+        "the", "commit", "blob", "branch", "merge", "of", "a", "file",
+        "to", "and", "gitlet", "is", "version", "control", "in", "head",
+    };
+
+    /** Runs the benchmark named by ARGS[0] with the rest of ARGS. */
+    public static void main(String... args) throws IOException {
+        File[] existing = Commands.CWD.listFiles();
+        if (existing == null || existing.length != 0) {
+            System.err.println("Run the benchmarks in an empty directory.");
+            System.exit(1);
+        }
+        if (args.length == 0) {
+            System.err.println("Usage: java gitlet.Benchmark log "
+                    + "[commits] | compression [files] [bytes] "
+                    + "| pack [commits] | status [files] [bytes] "
+                    + "| add [files] [bytes] | find [commits] "
+                    + "| checkout [files] [bytes] | diff [files] [bytes]");
+            System.exit(1);
+        }
+        try {
+            switch (args[0]) {
+            case "log":
+                logBench(intArg(args, 1, DEFAULT_COMMITS));
+                break;
+            case "pack":
+                packBench(intArg(args, 1, DEFAULT_COMMITS));
+                break;
+            case "find":
+                findBench(intArg(args, 1, DEFAULT_COMMITS));
+                break;
+            case "add":
+                addBench(intArg(args, 1, DEFAULT_FILES),
+                        intArg(args, 2, DEFAULT_FILE_SIZE));
+                break;
+            case "status":
+                statusBench(intArg(args, 1, DEFAULT_FILES),
+                        intArg(args, 2, DEFAULT_FILE_SIZE));
+                break;
+            case "checkout":
+                checkoutBench(intArg(args, 1, DEFAULT_FILES),
+                        intArg(args, 2, DEFAULT_FILE_SIZE));
+                break;
+            case "diff":
+                diffBench(intArg(args, 1, DEFAULT_FILES),
+                        intArg(args, 2, DEFAULT_DIFF_SIZE));
+                break;
+            case "compression":
+                compressionBench(intArg(args, 1, DEFAULT_FILES),
+                        intArg(args, 2, DEFAULT_FILE_SIZE));
+                break;
+            default:
+                System.err.println("No benchmark named " + args[0] + ".");
+            }
+        } finally {
+            cleanUp(Commands.CWD);
+        }
+    }
+
+    /** Times log over histories of COMMITS commits whose commits track
+     *  an increasing number of files. Walking history should take about
+     *  the same time regardless of how many files each commit tracks.
+     *
+     * @param commits - length of each history.
+     */
+    static void logBench(int commits) throws IOException {
+        int[] fileCounts = {1, 10, 100, 1000};
+        System.out.printf("%-12s%-12s%12s%n", "commits", "files",
+                "log (ms)");
+        for (int files : fileCounts) {
+            run("init");
+            for (int f = 0; f < files; f += 1) {
+                writeFile("f" + f, "file " + f + "\n");
+                run("add", "f" + f);
+            }
+            run("commit", "files");
+            for (int c = 1; c < commits; c += 1) {
+                writeFile("f0", "version " + c + "\n");
+                run("add", "f0");
+                run("commit", "commit " + c);
+            }
+            time(() -> run("log"));
+            double millis = time(() -> run("log"));
+            System.out.printf("%-12d%-12d%12.2f%n", commits, files, millis);
+            cleanUp(Commands.CWD);
+            Config.reload();
+            Index.reload();
+        }
+    }
+
+    /** Times find by whole message, by word and by substring over a
+     *  history of COMMITS commits, first with every message appended
+     *  since the inverted index was written and then after reindex.
+     *
+     * @param commits - length of the history.
+     */
+    static void findBench(int commits) throws IOException {
+        Random random = new Random(SEED);
+        run("init");
+        for (int c = 1; c < commits; c += 1) {
+            writeFile("f", "version " + c + "\n");
+            run("add", "f");
+            run("commit", WORDS[random.nextInt(WORDS.length)] + " "
+                    + WORDS[random.nextInt(WORDS.length)] + " " + c);
+        }
+        String[][] queries = {{"find", "initial commit"},
+                              {"find", "--word", WORDS[0]},
+                              {"find", "--grep", "itial"}};
+        System.out.printf("%-12s%-12s%12s%12s%n", "commits", "index",
+                "query", "find (ms)");
+        for (String state : new String[] {"appended", "reindexed"}) {
+            if (state.equals("reindexed")) {
+                run("reindex");
+            }
+            for (String[] query : queries) {
+                time(() -> run(query));
+                double millis = time(() -> run(query));
+                System.out.printf("%-12d%-12s%12s%12.2f%n", commits, state,
+                        query.length == 2 ? "exact" : query[1], millis);
+            }
+        }
+    }
+
+    /** Reports, for a range of core.compression levels, how large the
+     *  object store gets and how fast add, commit and checkout run on
+     *  FILES text files and FILES random files of SIZE bytes each.
+     *
+     * @param files - number of files of each kind.
+     * @param size - bytes per file.
+     */
+    static void compressionBench(int files, int size) throws IOException {
+        int[] levels = {0, 1, 6, 9};
+        double megabytes = 2 * files * size / MEGABYTE;
+        System.out.printf("%-8s%12s%14s%12s%18s%n", "level", "store (KB)",
+                "add (MB/s)", "commit (ms)", "checkout (MB/s)");
+        for (int level : levels) {
+            run("init");
+            run("config", ObjectStore.COMPRESSION, "" + level);
+            Random random = new Random(SEED);
+            for (int f = 0; f < files; f += 1) {
+                writeFile("text" + f, text(random, size));
+                byte[] noise = new byte[size];
+                random.nextBytes(noise);
+                writeFile("random" + f, noise);
+            }
+            double add = time(() -> {
+                for (int f = 0; f < files; f += 1) {
+                    run("add", "text" + f);
+                    run("add", "random" + f);
+                }
+            });
+            double commit = time(() -> run("commit", "files"));
+            double checkout = time(() -> {
+                for (int f = 0; f < files; f += 1) {
+                    run("checkout", "--", "text" + f);
+                    run("checkout", "--", "random" + f);
+                }
+            });
+            System.out.printf("%-8d%12d%14.1f%12.2f%18.1f%n", level,
+                    sizeOf(Commands.BLOBS_DIR) / (1 << 10),
+                    megabytes / add * 1000, commit,
+                    megabytes / checkout * 1000);
+            cleanUp(Commands.CWD);
+            Config.reload();
+            Index.reload();
+        }
+    }
+
+    /** Times staging FILES new text files of SIZE bytes one add at a
+     *  time, and all at once with add ".".
+     *
+     * @param files - number of files.
+     * @param size - bytes per file.
+     */
+    static void addBench(int files, int size) throws IOException {
+        System.out.printf("%-12s%14s%n", "", "add (ms)");
+        for (boolean whole : new boolean[] {false, true}) {
+            run("init");
+            Random random = new Random(SEED);
+            for (int f = 0; f < files; f += 1) {
+                writeFile("f" + f, text(random, size));
+            }
+            double millis = time(() -> {
+                if (whole) {
+                    run("add", ".");
+                } else {
+                    for (int f = 0; f < files; f += 1) {
+                        run("add", "f" + f);
+                    }
+                }
+            });
+            System.out.printf("%-12s%14.2f%n", whole ? "add ." : "per file",
+                    millis);
+            cleanUp(Commands.CWD);
+            Config.reload();
+            Index.reload();
+        }
+    }
+
+    /** Times status over FILES committed text files of SIZE bytes, a
+     *  tenth of them modified, with status.threads at each power of two
+     *  up to the number of processors. The index is discarded before
+     *  every run so that every file is hashed.
+     *
+     * @param files - number of files.
+     * @param size - bytes per file.
+     */
+    static void statusBench(int files, int size) throws IOException {
+        final int modifiedEvery = 10;
+        run("init");
+        Random random = new Random(SEED);
+        for (int f = 0; f < files; f += 1) {
+            writeFile("f" + f, text(random, size));
+            run("add", "f" + f);
+        }
+        run("commit", "files");
+        for (int f = 0; f < files; f += modifiedEvery) {
+            writeFile("f" + f, text(random, size));
+        }
+        System.out.printf("%-10s%14s%10s%n", "threads", "status (ms)",
+                "speedup");
+        double single = 0;
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            run("config", Status.THREADS, "" + threads);
+            Index.reload();
+            Index.INDEX.delete();
+            time(() -> run("status"));
+            Index.reload();
+            Index.INDEX.delete();
+            double millis = time(() -> run("status"));
+            if (threads == 1) {
+                single = millis;
+            }
+            System.out.printf("%-10d%14.2f%10.2f%n", threads, millis,
+                    single / millis);
+        }
+        Index.reload();
+    }
+
+    /** Reports the size of the object store before and after repack
+     *  for a text file that is committed COMMITS times with a few lines
+     *  changed each time, and how long reading back every version takes.
+     *
+     * @param commits - number of versions.
+     */
+    static void packBench(int commits) throws IOException {
+        final int lines = 2000;
+        final int changes = 3;
+        Random random = new Random(SEED);
+        String[] text = text(random, lines * 40).split("\n");
+        run("init");
+        List<String> ids = new ArrayList<>();
+        for (int c = 0; c < commits; c += 1) {
+            for (int i = 0; i < changes; i += 1) {
+                text[random.nextInt(text.length)] = "edit " + c + " " + i;
+            }
+            writeFile("long.txt", String.join("\n", text));
+            run("add", "long.txt");
+            run("commit", "edit " + c);
+            ids.add(Utils.readObject(Commands.HEAD, Commit.class).getId());
+        }
+        long loose = sizeOf(Commands.BLOBS_DIR);
+        double looseRead = time(() -> readAll(ids));
+        double repack = time(() -> run("repack"));
+        long packed = sizeOf(Commands.BLOBS_DIR) + sizeOf(Pack.PACK_DIR);
+        double packedRead = time(() -> readAll(ids));
+        System.out.printf("%-10s%14s%14s%n", "", "loose", "packed");
+        System.out.printf("%-10s%14d%14d%n", "KB", loose >> 10, packed >> 10);
+        System.out.printf("%-10s%14.1f%14.1f%n", "read (ms)", looseRead,
+                packedRead);
+        System.out.printf("repack took %.1f ms for %d versions%n", repack,
+                commits);
+    }
+
+    /** Checks out long.txt from each commit in IDS.
+     *
+     * @param ids - commit IDs.
+     */
+    private static void readAll(List<String> ids) throws IOException {
+        for (String id : ids) {
+            run("checkout", id, "--", "long.txt");
+        }
+    }
+
+    /** Returns SIZE bytes of text made of random WORDS.
+     *
+     * @param random - source of randomness.
+     * @param size - length.
+     * @return String.
+     */
+    static String text(Random random, int size) {
+        StringBuilder out = new StringBuilder(size);
+        while (out.length() < size) {
+            out.append(WORDS[random.nextInt(WORDS.length)]);
+            out.append(random.nextInt(10) == 0 ? '\n' : ' ');
+        }
+        out.setLength(size);
+        return out.toString();
+    }
+
+    /** Returns the total size of the files under DIR.
+     *
+     * @param dir - directory.
+     * @return long.
+     */
+    static long sizeOf(File dir) {
+        long total = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                total += file.isDirectory() ? sizeOf(file) : file.length();
+            }
+        }
+        return total;
+    }
+
+    /** An operation to time. */
+    interface Op {
+        /** Runs the operation. */
+        void run() throws IOException;
+    }
+
+    /** Returns the milliseconds OP takes, with anything it prints
+     *  thrown away.
+     *
+     * @param op - operation.
+     * @return double.
+     */
+    static double time(Op op) throws IOException {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            long start = System.nanoTime();
+            op.run();
+            return (System.nanoTime() - start) / NANOS_PER_MILLI;
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /** Times switching between two branches whose FILES text files of
+     *  SIZE bytes all differ, with checkout.threads at each power of two
+     *  up to the number of processors.
+     *
+     * @param files - number of files.
+     * @param size - bytes per file.
+     */
+    static void checkoutBench(int files, int size) throws IOException {
+        run("init");
+        Random random = new Random(SEED);
+        for (int f = 0; f < files; f += 1) {
+            writeFile("f" + f, text(random, size));
+        }
+        run("add", ".");
+        run("commit", "master files");
+        run("branch", "other");
+        run("checkout", "other");
+        for (int f = 0; f < files; f += 1) {
+            writeFile("f" + f, text(random, size));
+        }
+        run("add", ".");
+        run("commit", "other files");
+        System.out.printf("%-10s%16s%10s%n", "threads", "checkout (ms)",
+                "speedup");
+        double single = 0;
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            run("config", Checkout.THREADS, "" + threads);
+            run("checkout", "master");
+            double millis = time(() -> run("checkout", "other"));
+            if (threads == 1) {
+                single = millis;
+            }
+            System.out.printf("%-10d%16.2f%10.2f%n", threads, millis,
+                    single / millis);
+        }
+        Index.reload();
+    }
+
+    /** Times diff, with and without --stat, between two commits of
+     *  FILES text files of SIZE bytes that differ in about one line in
+     *  DIFF_CHANGE_RATE, and between the working files and the staging
+     *  area after the same change again.
+     *
+     * @param files - number of files.
+     * @param size - bytes per file.
+     */
+    static void diffBench(int files, int size) throws IOException {
+        run("init");
+        Random random = new Random(SEED);
+        String[] contents = new String[files];
+        for (int f = 0; f < files; f += 1) {
+            contents[f] = text(random, size);
+            writeFile("f" + f, contents[f]);
+        }
+        run("add", ".");
+        run("commit", "original");
+        for (int f = 0; f < files; f += 1) {
+            contents[f] = changeLines(random, contents[f]);
+            writeFile("f" + f, contents[f]);
+        }
+        run("add", ".");
+        run("commit", "changed");
+        for (int f = 0; f < files; f += 1) {
+            writeFile("f" + f, changeLines(random, contents[f]));
+        }
+        Commit head = Repository.get().read(Commands.HEAD, Commit.class);
+        String from = head.getParent().get(0);
+        String to = head.getId();
+        double megabytes = 2.0 * files * size / MEGABYTE;
+        System.out.printf("%-20s%14s%12s%n", "diff", "time (ms)", "MB/s");
+        time(() -> run("diff", from, to));
+        String[][] cases = {
+            {"commits", from, to}, {"commits --stat", "--stat", from, to},
+            {"working"}, {"working --stat", "--stat"},
+        };
+        for (String[] c : cases) {
+            String[] args = new String[c.length];
+            args[0] = "diff";
+            System.arraycopy(c, 1, args, 1, c.length - 1);
+            double millis = time(() -> run(args));
+            System.out.printf("%-20s%14.2f%12.2f%n", c[0], millis,
+                    megabytes / (millis / 1000));
+        }
+        Index.reload();
+    }
+
+    /** Returns TEXT with about one line in DIFF_CHANGE_RATE replaced.
+     *
+     * @param random - source of randomness.
+     * @param text - contents.
+     * @return String.
+     */
+    static String changeLines(Random random, String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        for (String line : text.split("\n", -1)) {
+            if (out.length() > 0) {
+                out.append('\n');
+            }
+            out.append(random.nextInt(DIFF_CHANGE_RATE) == 0
+                    ? WORDS[random.nextInt(WORDS.length)] : line);
+        }
+        return out.toString();
+    }
+
+    /** Runs the command ARGS as Main would, writing the state it changed
+     *  when it finishes.
+     *
+     * @param args - command and operands.
+     */
+    static void run(String... args) throws IOException {
+        Main.operate(args);
+    }
+
+    /** Writes CONTENTS to NAME in the working directory.
+     *
+     * @param name - file name.
+     * @param contents - string or byte array.
+     */
+    static void writeFile(String name, Object contents) {
+        Utils.writeContents(Utils.join(Commands.CWD, name), contents);
+    }
+
+    /** Returns ARGS[I] as an int, or DFLT if there is none.
+     *
+     * @param args - arguments.
+     * @param i - index.
+     * @param dflt - default.
+     * @return int.
+     */
+    static int intArg(String[] args, int i, int dflt) {
+        return args.length > i ? Integer.parseInt(args[i]) : dflt;
+    }
+
+    /** Deletes everything inside DIR.
+     *
+     * @param dir - directory.
+     */
+    static void cleanUp(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                cleanUp(file);
+            }
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/** A compressed set of non-negative ints, laid out like a Roaring
+ *  bitmap: values are grouped by their high 16 bits, and each group
+ *  keeps its low 16 bits either as a sorted array, while it holds at
+ *  most ARRAY_MAX of them, or as a 65536-bit bitset once it holds more.
+ *  Sparse sets stay small and dense ones cost one bit per value.
+ *  @author willharvey
+ */
+class Bitmap {
+
+    /** Most values a group keeps as an array. */
+    static final int ARRAY_MAX = 4096;
+
+    /** Number of longs in a group's bitset. */
+    static final int WORDS = 1 << 10;
+
+    /** Number of low bits of a value kept within its group. */
+    static final int LOW_BITS = 16;
+
+    /** High 16 bits of each group, in increasing order. */
+    private int[] _keys = new int[0];
+
+    /** Groups, matching _keys: sorted char arrays or long bitsets. */
+    private Object[] _groups = new Object[0];
+
+    /** Number of values in each array group; unused for bitsets. */
+    private int[] _sizes = new int[0];
+
+    /** Number of groups in use. */
+    private int _count;
+
+    /** Adds VALUE to this set.
+     *
+     * @param value - non-negative int.
+     */
+    void add(int value) {
+        int i = group(value >>> LOW_BITS, true);
+        char low = (char) value;
+        if (_groups[i] instanceof long[]) {
+            long[] words = (long[]) _groups[i];
+            words[low >>> 6] |= 1L << low;
+            return;
+        }
+        char[] values = (char[]) _groups[i];
+        int at = Arrays.binarySearch(values, 0, _sizes[i], low);
+        if (at >= 0) {
+            return;
+        } else if (_sizes[i] == ARRAY_MAX) {
+            long[] words = toWords(values, _sizes[i]);
+            words[low >>> 6] |= 1L << low;
+            _groups[i] = words;
+            return;
+        }
+        at = -at - 1;
+        if (_sizes[i] == values.length) {
+            values = Arrays.copyOf(values,
+                    Math.min(ARRAY_MAX, Math.max(4, 2 * values.length)));
+            _groups[i] = values;
+        }
+        System.arraycopy(values, at, values, at + 1, _sizes[i] - at);
+        values[at] = low;
+        _sizes[i] += 1;
+    }
+
+    /** Returns whether VALUE is in this set.
+     *
+     * @param value - int.
+     * @return boolean.
+     */
+    boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int i = group(value >>> LOW_BITS, false);
+        if (i < 0) {
+            return false;
+        }
+        char low = (char) value;
+        if (_groups[i] instanceof long[]) {
+            return (((long[]) _groups[i])[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) _groups[i], 0, _sizes[i],
+                low) >= 0;
+    }
+
+    /** Adds every value of OTHER to this set.
+     *
+     * @param other - set.
+     */
+    void or(Bitmap other) {
+        for (int j = 0; j < other._count; j += 1) {
+            int i = group(other._keys[j], true);
+            long[] words = _groups[i] instanceof long[]
+                    ? (long[]) _groups[i] : null;
+            if (words == null && other._groups[j] instanceof long[]) {
+                words = toWords((char[]) _groups[i], _sizes[i]);
+                _groups[i] = words;
+            }
+            if (words == null) {
+                char[] values = (char[]) other._groups[j];
+                for (int k = 0; k < other._sizes[j]; k += 1) {
+                    add((other._keys[j] << LOW_BITS) | values[k]);
+                }
+            } else if (other._groups[j] instanceof long[]) {
+                long[] others = (long[]) other._groups[j];
+                for (int w = 0; w < WORDS; w += 1) {
+                    words[w] |= others[w];
+                }
+            } else {
+                char[] values = (char[]) other._groups[j];
+                for (int k = 0; k < other._sizes[j]; k += 1) {
+                    words[values[k] >>> 6] |= 1L << values[k];
+                }
+            }
+        }
+    }
+
+    /** Returns the number of values in this set.
+     *
+     * @return int.
+     */
+    int cardinality() {
+        int total = 0;
+        for (int i = 0; i < _count; i += 1) {
+            if (_groups[i] instanceof long[]) {
+                for (long word : (long[]) _groups[i]) {
+                    total += Long.bitCount(word);
+                }
+            } else {
+                total += _sizes[i];
+            }
+        }
+        return total;
+    }
+
+    /** Calls ACTION on every value of this set, in increasing order.
+     *
+     * @param action - consumer.
+     */
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < _count; i += 1) {
+            int high = _keys[i] << LOW_BITS;
+            if (_groups[i] instanceof long[]) {
+                long[] words = (long[]) _groups[i];
+                for (int w = 0; w < WORDS; w += 1) {
+                    long word = words[w];
+                    while (word != 0) {
+                        action.accept(high | (w << 6)
+                                | Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[]) _groups[i];
+                for (int k = 0; k < _sizes[i]; k += 1) {
+                    action.accept(high | values[k]);
+                }
+            }
+        }
+    }
+
+    /** Writes this set to OUT.
+     *
+     * @param out - stream.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(_count);
+        for (int i = 0; i < _count; i += 1) {
+            out.writeInt(_keys[i]);
+            if (_groups[i] instanceof long[]) {
+                out.writeInt(-1);
+                for (long word : (long[]) _groups[i]) {
+                    out.writeLong(word);
+                }
+            } else {
+                out.writeInt(_sizes[i]);
+                char[] values = (char[]) _groups[i];
+                for (int k = 0; k < _sizes[i]; k += 1) {
+                    out.writeChar(values[k]);
+                }
+            }
+        }
+    }
+
+    /** Reads a set written by write from IN.
+     *
+     * @param in - stream.
+     * @return Bitmap.
+     */
+    static Bitmap read(DataInputStream in) throws IOException {
+        Bitmap bitmap = new Bitmap();
+        int count = in.readInt();
+        bitmap._keys = new int[count];
+        bitmap._groups = new Object[count];
+        bitmap._sizes = new int[count];
+        bitmap._count = count;
+        for (int i = 0; i < count; i += 1) {
+            bitmap._keys[i] = in.readInt();
+            int size = in.readInt();
+            if (size < 0) {
+                long[] words = new long[WORDS];
+                for (int w = 0; w < WORDS; w += 1) {
+                    words[w] = in.readLong();
+                }
+                bitmap._groups[i] = words;
+            } else {
+                char[] values = new char[size];
+                for (int k = 0; k < size; k += 1) {
+                    values[k] = in.readChar();
+                }
+                bitmap._groups[i] = values;
+                bitmap._sizes[i] = size;
+            }
+        }
+        return bitmap;
+    }
+
+    /** Returns the index of the group with high bits KEY. If there is
+     *  none, adds an empty one if CREATE, and otherwise returns -1.
+     *
+     * @param key - high 16 bits.
+     * @param create - whether to add a missing group.
+     * @return int.
+     */
+    private int group(int key, boolean create) {
+        int i = Arrays.binarySearch(_keys, 0, _count, key);
+        if (i >= 0 || !create) {
+            return Math.max(i, -1);
+        }
+        i = -i - 1;
+        if (_count == _keys.length) {
+            int length = Math.max(4, 2 * _count);
+            _keys = Arrays.copyOf(_keys, length);
+            _groups = Arrays.copyOf(_groups, length);
+            _sizes = Arrays.copyOf(_sizes, length);
+        }
+        System.arraycopy(_keys, i, _keys, i + 1, _count - i);
+        System.arraycopy(_groups, i, _groups, i + 1, _count - i);
+        System.arraycopy(_sizes, i, _sizes, i + 1, _count - i);
+        _keys[i] = key;
+        _groups[i] = new char[0];
+        _sizes[i] = 0;
+        _count += 1;
+        return i;
+    }
+
+    /** Returns the first SIZE values of VALUES as a bitset.
+     *
+     * @param values - sorted low bits.
+     * @param size - number of values.
+     * @return long array.
+     */
+    private static long[] toWords(char[] values, int size) {
+        long[] words = new long[WORDS];
+        for (int k = 0; k < size; k += 1) {
+            words[values[k] >>> 6] |= 1L << values[k];
+        }
+        return words;
+    }
+}
@@ -1,24 +1,41 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 
-/** Blob class.
+/** Blob class. A blob is an object in the ObjectStore whose contents
+ *  are the raw bytes of a file. Contents are always streamed through a
+ *  fixed-size buffer, so no file is ever held in memory as a whole.
+ *  Blobs written by older versions, which hold a serialized Blob, can
+ *  still be read.
  * @author willharvey.
  */
 public class Blob implements Serializable {
 
-    /** Contents of Blob. */
-    private String _contents;
+    /** Kept at the value of the original class so that blobs written
+     *  as serialized objects can still be read. */
+    private static final long serialVersionUID = -1168268573857365310L;
 
-    /** Blob constructor.
-     *
-     * @param name - name of file.
-     */
-    public Blob(String name) {
-        File file = new File(name);
-        _contents = Utils.readContentsAsString(file);
-    }
+    /** Object type of blobs. */
+    static final String TYPE = "blob";
+
+    /** Size of the buffer contents are streamed through. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** First byte of a Java serialization stream. */
+    static final int LEGACY_MAGIC = 0xAC;
+
+    /** Contents of a Blob written as a serialized object. */
+    private String _contents;
 
     /** Getter method for contents.
      *
@@ -27,4 +44,123 @@ public class Blob implements Serializable {
     public String getContents() {
         return _contents;
     }
+
+    /** Copies FILE into the object store, hashing it on the way, and
+     *  returns the ID of the blob. Nothing is rewritten if a blob with
+     *  that ID already exists.
+     *
+     * @param file - file in the working directory.
+     * @return String sha1 ID.
+     */
+    static String store(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            return ObjectStore.write(TYPE, in.size(), in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the ID FILE would have as a blob, without storing it.
+     *
+     * @param file - file in the working directory.
+     * @return String sha1 ID.
+     */
+    static String hash(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            return ObjectStore.hash(TYPE, in.size(), in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns whether FILE has the contents of the blob with sha1 ID.
+     *  Blobs written as serialized objects have IDs that no longer match
+     *  a hash of the file, so for those the contents are compared.
+     *
+     * @param id - sha1 ID of the blob, or null.
+     * @param file - file in the working directory.
+     * @return boolean.
+     */
+    static boolean matches(String id, File file) {
+        if (id == null) {
+            return false;
+        }
+        return id.equals(hash(file)) || legacyMatches(id, file);
+    }
+
+    /** Returns whether the blob with sha1 ID was written as a serialized
+     *  object and has the contents of FILE. Only such blobs can hold
+     *  contents that do not hash to their ID.
+     *
+     * @param id - sha1 ID of the blob.
+     * @param file - file in the working directory.
+     * @return boolean.
+     */
+    static boolean legacyMatches(String id, File file) {
+        try (InputStream in = open(id)) {
+            return in instanceof ByteArrayInputStream
+                    && Arrays.equals(in.readAllBytes(),
+                            Utils.readContents(file));
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Writes the contents of the blob with sha1 ID to DEST, creating or
+     *  overwriting it.
+     *
+     * @param id - sha1 ID of the blob.
+     * @param dest - file to write.
+     */
+    static void copyTo(String id, File dest) {
+        try (InputStream in = open(id)) {
+            Files.copy(in, dest.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the whole contents of the blob with sha1 ID. Only for
+     *  callers that genuinely need all of it, such as merge conflicts.
+     *
+     * @param id - sha1 ID of the blob.
+     * @return byte array.
+     */
+    static byte[] read(String id) {
+        try (InputStream in = open(id)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream over the contents of the blob with sha1 ID,
+     *  positioned after its header.
+     *
+     * @param id - sha1 ID of the blob.
+     * @return InputStream.
+     */
+    static InputStream open(String id) throws IOException {
+        InputStream in = ObjectStore.open(id);
+        in.mark(1);
+        int first = in.read();
+        in.reset();
+        if (first == LEGACY_MAGIC) {
+            try (ObjectInputStream legacy = new ObjectInputStream(in)) {
+                Blob blob = (Blob) legacy.readObject();
+                return new ByteArrayInputStream(
+                        blob.getContents().getBytes(StandardCharsets.UTF_8));
+            } catch (ClassNotFoundException | ClassCastException excp) {
+                throw new IOException(excp.getMessage());
+            }
+        }
+        try {
+            ObjectStore.readHeader(in);
+        } catch (IOException excp) {
+            in.close();
+            throw new IOException("corrupt blob " + id);
+        }
+        return in;
+    }
 }
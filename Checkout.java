@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
+
+/** A plan of the working files a checkout or reset writes and deletes,
+ *  carried out once it is complete. Deletions go first, on the calling
+ *  thread, since they prune directories they empty. The files are then
+ *  written on checkout.threads threads (core.threads unless set), while
+ *  a prefetching thread brings the blobs they are written from into
+ *  memory, at most PREFETCH_WINDOW files ahead of the writers, so that
+ *  reading and writing overlap. A plan between two commits comes from
+ *  the difference of their trees, so that files they share are not
+ *  written again unless the working copy has changed.
+ *  @author willharvey
+ */
+class Checkout {
+
+    /** Configuration key for the number of threads files are written
+     *  on, overriding core.threads. */
+    static final String THREADS = "checkout.threads";
+
+    /** Most files whose blobs are prefetched but not yet written. */
+    static final int PREFETCH_WINDOW = 256;
+
+    /** Blob IDs of the files to write, by path. */
+    private final TreeMap<String, String> _writes = new TreeMap<>();
+
+    /** Paths of the files to delete. */
+    private final TreeSet<String> _deletes = new TreeSet<>();
+
+    /** Returns the plan that turns the working files of commit FROM into
+     *  those of TO. Paths whose blobs differ between the two trees are
+     *  written or deleted. A file the two share is written only if its
+     *  working copy no longer holds the shared blob, which the index
+     *  tells from stat data without reading the file in most cases.
+     *  This pass over the shared files is kept on purpose: checkout and
+     *  reset put back every file of TO, so a shared file edited since
+     *  FROM must be overwritten, and nothing short of a stat of each
+     *  one finds those edits. Only a stat is paid per file: the trees
+     *  of TO are read once, by getFiles, and no unchanged file is read
+     *  or written.
+     *
+     * @param from - commit the working files are checked out from.
+     * @param to - commit to check out.
+     * @return Checkout.
+     */
+    static Checkout between(Commit from, Commit to) {
+        Checkout plan = new Checkout();
+        Map<String, String> changes = Tree.diff(from.getTree(),
+                to.getTree());
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                plan.delete(change.getKey());
+            } else {
+                plan.write(change.getKey(), change.getValue());
+            }
+        }
+        LinkedHashMap<String, String> files = to.getFiles();
+        List<String> shared = new ArrayList<>();
+        for (String name : files.keySet()) {
+            if (!changes.containsKey(name)) {
+                shared.add(name);
+            }
+        }
+        Index index = Index.get();
+        Workers.map(shared, name -> files.get(name).equals(
+                index.blobId(name)) ? null : files.get(name), THREADS)
+                .forEach(plan::write);
+        return plan;
+    }
+
+    /** Returns the blob IDs of the files the plan writes, by path.
+     *
+     * @return Map.
+     */
+    Map<String, String> writes() {
+        return Collections.unmodifiableMap(_writes);
+    }
+
+    /** Returns the paths of the files the plan deletes.
+     *
+     * @return List.
+     */
+    List<String> deletes() {
+        return new ArrayList<>(_deletes);
+    }
+
+    /** Plans to write the blob with sha1 ID to the working file NAME.
+     *
+     * @param name - path.
+     * @param id - sha1 ID of a blob.
+     */
+    void write(String name, String id) {
+        _deletes.remove(name);
+        _writes.put(name, id);
+    }
+
+    /** Plans to delete the working file NAME.
+     *
+     * @param name - path.
+     */
+    void delete(String name) {
+        _writes.remove(name);
+        _deletes.add(name);
+    }
+
+    /** Carries out the plan. */
+    void run() {
+        for (String name : _deletes) {
+            Commands.deleteWorkingFile(name);
+        }
+        List<String> names = new ArrayList<>(_writes.keySet());
+        if (names.size() < Workers.PARALLEL_THRESHOLD) {
+            for (String name : names) {
+                Commands.writeWorkingFile(name, _writes.get(name));
+            }
+            return;
+        }
+        Semaphore ahead = new Semaphore(PREFETCH_WINDOW);
+        Thread prefetcher = new Thread(() -> {
+            try {
+                for (String name : names) {
+                    ahead.acquire();
+                    ObjectStore.prefetch(_writes.get(name));
+                }
+            } catch (InterruptedException excp) {
+                return;
+            }
+        });
+        prefetcher.setDaemon(true);
+        prefetcher.start();
+        try {
+            Workers.forEach(names, name -> {
+                Commands.writeWorkingFile(name, _writes.get(name));
+                ahead.release();
+            }, THREADS);
+        } finally {
+            prefetcher.interrupt();
+        }
+    }
+}
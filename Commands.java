@@ -1,17 +1,28 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 
-import java.text.SimpleDateFormat;
 import java.util.LinkedHashMap;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Formatter;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 
 /** Class containing all possible commands in the Gitlet Library.
@@ -29,7 +40,7 @@ public class Commands implements Serializable {
     static final File GITLET_DIR = Utils.join(CWD, ".gitlet");
 
     /**
-     * Directory of Commit History.
+     * Directory of Commit History, one file per commit named by its sha1.
      */
     static final File COMMITS = Utils.join(GITLET_DIR, "commits");
 
@@ -43,19 +54,6 @@ public class Commands implements Serializable {
      */
     static final File BLOBS_DIR = Utils.join(GITLET_DIR, "blobs");
 
-    /**
-     * File that contains the LinkedListHashMap of the staging area to be added.
-     */
-    static final File STAGE_AREA_ADD = Utils.join(GITLET_DIR,
-            "add");
-
-    /**
-     * File that contains the LinkedListHashMap of the staging area
-     * to be removed.
-     */
-    static final File STAGE_AREA_RM = Utils.join(GITLET_DIR,
-            "rm");
-
     /**
      * File that contains the HEAD branch.
      */
@@ -67,6 +65,11 @@ public class Commands implements Serializable {
     static final File CURRENT_BRANCH = Utils.join(GITLET_DIR,
             "current branch");
 
+    /**
+     * Marks a diff version that is a working file rather than a blob.
+     */
+    static final String DIFF_WORKING = "working:";
+
     /**
      * Initializes the gitlet Repo.
      */
@@ -76,24 +79,22 @@ public class Commands implements Serializable {
                     + "system already exists in the current directory.");
         }
         setUpPersistence();
-        LinkedHashMap<String, String> copyFiles = new LinkedHashMap<>();
-        LinkedHashMap<String, Commit> myCommits = new LinkedHashMap<>();
+        MessageIndex.rebuild();
+        String emptyTree = Tree.update(null, new LinkedHashMap<>());
         ArrayList<String> initialParents = new ArrayList<>();
         initialParents.add(null);
         initialParents.add("");
         Commit initial = new Commit("initial commit", initialParents,
-                copyFiles);
-        byte[] initString = Utils.serialize(initial);
-        String initShai = Utils.sha1(initString);
+                emptyTree);
+        String initShai = initial.getId();
         ArrayList<String> commits = new ArrayList<>();
         commits.add(initShai);
         Branch master = new Branch(true, "master", commits);
-        myCommits.put(initShai, initial);
         File branch1 = Utils.join(BRANCH_DIR, master.getName());
-        Utils.writeObject(COMMITS, myCommits);
-        Utils.writeObject(branch1, master);
-        Utils.writeObject(CURRENT_BRANCH, master);
-        Utils.writeObject(HEAD, initial);
+        CommitStore.write(initial);
+        Repository.get().write(branch1, master);
+        Repository.get().write(CURRENT_BRANCH, master);
+        Repository.get().write(HEAD, initial);
     }
 
     /**
@@ -101,52 +102,64 @@ public class Commands implements Serializable {
      */
     public static void setUpPersistence() throws IOException {
         GITLET_DIR.mkdir();
-        COMMITS.createNewFile();
+        COMMITS.mkdir();
         BRANCH_DIR.mkdir();
         BLOBS_DIR.mkdir();
-        STAGE_AREA_ADD.createNewFile();
-        STAGE_AREA_RM.createNewFile();
         HEAD.createNewFile();
         CURRENT_BRANCH.createNewFile();
-        LinkedHashMap<String, String> add = new LinkedHashMap<>();
-        ArrayList<String> rm = new ArrayList<>();
-        Utils.writeObject(STAGE_AREA_ADD, add);
-        Utils.writeObject(STAGE_AREA_RM, rm);
+        Stage.get().clear();
     }
 
-    /** Stages fileName to be added, checking failure conidtions
-     * on the way.
-     * @param fileName - String of fileName.
+    /** Stages the files in fileNames to be added, checking failure
+     * conidtions on the way. A directory, such as ".", stands for every
+     * file under it. Files are hashed and stored by Workers, files the
+     * index already knows are not read at all, and the staging areas are
+     * written once at the end.
+     * @param fileNames - Strings of file and directory names.
      */
-    public static void add(String fileName) {
-        File copy = new File(fileName);
-        if (!copy.exists()) {
-            throw new GitletException("File doesn't exist");
+    public static void add(String... fileNames) {
+        Set<String> paths = new TreeSet<>();
+        List<String> working = null;
+        for (String fileName : fileNames) {
+            String path = Tree.path(fileName);
+            File copy = Utils.join(CWD, path);
+            if (copy.isFile()) {
+                paths.add(path);
+            } else if (copy.isDirectory()) {
+                if (working == null) {
+                    working = workingFiles();
+                }
+                String prefix = path.isEmpty() ? "" : path + Tree.SEPARATOR;
+                for (String file : working) {
+                    if (file.startsWith(prefix) && styleIndicator(file)) {
+                        paths.add(file);
+                    }
+                }
+            } else {
+                throw new GitletException("File doesn't exist");
+            }
         }
-        Blob copyBlob = new Blob(fileName);
-        byte[] blobStr = Utils.serialize(copyBlob.getContents());
-        String blobShai = Utils.sha1(blobStr);
-        File newBlob = Utils.join(BLOBS_DIR, blobShai);
-        Utils.writeObject(newBlob, copyBlob);
-        LinkedHashMap<String, String> stageAdd = getStageAdd();
-        ArrayList<String> stageRM = getStageRm();
-        stageRM.remove(fileName);
-        Commit head = Utils.readObject(HEAD, Commit.class);
-        LinkedHashMap<String, String> headFiles = head.getFiles();
-        String blobShaiInHead = headFiles.get(fileName);
-        File versionInCWD = Utils.join(CWD, fileName);
-        String contentsOfCWD = Utils.readContentsAsString(versionInCWD);
-        byte[] cereal = Utils.serialize(contentsOfCWD);
-        String sha1OfCWD = Utils.sha1(cereal);
-        if (stageAdd.containsKey(fileName)) {
-            stageAdd.replace(fileName, blobShai);
-        } else if (sha1OfCWD.equals(blobShaiInHead)) {
-            stageAdd.remove(fileName);
-        } else {
-            stageAdd.put(fileName, blobShai);
+        Index index = Index.get();
+        Map<String, String> blobs = Workers.map(paths, path -> {
+            String blobShai = index.cleanBlobId(path);
+            if (blobShai == null || !ObjectStore.contains(blobShai)) {
+                blobShai = index.store(path);
+            }
+            return blobShai;
+        }, null);
+        Stage stage = Stage.get();
+        Commit head = Repository.get().read(HEAD, Commit.class);
+        Map<String, String> headFiles = head.getFiles(paths);
+        for (String fileName : paths) {
+            String blobShai = blobs.get(fileName);
+            String blobShaiInHead = headFiles.get(fileName);
+            if (stage.added(fileName) == null
+                    && blobShai.equals(blobShaiInHead)) {
+                stage.unstage(fileName);
+            } else {
+                stage.add(fileName, blobShai);
+            }
         }
-        Utils.writeObject(STAGE_AREA_ADD, stageAdd);
-        Utils.writeObject(STAGE_AREA_RM, stageRM);
     }
 
     /** Takes all files staged to be added and adds them to a new
@@ -164,109 +177,258 @@ public class Commands implements Serializable {
      *                        not a merge instance.
      */
     public static void commitHelper(String message, String mergeParentShai) {
-        LinkedHashMap<String, String> stageAdd = getStageAdd();
-        ArrayList<String> rm = getStageRm();
-        LinkedHashMap<String, Commit> myCommits = getMyCommits();
-        if (stageAdd.isEmpty() && rm.isEmpty() && mergeParentShai.equals("")) {
+        Stage stage = Stage.get();
+        if (stage.isEmpty() && mergeParentShai.equals("")) {
             throw new GitletException("No changes added to the commit.");
         }
-        Commit parent = Utils.readObject(HEAD, Commit.class);
-        byte[] cereal = Utils.serialize(parent);
-        String parentShai = Utils.sha1(cereal);
-        Branch currentBranch = Utils.readObject(
+        Commit parent = Repository.get().read(HEAD, Commit.class);
+        String parentShai = parent.getId();
+        Branch currentBranch = Repository.get().read(
                 CURRENT_BRANCH, Branch.class);
-        LinkedHashMap<String, String> files = deepCopyLHM(
-                parent.getFiles());
-        if (!rm.isEmpty()) {
-            for (String removedFile : rm) {
-                files.remove(removedFile);
-            }
+        LinkedHashMap<String, String> changes = new LinkedHashMap<>();
+        for (String removedFile : stage.removed()) {
+            changes.put(removedFile, null);
         }
+        changes.putAll(stage.added());
+        String tree = Tree.update(parent.getTree(), changes);
         ArrayList<String> parents = new ArrayList<>();
         parents.add(parentShai);
         parents.add(mergeParentShai);
-        Commit current = new Commit(message, parents, files);
-        for (String fileName : stageAdd.keySet()) {
-            if (current.getFiles().containsKey(fileName)) {
-                current.getFiles().replace(fileName,
-                        stageAdd.get(fileName));
-            } else {
-                current.getFiles().put(fileName, stageAdd.get(fileName));
-            }
-        }
-        stageAdd.clear();
-        Utils.writeObject(STAGE_AREA_ADD, stageAdd);
-        byte[] newCommit = Utils.serialize(current);
-        String name = Utils.sha1(newCommit);
-        myCommits.put(name, current);
-        Utils.writeObject(COMMITS, myCommits);
-        Utils.writeObject(HEAD, current);
+        Commit current = new Commit(message, parents, tree);
+        stage.clear();
+        String name = current.getId();
+        CommitStore.write(current);
+        Repository.get().write(HEAD, current);
         currentBranch.getCommit().remove(parentShai);
         currentBranch.getCommit().add(name);
-        Utils.writeObject(CURRENT_BRANCH, currentBranch);
-        rm.clear();
-        Utils.writeObject(STAGE_AREA_RM, rm);
+        Repository.get().write(CURRENT_BRANCH, currentBranch);
         File currentBranchFile = Utils.join(
                 BRANCH_DIR, currentBranch.getName());
-        Utils.writeObject(currentBranchFile, currentBranch);
+        Repository.get().write(currentBranchFile, currentBranch);
     }
 
     /** Starting from the head commit, prints out the history
      * of each commit along the current branch. Excludes any history
-     * that differs at split point.
+     * that differs at split point. Entries are written as the walk
+     * reaches them; commits outside the dates asked for are passed over
+     * without being read.
+     * @param options - -n, --since and --until, as LogWriter reads them.
      */
-    public static void log() {
-        Formatter out = new Formatter();
-        LinkedHashMap<String, Commit> myCommits = getMyCommits();
-        Commit v = Utils.readObject(HEAD, Commit.class);
-        byte[] cereal = Utils.serialize(v);
-        String shai = Utils.sha1(cereal);
-        String parentShai = v.getParent().get(0);
-        while (v != null) {
-            out.format("===\n");
-            out.format("commit " + shai + "\n");
-            Date now = v.getStamp();
-            String pattern = ("EEE MMM d HH:mm:ss yyyy Z");
-            SimpleDateFormat cherb = new SimpleDateFormat(pattern);
-            out.format("Date: " + cherb.format(now) + "\n");
-            out.format(v.getMessage() + "\n");
-            if (v.getParent().get(0) == null) {
-                break;
-            } else {
-                out.format("\n");
+    public static void log(String... options) {
+        LogWriter out = new LogWriter(options, false);
+        CommitGraph graph = CommitGraph.get();
+        Commit head = Repository.get().read(HEAD, Commit.class);
+        int pos = graph.position(head.getId());
+        while (pos != CommitGraph.NONE && !out.full()) {
+            long time = graph.time(pos);
+            if (out.accepts(time)) {
+                String shai = graph.id(pos);
+                out.write(shai, time, CommitStore.read(shai).getMessage());
             }
-            v = myCommits.get(parentShai);
-            cereal = Utils.serialize(v);
-            shai = Utils.sha1(cereal);
-            parentShai = v.getParent().get(0);
+            pos = graph.parent(pos, 0);
         }
-        System.out.println(out);
+        out.flush();
     }
 
-    /** Prints out the commit history in random order. Prints out
-     * every commit, even though in different paths after split points.
+    /** Prints the line-by-line differences, as a unified diff or with
+     * --stat as a count of changed lines per file. With no commits it
+     * compares the working files with the staging area, or with --cached
+     * the staging area with the head commit; with two commits it compares
+     * their trees. Files whose blob IDs match are skipped unread.
+     * @param options - [--cached] [--stat] [COMMIT COMMIT].
      */
-    public static void globalLog() {
-        Formatter out = new Formatter();
-        LinkedHashMap<String, Commit> myCommits = getMyCommits();
-        Set<String> alKeys = myCommits.keySet();
-        int i = 1;
-        for (String k : alKeys) {
-            Commit v = myCommits.get(k);
-            out.format("===\n");
-            out.format("commit " + k + "\n");
-            Date now = v.getStamp();
-            String pattern = ("EEE MMM d HH:mm:ss yyyy Z");
-            SimpleDateFormat cherb = new SimpleDateFormat(pattern);
-            out.format("Date: " + cherb.format(now) + "\n");
-            out.format(v.getMessage() + "\n");
-            if (i == alKeys.size()) {
-                break;
+    public static void diff(String... options) throws IOException {
+        boolean cached = false;
+        boolean stat = false;
+        List<String> commits = new ArrayList<>();
+        for (String option : options) {
+            if (option.equals("--cached")) {
+                cached = true;
+            } else if (option.equals("--stat")) {
+                stat = true;
             } else {
-                out.format("\n");
+                commits.add(option);
             }
         }
-        System.out.println(out);
+        if ((commits.size() != 0 && commits.size() != 2)
+                || (cached && !commits.isEmpty())) {
+            throw new GitletException("Incorrect Operands.");
+        }
+        Map<String, String[]> pairs;
+        if (commits.isEmpty()) {
+            pairs = cached ? stagedPairs() : workingPairs();
+        } else {
+            pairs = commitPairs(diffCommit(commits.get(0)),
+                    diffCommit(commits.get(1)));
+        }
+        List<String> names = new ArrayList<>(pairs.keySet());
+        Map<String, Diff> diffs = Workers.map(names, name -> {
+            String[] pair = pairs.get(name);
+            Diff diff = new Diff(diffContents(pair[0]),
+                    diffContents(pair[1]));
+            return diff.differs() ? diff : null;
+        }, null);
+        names.retainAll(diffs.keySet());
+        OutputStream out = new BufferedOutputStream(System.out);
+        if (stat) {
+            int width = 0;
+            int widest = 0;
+            int insertions = 0;
+            int deletions = 0;
+            for (String name : names) {
+                Diff diff = diffs.get(name);
+                width = Math.max(width, name.length());
+                widest = Math.max(widest,
+                        diff.insertions() + diff.deletions());
+                insertions += diff.insertions();
+                deletions += diff.deletions();
+            }
+            for (String name : names) {
+                out.write(diffs.get(name).stat(name, width, widest)
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            if (!names.isEmpty()) {
+                out.write(String.format(" %d files changed, %d insertions(+),"
+                        + " %d deletions(-)\n", names.size(), insertions,
+                        deletions).getBytes(StandardCharsets.UTF_8));
+            }
+        } else {
+            for (String name : names) {
+                String[] pair = pairs.get(name);
+                diffs.get(name).write(out, name, pair[0] != null,
+                        pair[1] != null);
+            }
+        }
+        out.flush();
+    }
+
+    /** Returns the old and new versions of each file that differs between
+     * the staging area and the working files. A version is a blob ID, a
+     * working file path prefixed with DIFF_WORKING, or null if absent.
+     * @return TreeMap of path to pair.
+     */
+    private static Map<String, String[]> workingPairs() {
+        Stage stage = Stage.get();
+        Commit head = Repository.get().read(HEAD, Commit.class);
+        Map<String, String> staged = new TreeMap<>(head.getFiles());
+        staged.putAll(stage.added());
+        for (String name : stage.removed()) {
+            staged.remove(name);
+        }
+        Index index = Index.get();
+        Map<String, String> working = Workers.map(staged.keySet(),
+                index::blobId, Status.THREADS);
+        Map<String, String[]> pairs = new TreeMap<>();
+        for (Map.Entry<String, String> file : staged.entrySet()) {
+            String name = file.getKey();
+            String id = working.get(name);
+            if (!file.getValue().equals(id)) {
+                pairs.put(name, new String[] {file.getValue(),
+                    id == null ? null : DIFF_WORKING + name});
+            }
+        }
+        return pairs;
+    }
+
+    /** Returns the old and new versions of each file that differs between
+     * the head commit and the staging area, as blob IDs or null.
+     * @return TreeMap of path to pair.
+     */
+    private static Map<String, String[]> stagedPairs() {
+        Stage stage = Stage.get();
+        Map<String, String> headFiles = Repository.get().read(HEAD,
+                Commit.class).getFiles();
+        Map<String, String[]> pairs = new TreeMap<>();
+        for (Map.Entry<String, String> file : stage.added().entrySet()) {
+            String old = headFiles.get(file.getKey());
+            if (!file.getValue().equals(old)) {
+                pairs.put(file.getKey(), new String[] {old,
+                    file.getValue()});
+            }
+        }
+        for (String name : stage.removed()) {
+            if (headFiles.containsKey(name)) {
+                pairs.put(name, new String[] {headFiles.get(name), null});
+            }
+        }
+        return pairs;
+    }
+
+    /** Returns the old and new versions of each file that differs between
+     * commits FROM and TO, as blob IDs or null. Only the subtrees whose
+     * IDs differ are read.
+     * @param from - old commit.
+     * @param to - new commit.
+     * @return TreeMap of path to pair.
+     */
+    private static Map<String, String[]> commitPairs(Commit from,
+                                                     Commit to) {
+        Map<String, String[]> pairs = new TreeMap<>();
+        Map<String, String> changes = Tree.diff(from.getTree(),
+                to.getTree());
+        if (changes.isEmpty()) {
+            return pairs;
+        }
+        Map<String, String> old = from.getFiles();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            pairs.put(change.getKey(), new String[] {
+                old.get(change.getKey()), change.getValue()});
+        }
+        return pairs;
+    }
+
+    /** Returns the commit ID, or a prefix of it, names.
+     * @param id - full or abbreviated sha1 ID.
+     * @return Commit.
+     */
+    private static Commit diffCommit(String id) {
+        id = sha1Elongator(id);
+        if (!CommitStore.contains(id)) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        return CommitStore.read(id);
+    }
+
+    /** Returns the contents of VERSION, as workingPairs and its siblings
+     * give it, or null if it is absent.
+     * @param version - blob ID, DIFF_WORKING and a path, or null.
+     * @return byte array or null.
+     */
+    private static byte[] diffContents(String version) {
+        if (version == null) {
+            return null;
+        } else if (version.startsWith(DIFF_WORKING)) {
+            return Utils.readContents(Utils.join(CWD,
+                    version.substring(DIFF_WORKING.length())));
+        }
+        return Blob.read(version);
+    }
+
+    /** Prints out the commit history in random order. Prints out
+     * every commit, even though in different paths after split points,
+     * or only those no branch reaches if --unreachable is given. The
+     * commits are visited one at a time in the order COMMITS lists them.
+     * @param options - as LogWriter reads them for global-log.
+     */
+    public static void globalLog(String... options) {
+        LogWriter out = new LogWriter(options, true);
+        Set<String> onBranch = new HashSet<>();
+        if (out.unreachable()) {
+            CommitGraph graph = CommitGraph.get();
+            Bitmap reached = Reachability.get().reachable(branchHeads());
+            reached.forEach(pos -> onBranch.add(graph.id(pos)));
+        }
+        CommitStore.forEach(id -> {
+            if (!onBranch.contains(id)) {
+                Commit v = CommitStore.read(id);
+                long time = v.getStamp().getTime();
+                if (out.accepts(time)) {
+                    out.write(id, time, v.getMessage());
+                }
+            }
+            return !out.full();
+        });
+        out.flush();
     }
 
     /** Checks out the file given, replacing its contents in the CWD
@@ -274,17 +436,13 @@ public class Commands implements Serializable {
      * @param file - String name of file.
      */
     public static void checkout1(String file) {
-        Commit head = Utils.readObject(HEAD, Commit.class);
-        LinkedHashMap<String, String> allFiles = head.getFiles();
-        if (!allFiles.containsKey(file)) {
+        file = Tree.path(file);
+        Commit head = Repository.get().read(HEAD, Commit.class);
+        String blob = head.getFile(file);
+        if (blob == null) {
             throw new GitletException("File does not exist in that commit.");
         }
-        String blob = allFiles.get(file);
-        File fileInCWD = Utils.join(CWD, file);
-        File currBlob = Utils.join(BLOBS_DIR, blob);
-        Blob checkoutBlob = Utils.readObject(currBlob, Blob.class);
-        String contents = checkoutBlob.getContents();
-        Utils.writeContents(fileInCWD, contents);
+        writeWorkingFile(file, blob);
     }
 
 
@@ -295,22 +453,17 @@ public class Commands implements Serializable {
      * @param file - String fileName.
      */
     public static void checkout2(String shai, String file) {
-        LinkedHashMap<String, Commit> myCommits = getMyCommits();
+        file = Tree.path(file);
         shai = sha1Elongator(shai);
-        if (!myCommits.containsKey(shai)) {
+        Commit correct = CommitStore.read(shai);
+        if (correct == null) {
             throw new GitletException("No commit with that id exists.");
         }
-        Commit correct = myCommits.get(shai);
-        LinkedHashMap<String, String> allFiles = correct.getFiles();
-        if (!allFiles.containsKey(file)) {
+        String blob = correct.getFile(file);
+        if (blob == null) {
             throw new GitletException("File does not exist in that commit.");
         }
-        String blobShai = allFiles.get(file);
-        File blobToBeTaken = Utils.join(BLOBS_DIR, blobShai);
-        File fileInCWD = Utils.join(CWD, file);
-        Blob blobToOverwriteWith = Utils.readObject(blobToBeTaken, Blob.class);
-        String contents = blobToOverwriteWith.getContents();
-        Utils.writeContents(fileInCWD, contents);
+        writeWorkingFile(file, blob);
     }
 
     /** Checks out the given branch, replacing all files in the
@@ -323,100 +476,67 @@ public class Commands implements Serializable {
      */
     public static void checkout3(String brName) {
         List<String> allBr = Utils.plainFilenamesIn(BRANCH_DIR);
-        Branch currBr = Utils.readObject(CURRENT_BRANCH, Branch.class);
-        LinkedHashMap<String, Commit> myCommits = getMyCommits();
+        Branch currBr = Repository.get().read(CURRENT_BRANCH, Branch.class);
         ArrayList<String> currCommShai = currBr.getCommit();
-        Commit commitOfCurrentBranch = myCommits.get(
+        Commit commitOfCurrentBranch = CommitStore.read(
                 currCommShai.get(currCommShai.size() - 1));
-        LinkedHashMap<String, String> commFiles =
-                commitOfCurrentBranch.getFiles();
         if (!allBr.contains(brName)) {
             throw new GitletException("No such branch exists.");
         } else if (brName.equals(currBr.getName())) {
             throw new GitletException("No need to checkout the "
                     + "current branch.");
         }
-        checkout3FailureHelper(brName);
         File fileOfBranch = Utils.join(BRANCH_DIR, brName);
-        Branch checkoutBr = Utils.readObject(fileOfBranch, Branch.class);
+        Branch checkoutBr = Repository.get().read(fileOfBranch, Branch.class);
         ArrayList<String> checkoutCommShai = checkoutBr.getCommit();
-        Commit commitOfCheckoutBranch = myCommits.get(
+        Commit commitOfCheckoutBranch = CommitStore.read(
                 checkoutCommShai.get(checkoutCommShai.size() - 1));
-        LinkedHashMap<String, String> checkoutFiles =
-                commitOfCheckoutBranch.getFiles();
-        for (String fileName : commFiles.keySet()) {
-            if (checkoutFiles.containsKey(fileName)) {
-                checkout2(checkoutCommShai.get(
-                        checkoutCommShai.size() - 1), fileName);
-            } else if (!checkoutFiles.containsKey(fileName)) {
-                File youFinnaBeGone = Utils.join(CWD, fileName);
-                Utils.restrictedDelete(youFinnaBeGone);
-            }
-        }
-        for (String checkoutFileName : checkoutFiles.keySet()) {
-            if (!commFiles.containsKey(checkoutFileName)) {
-                String blobShai = checkoutFiles.get(checkoutFileName);
-                File blobToBeTaken = Utils.join(BLOBS_DIR, blobShai);
-                File fileInCWD = Utils.join(CWD, checkoutFileName);
-                Blob blobToOverwriteWith = Utils.readObject(
-                        blobToBeTaken, Blob.class);
-                String contents = blobToOverwriteWith.getContents();
-                Utils.writeContents(fileInCWD, contents);
-            }
-        }
-        Utils.writeObject(CURRENT_BRANCH, checkoutBr);
-        Utils.writeObject(fileOfBranch, checkoutBr);
+        Checkout plan = Checkout.between(commitOfCurrentBranch,
+                commitOfCheckoutBranch);
+        checkout3FailureHelper(commitOfCurrentBranch, plan.writes());
+        plan.run();
+        Repository.get().write(CURRENT_BRANCH, checkoutBr);
+        Repository.get().write(fileOfBranch, checkoutBr);
         File currentBranchFile = Utils.join(BRANCH_DIR, currBr.getName());
-        Utils.writeObject(currentBranchFile, currBr);
-        LinkedHashMap<String, String> stageAdd = getStageAdd();
-        stageAdd.clear();
-        Utils.writeObject(STAGE_AREA_ADD, stageAdd);
-        Utils.writeObject(HEAD, commitOfCheckoutBranch);
+        Repository.get().write(currentBranchFile, currBr);
+        Stage stage = Stage.get();
+        for (String staged : stage.added().keySet()) {
+            stage.unstage(staged);
+        }
+        Repository.get().write(HEAD, commitOfCheckoutBranch);
     }
 
-    /** Helper for a specific failure case in checkout3.
-     * If a file is untracked in the current branch and
-     * would be overwritten by the checkout, throw error.
-     * @param brName - String branch name.
+    /** Helper for a specific failure case in checkout3, reset and merge.
+     * Throws an error naming every file in WRITES, the blob IDs an
+     * operation is about to write by path, that is untracked in HEAD,
+     * not staged, and present with other contents, so it would be
+     * overwritten. Only the paths in WRITES are looked at.
+     * @param head - Commit the working files are checked out from.
+     * @param writes - sha1 IDs of the blobs to write by path.
      */
-    public static void checkout3FailureHelper(String brName) {
-        Branch currentBranch = Utils.readObject(CURRENT_BRANCH, Branch.class);
-        String commitIDOfCurrentBranch = currentBranch.getCommit().get(
-                currentBranch.getCommit().size() - 1);
-        LinkedHashMap<String, Commit> myCommits = getMyCommits();
-        Commit actualCommitOfCurrentBranch = myCommits.get(
-                commitIDOfCurrentBranch);
-        LinkedHashMap<String, String> filesOfCommit =
-                actualCommitOfCurrentBranch.getFiles();
-        List<String> checker = Utils.plainFilenamesIn(CWD);
-        LinkedHashMap<String, String> stageAdd = getStageAdd();
-        for (String fileInCWD : checker) {
-            if (stageAdd.containsKey(fileInCWD)) {
-                break;
-            } else if (!filesOfCommit.containsKey(fileInCWD)
-                    && !fileInCWD.equals(".gitignore")
-                    && !fileInCWD.equals("Makefile")
-                    && !fileInCWD.equals("proj3.iml")) {
-                File fileBeingChecked = Utils.join(CWD, fileInCWD);
-                String contentsOfFile = Utils.readContentsAsString(
-                        fileBeingChecked);
-                byte[] contentsCereal = Utils.serialize(contentsOfFile);
-                String contentsShai = Utils.sha1(contentsCereal);
-                File fileOfBranch = Utils.join(BRANCH_DIR, brName);
-                Branch currBr = Utils.readObject(fileOfBranch, Branch.class);
-                ArrayList<String> currCommShai = currBr.getCommit();
-                Commit commitOfCheckoutBranch = myCommits.get(
-                        currCommShai.get(currCommShai.size() - 1));
-                LinkedHashMap<String, String> commFiles =
-                        commitOfCheckoutBranch.getFiles();
-                String shaiInCheckoutBranch = commFiles.get(fileInCWD);
-                if (!contentsShai.equals(shaiInCheckoutBranch)) {
-                    throw new GitletException("There is an untracked file "
-                            + "in the way; "
-                            + "delete it, or add and commit it first.");
-                }
+    public static void checkout3FailureHelper(Commit head,
+                                              Map<String, String> writes) {
+        Stage stage = Stage.get();
+        Index index = Index.get();
+        Map<String, String> tracked = head.getFiles(writes.keySet());
+        StringBuilder inTheWay = new StringBuilder();
+        for (Map.Entry<String, String> write : writes.entrySet()) {
+            String name = write.getKey();
+            if (Utils.join(CWD, name).isFile()
+                    && !tracked.containsKey(name)
+                    && stage.added(name) == null
+                    && !name.equals(".gitignore")
+                    && !name.equals("Makefile")
+                    && !name.equals("proj3.iml")
+                    && !index.matches(name, write.getValue())) {
+                inTheWay.append("\n    ").append(name);
             }
         }
+        if (inTheWay.length() > 0) {
+            throw new GitletException("There is an untracked file "
+                    + "in the way; "
+                    + "delete it, or add and commit it first." + inTheWay);
+        }
     }
 
     /** Prints out each commit ID that refers to a commit instance
@@ -425,24 +545,36 @@ public class Commands implements Serializable {
      * @param message - String referring to a commit message.
      */
     public static void find(String message) {
-        LinkedHashMap<String, Commit> myCommits = getMyCommits();
-        Formatter out = new Formatter();
-        int i = 0;
-        for (String k : myCommits.keySet()) {
-            Commit curr = myCommits.get(k);
-            String currMessage = curr.getMessage();
-            if (currMessage.equals(message)) {
-                if (i > 0) {
-                    out.format("\n");
-                }
-                out.format(k);
-                i++;
-            }
+        printFound(MessageIndex.open().exact(message));
+    }
+
+    /** Prints the IDs of all commits whose message contains every word
+     * of QUERY if OPTION is --word, or contains QUERY if it is --grep.
+     * @param option - --word or --grep.
+     * @param query - words or text to look for.
+     */
+    public static void find(String option, String query) {
+        MessageIndex index = MessageIndex.open();
+        if (option.equals("--word")) {
+            printFound(index.words(query));
+        } else {
+            printFound(index.substring(query));
         }
-        if (i == 0) {
+    }
+
+    /** Prints IDS, one per line, or fails if there are none.
+     * @param ids - sha1 IDs of the commits found.
+     */
+    private static void printFound(List<String> ids) {
+        if (ids.isEmpty()) {
             throw new GitletException("Found no commit with that message.");
         }
-        System.out.println(out);
+        System.out.println(String.join("\n", ids));
+    }
+
+    /** Builds the message index used by find again from every commit. */
+    public static void reindex() {
+        MessageIndex.rebuild();
     }
 
     /** Prints out the status of the repository of the current branch.
@@ -456,7 +588,7 @@ public class Commands implements Serializable {
         }
         Formatter out = new Formatter();
         List<String> allBr = Utils.plainFilenamesIn(BRANCH_DIR);
-        Branch currentBr = Utils.readObject(CURRENT_BRANCH, Branch.class);
+        Branch currentBr = Repository.get().read(CURRENT_BRANCH, Branch.class);
         out.format("=== Branches ===" + "\n");
         for (String brName : allBr) {
             if (brName.equals(currentBr.getName())) {
@@ -467,25 +599,22 @@ public class Commands implements Serializable {
             out.format("\n");
         }
         out.format("\n" + "=== Staged Files ===" + "\n");
-        List<String> filesInCWD = Utils.plainFilenamesIn(CWD);
-        if (!getStageAdd().isEmpty()) {
-            for (String fileInCWD : filesInCWD) {
+        Status scan = new Status();
+        LinkedHashMap<String, String> stageAdd = scan.stageAdd();
+        if (!stageAdd.isEmpty()) {
+            for (String fileInCWD : scan.files()) {
                 if (styleIndicator(fileInCWD)
-                        && getStageAdd().containsKey(fileInCWD)) {
+                        && stageAdd.containsKey(fileInCWD)) {
                     out.format(fileInCWD + "\n");
                 }
             }
         }
         out.format("\n" + "=== Removed Files ===" + "\n");
-        ArrayList<String> rm = getStageRm();
-        if (!rm.isEmpty()) {
-            rm.sort(String::compareTo);
-            for (String removedFile : rm) {
-                out.format(removedFile + "\n");
-            }
+        for (String removedFile : Stage.get().removed()) {
+            out.format(removedFile + "\n");
         }
         out.format("\n" + "=== Modifications Not Staged For Commit ===" + "\n");
-        LinkedHashMap<String, String> modNoStage = modNoStage();
+        LinkedHashMap<String, String> modNoStage = scan.modified();
         int j = modNoStage.size();
         for (String modFiles : modNoStage.keySet()) {
             out.format(modFiles + " (" + modNoStage.get(modFiles) + ")");
@@ -495,7 +624,7 @@ public class Commands implements Serializable {
             }
         }
         out.format("\n" + "=== Untracked Files ===");
-        ArrayList<String> untracked = untracked();
+        ArrayList<String> untracked = scan.untracked();
         if (!untracked.isEmpty()) {
             out.format("\n");
         }
@@ -521,37 +650,93 @@ public class Commands implements Serializable {
                 && !fileInCWD.equals("proj3.iml"));
     }
 
+    /** Returns the paths of all plain files under the CWD, outside
+     * GITLET_DIR, in lexicographic order.
+     * @return List of paths as kept in trees.
+     */
+    public static List<String> workingFiles() {
+        Path root = CWD.toPath();
+        Path gitlet = GITLET_DIR.toPath();
+        List<String> files = new ArrayList<>();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(
+                        Path dir, BasicFileAttributes attrs) {
+                    return dir.equals(gitlet) ? FileVisitResult.SKIP_SUBTREE
+                            : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(
+                        Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        files.add(Tree.path(root.relativize(file).toString()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /** Writes the blob with sha1 ID to the working file NAME, creating
+     * its directory if needed.
+     * @param name - path of the file.
+     * @param id - sha1 ID of the blob.
+     */
+    public static void writeWorkingFile(String name, String id) {
+        File file = Utils.join(CWD, name);
+        file.getParentFile().mkdirs();
+        Blob.copyTo(id, file);
+        Index.get().record(name, id);
+    }
+
+    /** Deletes the working file NAME, and any directories that leaves
+     * empty.
+     * @param name - path of the file.
+     */
+    public static void deleteWorkingFile(String name) {
+        File file = Utils.join(CWD, name);
+        if (name.indexOf(Tree.SEPARATOR) < 0) {
+            Utils.restrictedDelete(file);
+            return;
+        }
+        file.delete();
+        File dir = file.getParentFile();
+        while (!dir.equals(CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
     /** Creates a new branch with "name", and points it to the current
      * head commit. Does NOT make it the current branch.
      * @param name - String referring to name of new branch
      */
     public static void branch(String name) {
         List<String> myBranches = Utils.plainFilenamesIn(BRANCH_DIR);
-        LinkedHashMap<String, Commit> myCommits = getMyCommits();
         for (String brName : myBranches) {
             if (brName.equals(name)) {
                 throw new GitletException("A branch with that "
                         + "name already exists.");
             }
         }
-        Commit head = Utils.readObject(HEAD, Commit.class);
-        byte[] cerealBefore = Utils.serialize(head);
-        String sha1Before = Utils.sha1(cerealBefore);
-        byte[] cereal = Utils.serialize(head);
-        String sha1 = Utils.sha1(cereal);
+        Commit head = Repository.get().read(HEAD, Commit.class);
+        String sha1 = head.getId();
         ArrayList<String> commits = new ArrayList<>();
         commits.add(sha1);
         Branch newBranch = new Branch(false, name, commits);
         File newBranchFile = Utils.join(BRANCH_DIR, newBranch.getName());
-        Utils.writeObject(newBranchFile, newBranch);
-        Utils.writeObject(HEAD, head);
-        LinkedHashMap<String, Commit> newMyCommits = branchHelper(
-                myCommits, sha1Before, sha1, head);
-        Utils.writeObject(COMMITS, newMyCommits);
-        Branch currentBranch = Utils.readObject(CURRENT_BRANCH, Branch.class);
+        Repository.get().write(newBranchFile, newBranch);
+        Repository.get().write(HEAD, head);
+        Branch currentBranch = Repository.get().read(CURRENT_BRANCH,
+                Branch.class);
         currentBranch.getCommit().clear();
         currentBranch.getCommit().add(sha1);
-        Utils.writeObject(CURRENT_BRANCH, currentBranch);
+        Repository.get().write(CURRENT_BRANCH, currentBranch);
     }
 
     /** Removes given file from the CWD, and adds it to the
@@ -559,20 +744,18 @@ public class Commands implements Serializable {
      * @param fileName - String name of file to be deleted
      */
     public static void remove(String fileName) {
-        Commit head = Utils.readObject(HEAD, Commit.class);
-        LinkedHashMap<String, String> stageAdd = getStageAdd();
-        ArrayList<String> stageRm = getStageRm();
-        if (!head.getFiles().containsKey(fileName)
-                && !stageAdd.containsKey(fileName)) {
+        fileName = Tree.path(fileName);
+        Commit head = Repository.get().read(HEAD, Commit.class);
+        Stage stage = Stage.get();
+        boolean staged = stage.added(fileName) != null;
+        boolean tracked = head.getFile(fileName) != null;
+        if (!tracked && !staged) {
             throw new GitletException("No reason to remove the file.");
-        } else if (stageAdd.containsKey(fileName)) {
-            stageAdd.remove(fileName);
-            Utils.writeObject(STAGE_AREA_ADD, stageAdd);
-        } else if (head.getFiles().containsKey(fileName)) {
-            stageRm.add(fileName);
-            Utils.restrictedDelete(fileName);
-            Utils.writeObject(STAGE_AREA_ADD, stageAdd);
-            Utils.writeObject(STAGE_AREA_RM, stageRm);
+        } else if (staged) {
+            stage.unstage(fileName);
+        } else if (tracked) {
+            stage.remove(fileName);
+            deleteWorkingFile(fileName);
         }
     }
 
@@ -582,105 +765,87 @@ public class Commands implements Serializable {
      */
     public static void removeBranch(String brName) {
         List<String> allBr = Utils.plainFilenamesIn(BRANCH_DIR);
-        Branch current = Utils.readObject(CURRENT_BRANCH, Branch.class);
+        Branch current = Repository.get().read(CURRENT_BRANCH, Branch.class);
         if (!allBr.contains(brName)) {
             throw new GitletException(
                     "A branch with that name does not exist.");
         } else if (brName.equals(current.getName())) {
             throw new GitletException("Cannot remove the current branch.");
         }
-        ArrayList<String> shaiOfCommitWithBranch = current.getCommit();
-        LinkedHashMap<String, Commit> myCommits = getMyCommits();
-        Commit commitBranch = myCommits.get(shaiOfCommitWithBranch.get(0));
-        Utils.writeObject(COMMITS, myCommits);
         File toDelete = Utils.join(BRANCH_DIR, brName);
-        toDelete.delete();
+        Repository.get().delete(toDelete);
     }
 
     /** Replaces each file in CWD to be the version in the commit
-     * represented by commitID, deleting if absent. Resets
-     * the current branch's head commit to be the commit
-     * represented by commitID.
+     * represented by commitID, deleting if absent. Files staged for
+     * addition that the commit lacks are deleted too, and the staging
+     * area is cleared. Resets the current branch's head commit to be
+     * the commit represented by commitID.
      * @param commitID - sha1 ID of commit to reset.
      */
     public static void reset(String commitID) {
-        LinkedHashMap<String, Commit> myCommits = getMyCommits();
-        LinkedHashMap<String, String> stageAdd = getStageAdd();
-        Branch currentBr = Utils.readObject(CURRENT_BRANCH, Branch.class);
-        Commit head = Utils.readObject(HEAD, Commit.class);
-        LinkedHashMap<String, String> headAllFiles = head.getFiles();
-        ArrayList<String> stageRm = getStageRm();
-        if (!myCommits.containsKey(commitID)) {
+        Stage stage = Stage.get();
+        Branch currentBr = Repository.get().read(CURRENT_BRANCH, Branch.class);
+        Commit head = Repository.get().read(HEAD, Commit.class);
+        commitID = sha1Elongator(commitID);
+        if (!CommitStore.contains(commitID)) {
             throw new GitletException("No commit with that id exists.");
         }
-        checkout3FailureHelper(currentBr.getName());
-        Commit resetCommit = myCommits.get(commitID);
-        LinkedHashMap<String, String> allFiles = resetCommit.getFiles();
-        for (String fileName : headAllFiles.keySet()) {
-            if (!allFiles.containsKey(fileName)) {
-                remove(fileName);
-            } else {
-                checkout2(commitID, fileName);
-            }
-        }
-        for (String file : allFiles.keySet()) {
-            if (!headAllFiles.containsKey(file)) {
-                File newFile = Utils.join(CWD, file);
-                String blobShai = allFiles.get(file);
-                File blobToBeTaken = Utils.join(BLOBS_DIR, blobShai);
-                Blob blobToOverwriteWith = Utils.readObject(
-                        blobToBeTaken, Blob.class);
-                String contents = blobToOverwriteWith.getContents();
-                Utils.writeContents(newFile, contents);
-
-            }
-        }
+        Commit resetCommit = CommitStore.read(commitID);
+        Checkout plan = Checkout.between(head, resetCommit);
+        checkout3FailureHelper(head, plan.writes());
+        plan.run();
         currentBr.getCommit().clear();
         currentBr.getCommit().add(commitID);
         File newBr = Utils.join(BRANCH_DIR, currentBr.getName());
-        Utils.writeObject(CURRENT_BRANCH, currentBr);
-        Utils.writeObject(newBr, currentBr);
-        Utils.writeObject(HEAD, resetCommit);
-        Utils.writeObject(COMMITS, myCommits);
-        if (!stageAdd.isEmpty() || !stageRm.isEmpty()) {
-            for (String addFile : stageAdd.keySet()) {
-                Utils.restrictedDelete(addFile);
+        Repository.get().write(CURRENT_BRANCH, currentBr);
+        Repository.get().write(newBr, currentBr);
+        Repository.get().write(HEAD, resetCommit);
+        Set<String> added = stage.added().keySet();
+        Map<String, String> inTarget = resetCommit.getFiles(added);
+        for (String addFile : added) {
+            if (!inTarget.containsKey(addFile)) {
+                deleteWorkingFile(addFile);
             }
-            stageAdd.clear();
-            Utils.writeObject(STAGE_AREA_ADD, stageAdd);
-            stageRm.clear();
-            Utils.writeObject(STAGE_AREA_RM, stageRm);
+        }
+        if (!stage.isEmpty()) {
+            stage.clear();
         }
     }
 
     /** Merges the given branch into the given branch, replacing files
      * and finding merge conflicts as necessary. Creates a new merge commit
      * instance by calling commitHelper with the head commit of the given branch
-     * as the second parent.
+     * as the second parent. Only the paths the given branch changed since
+     * the split point are looked at, found by diffing their trees: every
+     * other path keeps its version in the current branch.
      * @param brName - given branch to merge into current branch.
      */
     public static void merge(String brName) {
         boolean conflict = false;
         existFailure(Utils.plainFilenamesIn(BRANCH_DIR), brName);
         File fileOfMergedBranch = Utils.join(BRANCH_DIR, brName);
-        Branch mBranch = Utils.readObject(fileOfMergedBranch, Branch.class);
-        LinkedHashMap<String, Commit> myCommits = getMyCommits();
+        Branch mBranch = Repository.get().read(fileOfMergedBranch,
+                Branch.class);
         failures(brName, mBranch);
+        spFailures(mBranch, getCurrBr(), brName);
         String splitPoint = splitPointFinder(brName);
-        spFailures(splitPoint, mBranch, getCurrBr(), brName);
-        Commit spCommit = myCommits.get(splitPoint);
-        LinkedHashMap<String, String> filesInSP = spCommit.getFiles();
-        Commit currBrCommit = myCommits.get(getRightCommit(getCurrBr()));
-        Commit mergeBrCommit = myCommits.get(getRightCommit(mBranch));
-        LinkedHashMap<String, String> mergeFiles = mergeBrCommit.getFiles();
-        LinkedHashMap<String, String> currentFiles = currBrCommit.getFiles();
+        Commit spCommit = CommitStore.read(splitPoint);
+        Commit currBrCommit = CommitStore.read(getRightCommit(getCurrBr()));
+        Commit mergeBrCommit = CommitStore.read(getRightCommit(mBranch));
+        Map<String, String> mergeFiles = Tree.diff(spCommit.getTree(),
+                mergeBrCommit.getTree());
+        Map<String, String> filesInSP = spCommit.getFiles(
+                mergeFiles.keySet());
+        Map<String, String> currentFiles = currBrCommit.getFiles(
+                mergeFiles.keySet());
+        mergeFiles.values().removeIf(Objects::isNull);
         Set<String> allFiles = new TreeSet<>(filesInSP.keySet());
-        allFiles.addAll(mergeBrCommit.getFiles().keySet());
-        allFiles.addAll(currBrCommit.getFiles().keySet());
+        allFiles.addAll(mergeFiles.keySet());
         for (String fileName : allFiles) {
-            String cInSP = spCommit.getFiles().get(fileName);
-            String mBrC = mergeBrCommit.getFiles().get(fileName);
-            String cBrC = currBrCommit.getFiles().get(fileName);
+            String cInSP = filesInSP.get(fileName);
+            String mBrC = mergeFiles.get(fileName);
+            String cBrC = currentFiles.get(fileName);
             if (filesInSP.containsKey(fileName)) {
                 if (!mergeFiles.containsKey(fileName) && cInSP.equals(cBrC)) {
                     remove(fileName);
@@ -692,7 +857,7 @@ public class Commands implements Serializable {
                     add(fileName);
                     conflict = true;
                 }
-            } else if (mergeBrCommit.getFiles().containsKey(fileName)) {
+            } else if (mergeFiles.containsKey(fileName)) {
                 if (!currentFiles.containsKey(fileName)) {
                     checkout2(getRightCommit(mBranch), fileName);
                     add(fileName);
@@ -703,12 +868,6 @@ public class Commands implements Serializable {
                         conflict = true;
                     }
                 }
-            } else if (currBrCommit.getFiles().containsKey(fileName)) {
-                if (mergeConflictIndicator(mBrC, cInSP, cBrC)) {
-                    mergeConflict(fileName, mBrC, cBrC);
-                    add(fileName);
-                    conflict = true;
-                }
             }
         }
         String message = myMess(brName, getCurrBr().getName());
@@ -765,13 +924,16 @@ public class Commands implements Serializable {
      */
     public static void failures(
             String brName, Branch mergeBranch) {
-        LinkedHashMap<String, String> stageAdd = getStageAdd();
-        ArrayList<String> rm = getStageRm();
         Branch currentBranch = getCurrBr();
         if (mergeBranch != null) {
-            checkout3FailureHelper(brName);
+            Commit head = CommitStore.read(getRightCommit(currentBranch));
+            Commit given = CommitStore.read(getRightCommit(mergeBranch));
+            Map<String, String> changes = Tree.diff(head.getTree(),
+                    given.getTree());
+            changes.values().removeIf(Objects::isNull);
+            checkout3FailureHelper(head, changes);
         }
-        if (!stageAdd.isEmpty() || !rm.isEmpty()) {
+        if (!Stage.get().isEmpty()) {
             throw new GitletException("You have uncommitted changes.");
         }
         if (currentBranch.getName().equals(brName)) {
@@ -779,104 +941,46 @@ public class Commands implements Serializable {
         }
     }
 
-    /** Throws errors for split points according to spec.
+    /** Throws errors for split points according to spec: when one head
+     * is an ancestor of the other, the split point is that head.
      *
-     * @param splitPoint - string.
      * @param mergeBranch - string.
      * @param currentBranch - branch.
      * @param brName - string.
      */
-    public static void spFailures(String splitPoint, Branch mergeBranch,
-                                  Branch currentBranch, String brName) {
-        if (splitPoint.equals(getRightCommit(mergeBranch))) {
+    public static void spFailures(Branch mergeBranch, Branch currentBranch,
+                                  String brName) {
+        Reachability bitmaps = Reachability.get();
+        String given = getRightCommit(mergeBranch);
+        String current = getRightCommit(currentBranch);
+        if (bitmaps.isAncestor(given, current)) {
             throw new GitletException(
                     "Given branch is an ancestor of the current branch.");
-        } else if (splitPoint.equals(getRightCommit(currentBranch))) {
+        } else if (bitmaps.isAncestor(current, given)) {
             checkout3(brName);
             throw new GitletException("Current branch fast-forwarded.");
         }
     }
 
-    /** Deep copies a LinkedHashMap<String, String>.
-     * @param toCopy - LHM to be copied.
-     * @return Deep copy of toCopy.
-     */
-    public static LinkedHashMap<String, String> deepCopyLHM(
-            LinkedHashMap<String, String> toCopy) {
-        LinkedHashMap<String, String> toReturn = new LinkedHashMap<>();
-        for (String id : toCopy.keySet()) {
-            toReturn.put(id, toCopy.get(id));
-        }
-        return toReturn;
-    }
-
-    /** Helper function to assist the branch method to successfully update
-     * the myCommits variable.
-     * @param toHelp LHM myCommits to update
-     * @param current old value of sha1
-     * @param replace new value of sha1
-     * @param commit commit to now be the "replace" value
-     * @return updated LHM myCommits
-     */
-    public static LinkedHashMap<String, Commit> branchHelper(
-            LinkedHashMap<String, Commit> toHelp,
-            String current, String replace, Commit commit) {
-        LinkedHashMap<String, Commit> toReturn = new LinkedHashMap<>();
-        for (String id : toHelp.keySet()) {
-            if (id.equals(current)) {
-                toReturn.put(replace, commit);
-            } else {
-                toReturn.put(id, toHelp.get(id));
-            }
-        }
-        return toReturn;
-    }
-
-    /** Given a branch name, get a history of all parents of the head commit.
-     * @param brName - branch name to get history of.
-     * @return ArrayList where each value is a sha1 ID of a commit.
-     */
-    public static ArrayList<String> getBranchHistory(String brName) {
-        File fileOfBranch = Utils.join(BRANCH_DIR, brName);
-        Branch branch = Utils.readObject(fileOfBranch, Branch.class);
-        LinkedHashMap<String, Commit> myCommits = getMyCommits();
-        ArrayList<String> commitOfCurrBr = branch.getCommit();
-        String startingPointCurrBr = commitOfCurrBr.get(
-                commitOfCurrBr.size() - 1);
-        Commit currentCommit = myCommits.get(startingPointCurrBr);
-        ArrayList<String> branchHist = new ArrayList<>();
-        while (currentCommit != null) {
-            branchHist.add(startingPointCurrBr);
-            if (!currentCommit.getParent().get(1).equals("")) {
-                branchHist.add(currentCommit.getParent().get(1));
-            }
-            startingPointCurrBr = currentCommit.getParent().get(0);
-            currentCommit = myCommits.get(startingPointCurrBr);
-        }
-        return branchHist;
-    }
-
     /** Given a branch name, finds the split point between that
-     * branch and the current branch.
+     * branch and the current branch: the best common ancestor of their
+     * heads, or the one of highest generation if criss-cross merges
+     * left several.
      * @param brName - branch name.
      * @return - sha1 ID of the split point that refers to a commit.
      */
     public static String splitPointFinder(String brName) {
-        Commit head = Utils.readObject(HEAD, Commit.class);
-        byte[] cereal = Utils.serialize(head);
-        String headSha1 = Utils.sha1(cereal);
-        Branch currBr = Utils.readObject(CURRENT_BRANCH, Branch.class);
+        Commit head = Repository.get().read(HEAD, Commit.class);
+        String headSha1 = head.getId();
+        Branch currBr = Repository.get().read(CURRENT_BRANCH, Branch.class);
         if (brName.equals(currBr.getName())) {
             return headSha1;
         }
-        ArrayList<String> currentHistory = getBranchHistory(currBr.getName());
-        ArrayList<String> mergeHistory = getBranchHistory(brName);
-        for (int i = 0; i < currentHistory.size(); i += 1) {
-            if (mergeHistory.contains(currentHistory.get(i))) {
-                return currentHistory.get(i);
-            }
-        }
-        return null;
+        Branch branch = Repository.get().read(Utils.join(BRANCH_DIR, brName),
+                Branch.class);
+        List<String> bases = CommitGraph.get().mergeBases(headSha1,
+                getRightCommit(branch));
+        return bases.isEmpty() ? null : bases.get(0);
     }
 
     /** Helper function for merge that is only called when there is a merge
@@ -887,24 +991,14 @@ public class Commands implements Serializable {
      */
     public static void mergeConflict(
             String file, String mBrContents, String currBrContents) {
+        byte[] none = new byte[0];
         if (mBrContents == null) {
-            File blobFileOfCurr = Utils.join(BLOBS_DIR, currBrContents);
-            Blob currBlob = Utils.readObject(blobFileOfCurr, Blob.class);
-            String contentsCurr = currBlob.getContents();
-            formatHelper(file, "", contentsCurr);
+            formatHelper(file, none, Blob.read(currBrContents));
         } else if (currBrContents == null) {
-            File blobFileOfMerge = Utils.join(BLOBS_DIR, mBrContents);
-            Blob mergeBlob = Utils.readObject(blobFileOfMerge, Blob.class);
-            String contentsMerge = mergeBlob.getContents();
-            formatHelper(file, contentsMerge, "");
+            formatHelper(file, Blob.read(mBrContents), none);
         } else {
-            File blobFileOfMerge = Utils.join(BLOBS_DIR, mBrContents);
-            File blobFileOfCurr = Utils.join(BLOBS_DIR, currBrContents);
-            Blob currBlob = Utils.readObject(blobFileOfCurr, Blob.class);
-            String contentsCurr = currBlob.getContents();
-            Blob mergeBlob = Utils.readObject(blobFileOfMerge, Blob.class);
-            String contentsMerge = mergeBlob.getContents();
-            formatHelper(file, contentsMerge, contentsCurr);
+            formatHelper(file, Blob.read(mBrContents),
+                    Blob.read(currBrContents));
         }
     }
 
@@ -915,14 +1009,12 @@ public class Commands implements Serializable {
      * @param contentsCurr - contents of file in current branch.
      */
     public static void formatHelper(String file,
-                                    String contentsMerge, String contentsCurr) {
-        String overwrite = "<<<<<<< HEAD" + "\n"
-                + contentsCurr
-                + "=======" + "\n"
-                + contentsMerge
-                + ">>>>>>>" + "\n";
+                                    byte[] contentsMerge, byte[] contentsCurr) {
         File conflictFile = Utils.join(CWD, file);
-        Utils.writeContents(conflictFile, overwrite);
+        conflictFile.getParentFile().mkdirs();
+        Utils.writeContents(conflictFile, "<<<<<<< HEAD" + "\n",
+                contentsCurr, "=======" + "\n",
+                contentsMerge, ">>>>>>>" + "\n");
     }
 
     /** Helper function used in merge command to indicate
@@ -964,155 +1056,100 @@ public class Commands implements Serializable {
      */
     public static final int TARGET = 40;
 
-    /** Helper function to elongate a sha1 ID if
-     * a shortened version was provided.
+    /** Helper function to elongate a sha1 ID if a shortened version of
+     * at least CommitGraph.MIN_PREFIX digits was provided. Commits not in
+     * the commit graph yet are looked for in COMMITS.
      * @param shai - sha1 ID.
      * @return shai or elongated shai.
      */
     public static String sha1Elongator(String shai) {
         if (shai.length() == TARGET) {
             return shai;
-        } else {
-            LinkedHashMap<String, Commit> myCommits = getMyCommits();
-            for (String fullShai : myCommits.keySet()) {
-                String sub = fullShai.substring(0, 8);
-                if (shai.equals(sub)) {
-                    shai = fullShai;
-                    break;
+        }
+        List<String> matches = CommitGraph.get().matching(shai);
+        if (matches.isEmpty() && shai.length() >= CommitGraph.MIN_PREFIX) {
+            for (String fullShai : CommitStore.ids()) {
+                if (fullShai.startsWith(shai.toLowerCase())) {
+                    matches.add(fullShai);
                 }
-            } return shai;
+            }
+        }
+        if (matches.size() > 1) {
+            throw new GitletException("More than one commit has that id.");
         }
+        return matches.isEmpty() ? shai : matches.get(0);
     }
 
-    /** Helper for style check.
-     *
-     * @param branch - string.
-     * @return -string.
+    /** Consolidates the loose objects in BLOBS_DIR, and any existing
+     * packs, into pack files that are read through a memory-mapped
+     * index.
      */
-    public static String getRightCommit(Branch branch) {
-        return branch.getCommit().get(
-                branch.getCommit().size() - 1);
+    public static void repack() throws IOException {
+        Repack.run();
     }
 
-
-    /** Helper for style check.
-     *
-     * @return LHM.
+    /** Removes the commits and objects that no branch, HEAD or staged
+     * file refers to and that are older than the grace period, and
+     * repacks the rest.
      */
-    @SuppressWarnings("unchecked")
-    public static LinkedHashMap<String, Commit> getMyCommits() {
-        return Utils.readObject(
-                COMMITS, LinkedHashMap.class);
+    public static void gc() throws IOException {
+        GarbageCollector.run();
     }
 
+    /** Prints the repository setting KEY, or sets it to VALUE if VALUE
+     * is not null.
+     * @param key - setting name, such as core.compression.
+     * @param value - new value, or null.
+     */
+    public static void config(String key, String value) {
+        if (value == null) {
+            String current = Config.get(key, null);
+            if (current == null) {
+                throw new GitletException("No value set for " + key + ".");
+            }
+            System.out.println(current);
+        } else if (key.equals(Journal.DURABILITY)
+                && !Journal.isMode(value)) {
+            throw new GitletException("Durability must be none, batched "
+                    + "or strict.");
+        } else {
+            Config.set(key, value);
+        }
+    }
 
     /** Helper for style check.
      *
-     * @return LHM.
+     * @param branch - string.
+     * @return -string.
      */
-    @SuppressWarnings("unchecked")
-    public static LinkedHashMap<String, String> getStageAdd() {
-        return Utils.readObject(
-                STAGE_AREA_ADD, LinkedHashMap.class);
+    public static String getRightCommit(Branch branch) {
+        return branch.getCommit().get(
+                branch.getCommit().size() - 1);
     }
 
 
-    /** Helper for style check.
+    /** Returns the sha1 ID of the head commit of every branch.
      *
-     * @return AL.
+     * @return List.
      */
-    @SuppressWarnings("unchecked")
-    public static ArrayList<String> getStageRm() {
-        return  Utils.readObject(
-                STAGE_AREA_RM, ArrayList.class);
+    public static List<String> branchHeads() {
+        List<String> heads = new ArrayList<>();
+        for (String name : Utils.plainFilenamesIn(BRANCH_DIR)) {
+            heads.add(getRightCommit(Repository.get().read(
+                    Utils.join(BRANCH_DIR, name), Branch.class)));
+        }
+        return heads;
     }
 
+
     /** Helper for style check.
      *
      * @return Branch.
      */
     public static Branch getCurrBr() {
-        return Utils.readObject(
+        return Repository.get().read(
                 CURRENT_BRANCH, Branch.class);
     }
-
-    /** Helper to get all untracked files.
-     *
-     * @return sheeeeesh.
-     */
-    public static ArrayList<String> untracked() {
-        Commit head = Utils.readObject(HEAD, Commit.class);
-        List<String> filesCWD = Utils.plainFilenamesIn(CWD);
-        LinkedHashMap<String, String> stageAdd = getStageAdd();
-        ArrayList<String> rm = getStageRm();
-        ArrayList<String> toReturn = new ArrayList<>();
-        for (String fileInCWD : filesCWD) {
-            if (!fileInCWD.equals(".gitignore")
-                    && !fileInCWD.equals("Makefile")
-                    && !fileInCWD.equals("proj3.iml")) {
-                if (!head.getFiles().containsKey(fileInCWD)
-                        && !stageAdd.containsKey(fileInCWD)
-                        && !rm.contains(fileInCWD)) {
-                    toReturn.add(fileInCWD);
-                }
-            }
-
-        } return toReturn;
-    }
-
-    /** Helper to get all files modified but not staged.
-     *
-     * @return yo mama.
-     */
-    public static LinkedHashMap<String, String> modNoStage() {
-        Commit head = Utils.readObject(HEAD, Commit.class);
-        List<String> filesCWD = Utils.plainFilenamesIn(CWD);
-        LinkedHashMap<String, String> stageAdd = getStageAdd();
-        LinkedHashMap<String, String> toReturn = new LinkedHashMap<>();
-        ArrayList<String> rm = getStageRm();
-        for (String headFile : head.getFiles().keySet()) {
-            if (filesCWD.contains(headFile)
-                    && !checkContents(headFile, "head")
-                    && !stageAdd.containsKey(headFile)) {
-                toReturn.put(headFile, "modified");
-            } else if (!filesCWD.contains(headFile)
-                    && !rm.contains(headFile)) {
-                toReturn.put(headFile, "deleted");
-            }
-        }
-        for (String stagedFile : stageAdd.keySet()) {
-            if (!filesCWD.contains(stagedFile)) {
-                toReturn.put(stagedFile, "deleted");
-            } else if  (!checkContents(stagedFile, "stage")) {
-                toReturn.put(stagedFile, "modified");
-            }
-        } return toReturn;
-    }
-
-    /** Checks contents of a file.
-     *
-     * @param fileName LFG.
-     * @param check cherb.
-     * @return whaaaaa.
-     */
-    public static boolean checkContents(String fileName, String check) {
-        File fileCWD = Utils.join(CWD, fileName);
-        if (check.equals("head")) {
-            Commit head = Utils.readObject(HEAD, Commit.class);
-            String contentsH = head.getFiles().get(fileName);
-            String contentsCWD = Utils.readContentsAsString(fileCWD);
-            byte[] cereal = Utils.serialize(contentsCWD);
-            String sha1OfCWD = Utils.sha1(cereal);
-            return contentsH.equals(sha1OfCWD);
-        } else {
-            LinkedHashMap<String, String> stageAdd = getStageAdd();
-            String contentsSA = stageAdd.get(fileName);
-            String contentsCWD = Utils.readContentsAsString(fileCWD);
-            byte[] cereal = Utils.serialize(contentsCWD);
-            String sha1OfCWD = Utils.sha1(cereal);
-            return contentsSA.equals(sha1OfCWD);
-        }
-    }
 }
 
 
@@ -1,15 +1,26 @@
 package gitlet;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
 
-/** Commit class.
+/** Commit class. A commit records the ID of the tree of the working
+ *  directory it was made from. Commits written before trees existed
+ *  hold a flat map of every file instead, which is turned into a tree
+ *  when one is needed.
  * @author willharvey.
  */
 public class Commit implements Serializable {
 
+    /** Kept at the value of the original class so that commits written
+     *  before _id existed can still be read. */
+    private static final long serialVersionUID = 2448237387327094642L;
+
     /** Message of commit. */
     private String _message;
 
@@ -19,21 +30,70 @@ public class Commit implements Serializable {
     /** Date initialized. */
     private Date _stamp;
 
-    /** LHM of all Files and Blobs. */
+    /** LHM of all Files and Blobs, in commits written before trees
+     *  existed; null otherwise. */
     private LinkedHashMap<String, String> _myFiles;
 
+    /** sha1 ID of the root tree. */
+    private String _tree;
+
+    /** Files of _tree, blob IDs by path, once they have been read. */
+    private transient LinkedHashMap<String, String> _files;
+
+    /** sha1 ID of this commit, computed once from its canonical
+     *  encoding. */
+    private String _id;
+
     /** Initializes a Commit with a message, parent, and timestamp.
      *
      * @param message - string.
      * @param parent - AL.
-     * @param myFiles - AL.
+     * @param tree - sha1 ID of the root tree.
      */
-    public Commit(String message, ArrayList<String> parent,
-                  LinkedHashMap<String, String> myFiles) {
+    public Commit(String message, ArrayList<String> parent, String tree) {
         _message = message;
         _parent = parent;
         _stamp = new Date();
-        _myFiles = myFiles;
+        _tree = tree;
+        _id = Utils.sha1(encode());
+    }
+
+    /** Returns the canonical encoding of this commit that its ID is
+     *  the sha1 of. The message comes last, so the encoding does not
+     *  depend on how Java happens to serialize the fields.
+     *
+     * @return String.
+     */
+    String encode() {
+        StringBuilder out = new StringBuilder("commit\n");
+        for (String parent : _parent) {
+            out.append("parent ").append(parent == null ? "" : parent)
+                    .append('\n');
+        }
+        out.append("time ").append(_stamp.getTime()).append('\n');
+        out.append("tree ").append(_tree).append('\n');
+        out.append('\n').append(_message);
+        return out.toString();
+    }
+
+    /** Getter method for _id.
+     *
+     * @return String, or null for a commit written before IDs were
+     * stored with it.
+     */
+    public String getId() {
+        return _id;
+    }
+
+    /** Gives a commit written before IDs were stored with it the ID it
+     *  was filed under.
+     *
+     * @param id - sha1 ID the commit is stored as.
+     */
+    void adoptId(String id) {
+        if (_id == null) {
+            _id = id;
+        }
     }
 
     /** Getter method for _message.
@@ -60,11 +120,63 @@ public class Commit implements Serializable {
         return _stamp;
     }
 
-    /** Getter method for _myFiles.
+    /** Returns the ID of the root tree, storing one built from _myFiles
+     *  first for a commit written before trees existed.
+     *
+     * @return String sha1 ID.
+     */
+    public String getTree() {
+        if (_tree == null) {
+            _tree = Tree.update(null, _myFiles);
+        }
+        return _tree;
+    }
+
+    /** Returns every file of this commit, blob IDs by path. Reads the
+     *  whole tree, so callers that only need a few paths should pass
+     *  them, and those after the differences from another commit
+     *  should diff the trees instead.
      *
      * @return LHM.
      */
     public LinkedHashMap<String, String> getFiles() {
-        return _myFiles;
+        if (_myFiles != null) {
+            return _myFiles;
+        } else if (_files == null) {
+            _files = Tree.flatten(_tree);
+        }
+        return _files;
+    }
+
+    /** Returns the blob IDs of those of PATHS this commit has, by path.
+     *  Only the trees on PATHS are read, unless every file is already
+     *  at hand.
+     *
+     * @param paths - paths of files.
+     * @return Map.
+     */
+    public Map<String, String> getFiles(Collection<String> paths) {
+        LinkedHashMap<String, String> all =
+                _myFiles != null ? _myFiles : _files;
+        if (all == null) {
+            return Tree.lookup(_tree, paths);
+        }
+        TreeMap<String, String> found = new TreeMap<>();
+        for (String path : paths) {
+            if (all.containsKey(path)) {
+                found.put(path, all.get(path));
+            }
+        }
+        return found;
+    }
+
+    /** Returns the blob ID of the file at PATH in this commit, or null
+     *  if it has none there.
+     *
+     * @param path - path of a file.
+     * @return String sha1 ID or null.
+     */
+    public String getFile(String path) {
+        return getFiles(List.of(path)).get(path);
     }
 }
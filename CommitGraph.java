@@ -0,0 +1,615 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/** The commit graph: one fixed-size record per commit holding its binary
+ *  ID, the positions of its parents in the graph, its timestamp and its
+ *  generation number, which is one more than the largest generation of
+ *  its parents. A commit's record always comes after its parents', so
+ *  positions never change and the file is only ever appended to. It is
+ *  memory-mapped, which lets history be walked by position without
+ *  reading any commit; a commit is read only for its message or files.
+ *
+ *  Records appended by a command are kept in memory and written when
+ *  the command ends. Commits missing from the graph, such as those of a
+ *  repository older than it, are added with their ancestors the first
+ *  time they are looked up.
+ *
+ *  IDs are found through LOOKUP, the graph's IDs in sorted order (see
+ *  IdTable) with the position of each, which also answers abbreviated
+ *  IDs. It covers the records up to when it was written, and is written
+ *  again once MAX_UNINDEXED records have been appended after them;
+ *  those are searched one by one.
+ *  @author willharvey
+ */
+class CommitGraph {
+
+    /** File that holds the graph. */
+    static final File GRAPH = Utils.join(Commands.GITLET_DIR,
+            "commit-graph");
+
+    /** File that holds the sorted IDs of the graph. */
+    static final File LOOKUP = Utils.join(Commands.GITLET_DIR,
+            "commit-graph.idx");
+
+    /** Leading bytes of the graph file. */
+    static final int MAGIC = 0x47434731;
+
+    /** Leading bytes of the lookup file. */
+    static final int LOOKUP_MAGIC = 0x47434931;
+
+    /** Size of the lookup header: magic, epoch and number of IDs. */
+    static final int LOOKUP_HEADER = 16;
+
+    /** Most records left out of LOOKUP before it is written again. */
+    static final int MAX_UNINDEXED = 1 << 12;
+
+    /** Fewest hex digits an abbreviated commit ID may have. */
+    static final int MIN_PREFIX = 4;
+
+    /** Size of the header: the magic number and the epoch. */
+    static final int HEADER = 12;
+
+    /** Size of a record: ID, two parents, timestamp and generation. */
+    static final int RECORD = Pack.ID_BYTES + 4 + 4 + 8 + 4;
+
+    /** Offset of the first parent within a record. */
+    private static final int PARENTS = Pack.ID_BYTES;
+
+    /** Offset of the timestamp within a record. */
+    private static final int TIME = PARENTS + 8;
+
+    /** Offset of the generation number within a record. */
+    private static final int GENERATION = TIME + 8;
+
+    /** Position standing for no commit. */
+    static final int NONE = -1;
+
+    /** Graph of the current command, or null before it is loaded. */
+    private static CommitGraph _current;
+
+    /** The records in GRAPH when it was mapped. */
+    private final ByteBuffer _mapped;
+
+    /** Number of records in _mapped. */
+    private final int _mappedCount;
+
+    /** Records added since, not yet written. */
+    private ByteBuffer _added = ByteBuffer.allocate(RECORD * 16);
+
+    /** Number of records in all. */
+    private int _count;
+
+    /** True if GRAPH is unreadable and must be written afresh. */
+    private boolean _rewrite;
+
+    /** Random number chosen when GRAPH was created. Positions only mean
+     *  the same commits for as long as it stays the same. */
+    private final long _epoch;
+
+    /** Positions of the commits looked up or added so far, by ID. */
+    private final HashMap<String, Integer> _positions = new HashMap<>();
+
+    /** Sorted IDs of the first _indexed records, or null. */
+    private IdTable _lookup;
+
+    /** Graph positions matching the IDs of _lookup, in the same order. */
+    private ByteBuffer _lookupPositions;
+
+    /** Number of records, from the first, that _lookup covers. */
+    private int _indexed;
+
+    /** Maps GRAPH, or starts an empty graph if there is none. */
+    private CommitGraph() {
+        ByteBuffer mapped = ByteBuffer.allocate(0);
+        if (GRAPH.isFile()) {
+            try (FileChannel in = FileChannel.open(GRAPH.toPath())) {
+                mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (mapped.limit() < HEADER || mapped.getInt(0) != MAGIC) {
+                mapped = ByteBuffer.allocate(0);
+                _rewrite = true;
+            }
+        }
+        _epoch = mapped.limit() < HEADER ? new Random().nextLong()
+                : mapped.getLong(4);
+        _mapped = mapped;
+        _mappedCount = Math.max(0, (mapped.limit() - HEADER) / RECORD);
+        _count = _mappedCount;
+        mapLookup();
+    }
+
+    /** Maps LOOKUP, unless it is missing, unreadable or made against
+     *  another graph. */
+    private void mapLookup() {
+        ByteBuffer lookup;
+        try (FileChannel in = FileChannel.open(LOOKUP.toPath())) {
+            lookup = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            return;
+        }
+        if (lookup.limit() < LOOKUP_HEADER
+                || lookup.getInt(0) != LOOKUP_MAGIC
+                || lookup.getLong(4) != _epoch) {
+            return;
+        }
+        int count = lookup.getInt(12);
+        int positions = LOOKUP_HEADER + IdTable.size(count);
+        if (count > _mappedCount
+                || lookup.limit() < positions + count * Integer.BYTES) {
+            return;
+        }
+        _lookup = new IdTable(lookup, LOOKUP_HEADER, count);
+        _lookupPositions = lookup.slice(positions, count * Integer.BYTES);
+        _indexed = count;
+    }
+
+    /** Returns the graph, mapping it on first use.
+     *
+     * @return CommitGraph.
+     */
+    static synchronized CommitGraph get() {
+        if (_current == null) {
+            _current = new CommitGraph();
+        }
+        return _current;
+    }
+
+    /** Appends the records added by the current command to GRAPH,
+     *  writes LOOKUP again if too many records are missing from it, and
+     *  forgets the graph, so that the next command maps it afresh. */
+    static synchronized void flush() {
+        CommitGraph graph = _current;
+        _current = null;
+        if (graph == null || !Commands.GITLET_DIR.isDirectory()) {
+            return;
+        }
+        try {
+            if (graph._count > graph._mappedCount) {
+                graph.append();
+            }
+            if (graph._count - graph._indexed > MAX_UNINDEXED) {
+                graph.writeLookup();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Appends the records added since GRAPH was mapped to it. */
+    private void append() throws IOException {
+        try (FileChannel out = FileChannel.open(GRAPH.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (_rewrite || out.size() < HEADER) {
+                out.truncate(0);
+                out.write(ByteBuffer.allocate(HEADER).putInt(MAGIC)
+                        .putLong(_epoch).flip());
+            }
+            out.truncate(HEADER + (long) _mappedCount * RECORD);
+            out.position(out.size());
+            ByteBuffer added = _added.duplicate().flip();
+            while (added.hasRemaining()) {
+                out.write(added);
+            }
+        }
+    }
+
+    /** Writes LOOKUP for every record of the graph. */
+    private void writeLookup() throws IOException {
+        String[] ids = new String[_count];
+        Integer[] order = new Integer[_count];
+        for (int pos = 0; pos < _count; pos += 1) {
+            ids[pos] = id(pos);
+            order[pos] = pos;
+        }
+        Arrays.sort(order, Comparator.comparing(pos -> ids[pos]));
+        List<String> sorted = new ArrayList<>();
+        for (int pos : order) {
+            sorted.add(ids[pos]);
+        }
+        ByteBuffer lookup = ByteBuffer.allocate(LOOKUP_HEADER
+                + IdTable.size(_count) + _count * Integer.BYTES);
+        lookup.putInt(LOOKUP_MAGIC).putLong(_epoch).putInt(_count);
+        IdTable.write(lookup, sorted);
+        for (int pos : order) {
+            lookup.putInt(pos);
+        }
+        lookup.flip();
+        Path temp = Files.createTempFile(Commands.GITLET_DIR.toPath(),
+                "lookup", ".tmp");
+        try (FileChannel out = FileChannel.open(temp,
+                StandardOpenOption.WRITE)) {
+            while (lookup.hasRemaining()) {
+                out.write(lookup);
+            }
+        }
+        Files.move(temp, LOOKUP.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Forgets the graph mapped so far, dropping anything not yet
+     *  written, so that the next lookup maps GRAPH again. */
+    static synchronized void reload() {
+        _current = null;
+    }
+
+    /** Returns the epoch of the graph, which changes whenever the graph
+     *  is built anew.
+     *
+     * @return long.
+     */
+    long epoch() {
+        return _epoch;
+    }
+
+    /** Returns the number of commits in the graph.
+     *
+     * @return int.
+     */
+    int size() {
+        return _count;
+    }
+
+    /** Returns the position of the commit with sha1 ID, adding it and any
+     *  of its ancestors missing from the graph first. Returns NONE if
+     *  there is no such commit.
+     *
+     * @param id - sha1 ID.
+     * @return int.
+     */
+    int position(String id) {
+        int pos = find(id);
+        if (pos != NONE || !CommitStore.contains(id)) {
+            return pos;
+        }
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(id);
+        while (!pending.isEmpty()) {
+            if (find(pending.peek()) != NONE) {
+                pending.pop();
+                continue;
+            }
+            Commit commit = CommitStore.read(pending.peek());
+            List<String> parents = parentIds(commit);
+            int[] positions = new int[2];
+            boolean ready = true;
+            for (int i = 0; i < positions.length; i += 1) {
+                positions[i] = i < parents.size() ? find(parents.get(i))
+                        : NONE;
+                if (positions[i] == NONE && i < parents.size()) {
+                    pending.push(parents.get(i));
+                    ready = false;
+                }
+            }
+            if (ready) {
+                append(pending.pop(), positions,
+                        commit.getStamp().getTime());
+            }
+        }
+        return find(id);
+    }
+
+    /** Adds COMMIT, which has just been stored for the first time, to
+     *  the graph.
+     *
+     * @param commit - new commit.
+     */
+    void add(Commit commit) {
+        List<String> parents = parentIds(commit);
+        int[] positions = {NONE, NONE};
+        for (int i = 0; i < parents.size(); i += 1) {
+            positions[i] = position(parents.get(i));
+        }
+        append(commit.getId(), positions, commit.getStamp().getTime());
+    }
+
+    /** Returns the sha1 ID of the commit at POS.
+     *
+     * @param pos - position.
+     * @return String.
+     */
+    String id(int pos) {
+        byte[] id = new byte[Pack.ID_BYTES];
+        buffer(pos).get(offset(pos), id);
+        return Utils.toHex(id);
+    }
+
+    /** Returns the position of parent N, 0 or 1, of the commit at POS, or
+     *  NONE if it does not have one.
+     *
+     * @param pos - position.
+     * @param n - which parent.
+     * @return int.
+     */
+    int parent(int pos, int n) {
+        return buffer(pos).getInt(offset(pos) + PARENTS + 4 * n);
+    }
+
+    /** Returns the timestamp of the commit at POS, in milliseconds.
+     *
+     * @param pos - position.
+     * @return long.
+     */
+    long time(int pos) {
+        return buffer(pos).getLong(offset(pos) + TIME);
+    }
+
+    /** Returns the generation number of the commit at POS: 1 for a commit
+     *  without parents, and otherwise one more than its parents' largest.
+     *
+     * @param pos - position.
+     * @return int.
+     */
+    int generation(int pos) {
+        return buffer(pos).getInt(offset(pos) + GENERATION);
+    }
+
+    /** Returns the sha1 IDs of the best common ancestors of the commits
+     *  with sha1 IDs A and B: the common ancestors that are not ancestors
+     *  of another common ancestor. Highest generation first.
+     *
+     * @param a - sha1 ID.
+     * @param b - sha1 ID.
+     * @return List.
+     */
+    List<String> mergeBases(String a, String b) {
+        List<String> ids = new ArrayList<>();
+        for (int pos : mergeBases(position(a), position(b))) {
+            ids.add(id(pos));
+        }
+        return ids;
+    }
+
+    /** Returns the positions of the best common ancestors of the commits
+     *  at A and B, highest generation first. Both sides are walked
+     *  together from the highest generation down, marking each commit
+     *  with the sides it is reachable from. A commit reached from both
+     *  is a merge base unless it is already stale, that is, below
+     *  another merge base; its ancestors become stale in turn. Since a
+     *  commit's generation is above all of its ancestors', every commit
+     *  is marked completely before it is taken off the queue, and the
+     *  walk ends once only stale commits are left on it.
+     *
+     * @param a - position.
+     * @param b - position.
+     * @return List.
+     */
+    List<Integer> mergeBases(int a, int b) {
+        List<Integer> bases = new ArrayList<>();
+        if (a == NONE || b == NONE) {
+            return bases;
+        } else if (a == b) {
+            bases.add(a);
+            return bases;
+        }
+        Walk walk = new Walk();
+        walk.mark(a, Walk.SIDE_A);
+        walk.mark(b, Walk.SIDE_B);
+        while (walk._active > 0) {
+            int pos = walk.next();
+            int flags = walk._flags[pos] & Walk.CARRIED;
+            if (flags == Walk.BOTH) {
+                bases.add(pos);
+                flags |= Walk.STALE;
+            }
+            for (int n = 0; n < 2; n += 1) {
+                int parent = parent(pos, n);
+                if (parent != NONE) {
+                    walk.mark(parent, flags);
+                }
+            }
+        }
+        return bases;
+    }
+
+    /** State of a merge-base walk: the sides each commit has been reached
+     *  from, and the queue of commits still to visit, highest generation
+     *  first. */
+    private final class Walk {
+        /** Reached from the first commit. */
+        static final byte SIDE_A = 1;
+        /** Reached from the second commit. */
+        static final byte SIDE_B = 2;
+        /** Reached from both commits. */
+        static final byte BOTH = SIDE_A | SIDE_B;
+        /** Below a merge base already found. */
+        static final byte STALE = 4;
+        /** Flags passed on from a commit to its parents. */
+        static final byte CARRIED = BOTH | STALE;
+        /** On the queue. */
+        static final byte QUEUED = 8;
+
+        /** Flags by position. */
+        private final byte[] _flags = new byte[_count];
+
+        /** Commits to visit. */
+        private final PriorityQueue<Integer> _queue = new PriorityQueue<>(
+                (x, y) -> x.equals(y) ? 0
+                        : generation(x) != generation(y)
+                        ? Integer.compare(generation(y), generation(x))
+                        : Integer.compare(y, x));
+
+        /** Number of queued commits that are not stale. */
+        private int _active;
+
+        /** Adds FLAGS to the commit at POS, queueing it if it is not
+         *  queued yet.
+         *
+         * @param pos - position.
+         * @param flags - flags to add.
+         */
+        void mark(int pos, int flags) {
+            int old = _flags[pos];
+            int now = old | flags;
+            if (now == old) {
+                return;
+            }
+            _flags[pos] = (byte) now;
+            if ((old & QUEUED) == 0) {
+                _flags[pos] |= QUEUED;
+                _queue.add(pos);
+                if ((now & STALE) == 0) {
+                    _active += 1;
+                }
+            } else if ((old & STALE) == 0 && (now & STALE) != 0) {
+                _active -= 1;
+            }
+        }
+
+        /** Takes the commit with the highest generation off the queue.
+         *
+         * @return int position.
+         */
+        int next() {
+            int pos = _queue.poll();
+            _flags[pos] &= ~QUEUED;
+            if ((_flags[pos] & STALE) == 0) {
+                _active -= 1;
+            }
+            return pos;
+        }
+    }
+
+    /** Returns the full sha1 IDs of the commits in the graph that start
+     *  with PREFIX, which must have at least MIN_PREFIX hex digits.
+     *
+     * @param prefix - abbreviated sha1 ID.
+     * @return List.
+     */
+    List<String> matching(String prefix) {
+        List<String> ids = new ArrayList<>();
+        prefix = prefix.toLowerCase();
+        if (prefix.length() < MIN_PREFIX
+                || prefix.length() > Utils.UID_LENGTH
+                || !prefix.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            return ids;
+        }
+        if (_lookup != null) {
+            int[] range = _lookup.range(prefix);
+            for (int i = range[0]; i < range[1]; i += 1) {
+                ids.add(_lookup.id(i));
+            }
+        }
+        for (int pos = _indexed; pos < _count; pos += 1) {
+            String id = id(pos);
+            if (id.startsWith(prefix)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /** Returns the position of the commit with sha1 ID if it is in the
+     *  graph, or NONE. Records LOOKUP does not cover yet are searched
+     *  newest first.
+     *
+     * @param id - sha1 ID.
+     * @return int.
+     */
+    private int find(String id) {
+        Integer known = _positions.get(id);
+        if (known != null) {
+            return known;
+        }
+        if (!CommitStore.isId(id)) {
+            return NONE;
+        }
+        byte[] binary = Pack.toBinary(id);
+        if (_lookup != null) {
+            int i = _lookup.find(binary);
+            if (i >= 0) {
+                int pos = _lookupPositions.getInt(i * Integer.BYTES);
+                _positions.put(id, pos);
+                return pos;
+            }
+        }
+        for (int pos = _mappedCount - 1; pos >= _indexed; pos -= 1) {
+            int start = offset(pos);
+            int i = 0;
+            while (i < binary.length && _mapped.get(start + i) == binary[i]) {
+                i += 1;
+            }
+            if (i == binary.length) {
+                _positions.put(id, pos);
+                return pos;
+            }
+        }
+        return NONE;
+    }
+
+    /** Adds a record for the commit with sha1 ID, PARENTS and TIME.
+     *
+     * @param id - sha1 ID.
+     * @param parents - positions of its two parents, or NONE.
+     * @param time - timestamp in milliseconds.
+     */
+    private void append(String id, int[] parents, long time) {
+        int generation = 0;
+        for (int parent : parents) {
+            if (parent != NONE) {
+                generation = Math.max(generation, generation(parent));
+            }
+        }
+        if (_added.remaining() < RECORD) {
+            ByteBuffer bigger = ByteBuffer.allocate(_added.capacity() * 2);
+            _added.flip();
+            bigger.put(_added);
+            _added = bigger;
+        }
+        _added.put(Pack.toBinary(id)).putInt(parents[0]).putInt(parents[1])
+                .putLong(time).putInt(generation + 1);
+        _positions.put(id, _count);
+        _count += 1;
+    }
+
+    /** Returns the buffer holding the record at POS.
+     *
+     * @param pos - position.
+     * @return ByteBuffer.
+     */
+    private ByteBuffer buffer(int pos) {
+        return pos < _mappedCount ? _mapped : _added;
+    }
+
+    /** Returns the offset of the record at POS within its buffer.
+     *
+     * @param pos - position.
+     * @return int.
+     */
+    private int offset(int pos) {
+        return pos < _mappedCount ? HEADER + pos * RECORD
+                : (pos - _mappedCount) * RECORD;
+    }
+
+    /** Returns the IDs of COMMIT's parents, first parent first.
+     *
+     * @param commit - commit.
+     * @return List.
+     */
+    private static List<String> parentIds(Commit commit) {
+        List<String> ids = new ArrayList<>();
+        for (String parent : commit.getParent()) {
+            if (parent != null && !parent.isEmpty()) {
+                ids.add(parent);
+            }
+        }
+        return ids;
+    }
+}
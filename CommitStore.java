@@ -0,0 +1,200 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/** Content-addressed store of commits. Every commit is written once
+ *  to its own file in COMMITS, named by its sha1 ID, and is read back
+ *  only when it is asked for. Commits read are kept in a small cache,
+ *  which lets a long-running daemon answer from memory.
+ *  @author willharvey
+ */
+class CommitStore {
+
+    /** Directory a legacy commit map is migrated through. */
+    static final File MIGRATION_DIR = Utils.join(Commands.GITLET_DIR,
+            "commits.migrating");
+
+    /** Most commits kept in CACHE. */
+    static final int MAX_CACHED = 1 << 12;
+
+    /** Recently read commits by ID, least recently used first. */
+    private static final LinkedHashMap<String, Commit> CACHE =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Commit> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            };
+
+    /** Returns the commit with sha1 ID, or null if there is none.
+     *
+     * @param id - sha1 ID of the commit.
+     * @return Commit.
+     */
+    static synchronized Commit read(String id) {
+        Commit commit = CACHE.get(id);
+        if (commit != null) {
+            return commit;
+        } else if (!contains(id)) {
+            return null;
+        }
+        commit = Utils.readObject(Utils.join(Commands.COMMITS, id),
+                Commit.class);
+        commit.adoptId(id);
+        CACHE.put(id, commit);
+        return commit;
+    }
+
+    /** Empties the cache of commits read, so that they are read again
+     *  from COMMITS. */
+    static synchronized void forget() {
+        CACHE.clear();
+    }
+
+    /** Returns whether a commit with sha1 ID exists.
+     *
+     * @param id - sha1 ID of the commit.
+     * @return boolean.
+     */
+    static boolean contains(String id) {
+        return isId(id) && Utils.join(Commands.COMMITS, id).isFile();
+    }
+
+    /** Writes COMMIT under its ID and adds it to the commit graph.
+     *  Commits never change once written, so an existing file is left
+     *  alone; the file is written by rename, so a command that dies
+     *  never leaves a torn commit behind for that check to keep. It is
+     *  synced with the command's state files, through the journal.
+     *
+     * @param commit - commit to store.
+     */
+    static void write(Commit commit) {
+        File file = Utils.join(Commands.COMMITS, commit.getId());
+        if (!file.exists()) {
+            replace(file, Utils.serialize(commit), false);
+            Repository.get().created(file);
+            CommitGraph.get().add(commit);
+            MessageIndex.get().add(commit);
+        }
+    }
+
+    /** Returns the IDs of every stored commit, in sorted order.
+     *
+     * @return List.
+     */
+    static List<String> ids() {
+        List<String> ids = Utils.plainFilenamesIn(Commands.COMMITS);
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        return ids;
+    }
+
+    /** Calls VISIT on the ID of each stored commit, in the order the
+     *  directory lists them, until it returns false. IDs are read from
+     *  the directory as they are visited.
+     *
+     * @param visit - returns whether to go on.
+     */
+    static void forEach(Predicate<String> visit) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(
+                Commands.COMMITS.toPath())) {
+            for (Path file : files) {
+                String id = file.getFileName().toString();
+                if (isId(id) && !visit.test(id)) {
+                    break;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Makes CONTENTS the contents of FILE by writing a temporary file,
+     *  syncing it if SYNC, and renaming it over FILE, so that FILE is
+     *  never seen half written.
+     *
+     * @param file - file to replace.
+     * @param contents - new contents.
+     * @param sync - whether to sync the temporary file first.
+     */
+    private static void replace(File file, byte[] contents, boolean sync) {
+        try {
+            ObjectStore.TMP_DIR.mkdir();
+            Path temp = Files.createTempFile(ObjectStore.TMP_DIR.toPath(),
+                    "commit", ".tmp");
+            try (FileChannel out = FileChannel.open(temp,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(contents);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                if (sync) {
+                    out.force(true);
+                }
+            }
+            Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns whether ID looks like a full sha1 ID.
+     *
+     * @param id - string.
+     * @return boolean.
+     */
+    static boolean isId(String id) {
+        return id != null && id.length() == Utils.UID_LENGTH
+                && id.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+    }
+
+    /** Converts a repository whose COMMITS is still a single serialized
+     *  map, as an older Gitlet wrote it, into one file per commit, and
+     *  gives its HEAD the ID that older HEADs lack. The commits are
+     *  written to a side directory first, each through a temporary file
+     *  that is synced and renamed, so an interrupted migration is simply
+     *  redone and never keeps a torn commit. Once COMMITS is a
+     *  directory this only checks that it is. */
+    @SuppressWarnings("unchecked")
+    static void migrate() {
+        if (!Commands.COMMITS.isFile()) {
+            if (!Commands.COMMITS.exists() && MIGRATION_DIR.isDirectory()) {
+                MIGRATION_DIR.renameTo(Commands.COMMITS);
+            }
+            return;
+        }
+        LinkedHashMap<String, Commit> legacy = Utils.readObject(
+                Commands.COMMITS, LinkedHashMap.class);
+        MIGRATION_DIR.mkdir();
+        for (String id : legacy.keySet()) {
+            File file = Utils.join(MIGRATION_DIR, id);
+            if (!file.exists()) {
+                replace(file, Utils.serialize(legacy.get(id)), true);
+            }
+        }
+        Commit head = Utils.readObject(Commands.HEAD, Commit.class);
+        if (head.getId() == null) {
+            head.adoptId(Commands.getRightCommit(Commands.getCurrBr()));
+            replace(Commands.HEAD, Utils.serialize(head), true);
+        }
+        Commands.COMMITS.delete();
+        if (!MIGRATION_DIR.renameTo(Commands.COMMITS)) {
+            throw Utils.error("Could not migrate %s.", Commands.COMMITS);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/** Per-repository settings, kept as "key=value" lines in
+ *  .gitlet/config and read once per command.
+ *  @author willharvey
+ */
+class Config {
+
+    /** File that holds the settings. */
+    static final File CONFIG = Utils.join(Commands.GITLET_DIR, "config");
+
+    /** Settings read from CONFIG, or null before the first lookup. */
+    private static Properties _settings;
+
+    /** Number of times the settings were reloaded or changed. */
+    private static int _generation;
+
+    /** Returns the value of KEY, or DFLT if it is not set.
+     *
+     * @param key - setting name.
+     * @param dflt - default.
+     * @return String.
+     */
+    static String get(String key, String dflt) {
+        return settings().getProperty(key, dflt);
+    }
+
+    /** Returns the value of KEY as an int, or DFLT if it is not set.
+     *
+     * @param key - setting name.
+     * @param dflt - default.
+     * @return int.
+     */
+    static int getInt(String key, int dflt) {
+        String value = get(key, null);
+        if (value == null) {
+            return dflt;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad value for %s: %s", key, value);
+        }
+    }
+
+    /** Sets KEY to VALUE and saves the settings.
+     *
+     * @param key - setting name.
+     * @param value - new value.
+     */
+    static void set(String key, String value) {
+        Properties settings = settings();
+        settings.setProperty(key, value);
+        _generation += 1;
+        try (OutputStream out = Files.newOutputStream(CONFIG.toPath())) {
+            settings.store(out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forgets the settings read so far, so that the next lookup
+     *  rereads CONFIG. */
+    static void reload() {
+        _settings = null;
+        _generation += 1;
+    }
+
+    /** Returns a number that changes whenever the settings may have, so
+     *  that values read from them can be kept until it does.
+     *
+     * @return int.
+     */
+    static int generation() {
+        return _generation;
+    }
+
+    /** Returns the settings, reading them if needed.
+     *
+     * @return Properties.
+     */
+    private static Properties settings() {
+        if (_settings == null) {
+            Properties settings = new Properties();
+            if (CONFIG.isFile()) {
+                try (InputStream in = Files.newInputStream(CONFIG.toPath())) {
+                    settings.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            _settings = settings;
+        }
+        return _settings;
+    }
+}
@@ -0,0 +1,247 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** A long-running server for one repository. It listens on a Unix-domain
+ *  socket in GITLET_DIR and runs the commands clients send it, one at a
+ *  time, in a JVM that stays warm: settings, mapped packs, the index and
+ *  recently read commits are kept between commands. Before each command
+ *  the files that state comes from are stat'ed, and all of it is
+ *  dropped if any no longer looks as it did when the last command
+ *  finished, before its reply was sent, so that a change something
+ *  else made to the repository, however recent, is always seen. The
+ *  daemon exits once no command has arrived for daemon.idleTimeout
+ *  seconds.
+ *
+ *  A request is the number of arguments followed by each argument, and
+ *  a response is what the command printed to standard output followed by
+ *  its error message, both as an int length followed by UTF-8 bytes.
+ *  @author willharvey
+ */
+class Daemon {
+
+    /** What stamps returned when the last command finished. */
+    private static List<String> _stamps;
+
+    /** Socket the daemon listens on. */
+    static final File SOCKET = Utils.join(Commands.GITLET_DIR,
+            "daemon.sock");
+
+    /** Configuration key for the idle timeout, in seconds. */
+    static final String IDLE_TIMEOUT = "daemon.idleTimeout";
+
+    /** Default of IDLE_TIMEOUT. */
+    static final int DEFAULT_IDLE_TIMEOUT = 300;
+
+    /** Runs ARGS in the daemon for this repository, if one is running,
+     *  and prints its output. Returns false if there is no daemon to run
+     *  them.
+     *
+     * @param args - command and operands.
+     * @return boolean.
+     */
+    static boolean forward(String... args) {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        byte[] out;
+        byte[] err;
+        try (SocketChannel channel = SocketChannel.open(
+                UnixDomainSocketAddress.of(SOCKET.toPath()))) {
+            DataOutputStream request = new DataOutputStream(
+                    Channels.newOutputStream(channel));
+            request.writeInt(args.length);
+            for (String arg : args) {
+                writeBytes(request, arg.getBytes(StandardCharsets.UTF_8));
+            }
+            request.flush();
+            DataInputStream response = new DataInputStream(
+                    Channels.newInputStream(channel));
+            out = readBytes(response);
+            err = readBytes(response);
+        } catch (IOException excp) {
+            return false;
+        }
+        System.out.write(out, 0, out.length);
+        System.out.flush();
+        if (err.length > 0) {
+            System.err.printf("%s%n", new String(err,
+                    StandardCharsets.UTF_8));
+        }
+        return true;
+    }
+
+    /** Serves commands for the repository in the CWD until told to stop
+     *  or idle for daemon.idleTimeout seconds. */
+    static void serve() throws IOException {
+        if (!Commands.GITLET_DIR.isDirectory()) {
+            throw new GitletException("Not in an initialized Gitlet "
+                    + "directory.");
+        } else if (forward("daemon", "ping")) {
+            throw new GitletException("A daemon is already running.");
+        }
+        SOCKET.delete();
+        UnixDomainSocketAddress address =
+                UnixDomainSocketAddress.of(SOCKET.toPath());
+        try (ServerSocketChannel server =
+                     ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             Selector selector = Selector.open()) {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            long idle = TimeUnit.SECONDS.toMillis(
+                    Config.getInt(IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT));
+            long last = System.currentTimeMillis();
+            _stamps = stamps();
+            boolean running = true;
+            while (running) {
+                long left = last + idle - System.currentTimeMillis();
+                if (left <= 0) {
+                    break;
+                }
+                selector.select(left);
+                selector.selectedKeys().clear();
+                SocketChannel client = server.accept();
+                if (client == null) {
+                    continue;
+                }
+                if (!_stamps.equals(stamps())) {
+                    invalidate();
+                }
+                try (client) {
+                    running = handle(client);
+                } catch (IOException excp) {
+                    continue;
+                }
+                last = System.currentTimeMillis();
+            }
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Runs the command CLIENT sends, takes the stamps of what it wrote
+     *  and sends back its output. Returns false if the command was to
+     *  stop the daemon.
+     *
+     * @param client - connection.
+     * @return boolean.
+     */
+    private static boolean handle(SocketChannel client) throws IOException {
+        client.configureBlocking(true);
+        DataInputStream request = new DataInputStream(
+                Channels.newInputStream(client));
+        String[] args = new String[request.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = new String(readBytes(request), StandardCharsets.UTF_8);
+        }
+        boolean stop = args.length == 2 && args[0].equals("daemon")
+                && args[1].equals("stop");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String err = "";
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                if (!stop && !(args.length == 2 && args[1].equals("ping"))) {
+                    err = "A daemon is already running.";
+                }
+            } else {
+                Main.operate(args);
+            }
+        } catch (GitletException | IOException excp) {
+            err = excp.getMessage();
+        } catch (RuntimeException excp) {
+            err = String.valueOf(excp);
+            invalidate();
+        } finally {
+            System.out.flush();
+            System.setOut(stdout);
+        }
+        _stamps = stamps();
+        DataOutputStream response = new DataOutputStream(
+                Channels.newOutputStream(client));
+        writeBytes(response, out.toByteArray());
+        writeBytes(response, err.getBytes(StandardCharsets.UTF_8));
+        response.flush();
+        return !stop;
+    }
+
+    /** Drops everything kept between commands, so that it is read again
+     *  from the repository. */
+    static void invalidate() {
+        Config.reload();
+        Pack.reload();
+        Index.reload();
+        CommitStore.forget();
+        CommitGraph.reload();
+        Reachability.reload();
+        MessageIndex.reload();
+    }
+
+    /** Returns the modification time and size of each file the state
+     *  kept between commands is read from: settings, the index, packs,
+     *  commits, and the commit graph, bitmaps and message index built
+     *  from the commits, which gc and reindex rewrite.
+     *
+     * @return List.
+     */
+    private static List<String> stamps() {
+        List<String> stamps = new ArrayList<>();
+        for (File file : new File[] {Config.CONFIG, Index.INDEX,
+                                     Pack.PACK_DIR, Commands.COMMITS,
+                                     CommitGraph.GRAPH, CommitGraph.LOOKUP,
+                                     Reachability.BITMAPS,
+                                     MessageIndex.MESSAGES,
+                                     MessageIndex.TOKENS}) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(
+                        file.toPath(), BasicFileAttributes.class);
+                stamps.add(Index.mtime(attrs) + " " + attrs.size());
+            } catch (IOException excp) {
+                stamps.add("");
+            }
+        }
+        return stamps;
+    }
+
+    /** Writes BYTES to OUT, preceded by their length.
+     *
+     * @param out - stream.
+     * @param bytes - bytes.
+     */
+    private static void writeBytes(DataOutputStream out, byte[] bytes)
+            throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Reads bytes written by writeBytes from IN.
+     *
+     * @param in - stream.
+     * @return byte array.
+     */
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,269 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Binary deltas between objects, and the cache of delta bases used
+ *  to rebuild them. A delta is the varint sizes of its base and
+ *  target followed by instructions that either copy a run of the base
+ *  (COPY, offset, length) or insert literal bytes (INSERT, length,
+ *  bytes). Copies are found by indexing the base in BLOCK-byte blocks
+ *  and extending every block match as far as it goes.
+ *  @author willharvey
+ */
+class Delta {
+
+    /** Instruction that copies a run of the base. */
+    static final int COPY = 1;
+
+    /** Instruction that inserts literal bytes. */
+    static final int INSERT = 2;
+
+    /** Length of the blocks the base is indexed by; shorter matches are
+     *  not worth a copy. */
+    static final int BLOCK = 16;
+
+    /** Multiplier of the block hash. */
+    private static final int HASH_MULTIPLIER = 31;
+
+    /** Low seven bits of a byte. */
+    private static final int SEVEN_BITS = 0x7f;
+
+    /** Continuation bit of a varint byte. */
+    private static final int MORE = 0x80;
+
+    /** Configuration key for the size of the delta-base cache. */
+    static final String CACHE_SIZE = "pack.deltaCacheSize";
+
+    /** Default size of the delta-base cache, in bytes. */
+    static final int DEFAULT_CACHE_SIZE = 32 << 20;
+
+    /** Recently used delta bases, least recently used first. */
+    private static final LinkedHashMap<String, byte[]> CACHE =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total bytes held in CACHE. */
+    private static long _cached;
+
+    /** Size limit of CACHE, read from CACHE_SIZE. */
+    private static long _limit;
+
+    /** Config.generation() when _limit was read, or -1 before then. */
+    private static int _limitGeneration = -1;
+
+    /** Returns a delta that turns BASE into TARGET, or null if it would
+     *  not be smaller than LIMIT bytes.
+     *
+     * @param base - base bytes.
+     * @param target - target bytes.
+     * @param limit - largest useful delta size.
+     * @return byte array or null.
+     */
+    static byte[] create(byte[] base, byte[] target, int limit) {
+        int[] index = index(base);
+        int mask = index.length - 1;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int pos = 0;
+        int pending = 0;
+        while (pos + BLOCK <= target.length) {
+            int candidate = index[hash(target, pos) & mask] - 1;
+            int length = candidate < 0 ? 0
+                    : matchLength(base, candidate, target, pos);
+            if (length < BLOCK) {
+                pos += 1;
+                pending += 1;
+                continue;
+            }
+            while (candidate > 0 && pending > 0
+                    && base[candidate - 1] == target[pos - 1]) {
+                candidate -= 1;
+                pos -= 1;
+                pending -= 1;
+                length += 1;
+            }
+            insert(out, target, pos - pending, pending);
+            out.write(COPY);
+            writeVarint(out, candidate);
+            writeVarint(out, length);
+            pos += length;
+            pending = 0;
+            if (out.size() >= limit) {
+                return null;
+            }
+        }
+        pending += target.length - pos;
+        insert(out, target, target.length - pending, pending);
+        return out.size() < limit ? out.toByteArray() : null;
+    }
+
+    /** Returns the target that DELTA rebuilds from BASE.
+     *
+     * @param base - base bytes.
+     * @param delta - delta.
+     * @return byte array.
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw new IllegalArgumentException("delta does not fit base");
+        }
+        byte[] target = new byte[(int) readVarint(delta, pos)];
+        int done = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = (int) readVarint(delta, pos);
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, target, done, length);
+                done += length;
+            } else if (op == INSERT) {
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], target, done, length);
+                pos[0] += length;
+                done += length;
+            } else {
+                throw new IllegalArgumentException("corrupt delta");
+            }
+        }
+        if (done != target.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return target;
+    }
+
+    /** Returns the cached bytes of the object with sha1 ID, or null.
+     *
+     * @param id - sha1 ID.
+     * @return byte array.
+     */
+    static synchronized byte[] cached(String id) {
+        return CACHE.get(id);
+    }
+
+    /** Caches BYTES as the contents of the object with sha1 ID, evicting
+     *  the least recently used bases to stay within pack.deltaCacheSize.
+     *
+     * @param id - sha1 ID.
+     * @param bytes - decoded object.
+     */
+    static synchronized void cache(String id, byte[] bytes) {
+        if (_limitGeneration != Config.generation()) {
+            _limit = Config.getInt(CACHE_SIZE, DEFAULT_CACHE_SIZE);
+            _limitGeneration = Config.generation();
+        }
+        long limit = _limit;
+        if (bytes.length > limit || CACHE.containsKey(id)) {
+            return;
+        }
+        CACHE.put(id, bytes);
+        _cached += bytes.length;
+        Iterator<Map.Entry<String, byte[]>> oldest =
+                CACHE.entrySet().iterator();
+        while (_cached > limit && oldest.hasNext()) {
+            Map.Entry<String, byte[]> entry = oldest.next();
+            _cached -= entry.getValue().length;
+            oldest.remove();
+        }
+    }
+
+    /** Returns a table from block hashes to one plus the offset of a
+     *  base block with that hash, or zero.
+     *
+     * @param base - base bytes.
+     * @return int array whose length is a power of two.
+     */
+    private static int[] index(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(blocks, 1) * 2);
+        int[] index = new int[size];
+        for (int b = blocks - 1; b >= 0; b -= 1) {
+            index[hash(base, b * BLOCK) & (size - 1)] = b * BLOCK + 1;
+        }
+        return index;
+    }
+
+    /** Returns the hash of the BLOCK bytes of DATA at POS.
+     *
+     * @param data - bytes.
+     * @param pos - offset.
+     * @return int.
+     */
+    private static int hash(byte[] data, int pos) {
+        int h = 0;
+        for (int i = pos; i < pos + BLOCK; i += 1) {
+            h = h * HASH_MULTIPLIER + data[i];
+        }
+        return h ^ (h >>> BLOCK);
+    }
+
+    /** Returns how many bytes of BASE from BPOS equal TARGET from TPOS.
+     *
+     * @param base - base bytes.
+     * @param bpos - base offset.
+     * @param target - target bytes.
+     * @param tpos - target offset.
+     * @return int.
+     */
+    private static int matchLength(byte[] base, int bpos,
+                                   byte[] target, int tpos) {
+        int mismatch = Arrays.mismatch(base, bpos, base.length,
+                target, tpos, target.length);
+        if (mismatch < 0) {
+            return Math.min(base.length - bpos, target.length - tpos);
+        }
+        return mismatch;
+    }
+
+    /** Writes an INSERT of the LENGTH bytes of DATA at POS to OUT, if
+     *  LENGTH is not zero.
+     *
+     * @param out - delta being built.
+     * @param data - bytes.
+     * @param pos - offset.
+     * @param length - number of bytes.
+     */
+    private static void insert(ByteArrayOutputStream out, byte[] data,
+                               int pos, int length) {
+        if (length > 0) {
+            out.write(INSERT);
+            writeVarint(out, length);
+            out.write(data, pos, length);
+        }
+    }
+
+    /** Writes VALUE to OUT seven bits at a time, low bits first.
+     *
+     * @param out - stream.
+     * @param value - non-negative value.
+     */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (value > SEVEN_BITS) {
+            out.write((int) (value & SEVEN_BITS) | MORE);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads a varint from DATA at POS[0], advancing POS[0].
+     *
+     * @param data - bytes.
+     * @param pos - one-element cursor.
+     * @return long.
+     */
+    static long readVarint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]++] & 0xff;
+            value |= (long) (b & SEVEN_BITS) << shift;
+            shift += 7;
+        } while ((b & MORE) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,531 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The line-by-line difference between two versions of a file, found
+ *  with Myers' algorithm in its linear-space form: each step looks for
+ *  the middle snake of an optimal edit path from both ends at once and
+ *  splits the problem there, so memory stays proportional to the
+ *  length of the files rather than to their product. Lines are turned
+ *  into numbers first, equal lines getting equal numbers, and common
+ *  leading and trailing lines are set aside before any search, which
+ *  makes mostly-similar files cheap. Files with a NUL byte near their
+ *  start count as binary and are only reported as differing.
+ *  @author willharvey
+ */
+class Diff {
+
+    /** Lines of unchanged context around each change. */
+    static final int CONTEXT = 3;
+
+    /** Leading bytes searched for NUL to tell binary files. */
+    static final int BINARY_PROBE = 8000;
+
+    /** Most + and - signs on a line of --stat. */
+    static final int STAT_WIDTH = 50;
+
+    /** Contents of the old version. */
+    private final byte[] _before;
+
+    /** Contents of the new version. */
+    private final byte[] _after;
+
+    /** Start offset of each line of _before, and its length last. */
+    private final int[] _beforeLines;
+
+    /** Start offset of each line of _after, and its length last. */
+    private final int[] _afterLines;
+
+    /** Number of each line of _before; equal lines share numbers. */
+    private final int[] _a;
+
+    /** Number of each line of _after; equal lines share numbers. */
+    private final int[] _b;
+
+    /** Which lines of _before are deleted. */
+    private final boolean[] _deleted;
+
+    /** Which lines of _after are inserted. */
+    private final boolean[] _inserted;
+
+    /** Furthest reaching forward paths, by diagonal. */
+    private int[] _forward;
+
+    /** Furthest reaching backward paths, by diagonal. */
+    private int[] _backward;
+
+    /** True if either version is binary. */
+    private final boolean _binary;
+
+    /** Finds the difference between BEFORE and AFTER, either of which may
+     *  be null for a file that does not exist.
+     *
+     * @param before - old contents, or null.
+     * @param after - new contents, or null.
+     */
+    Diff(byte[] before, byte[] after) {
+        _before = before == null ? new byte[0] : before;
+        _after = after == null ? new byte[0] : after;
+        _binary = isBinary(_before) || isBinary(_after);
+        _beforeLines = _binary ? new int[] {0} : lines(_before);
+        _afterLines = _binary ? new int[] {0} : lines(_after);
+        Map<Line, Integer> numbers = new HashMap<>();
+        _a = number(_before, _beforeLines, numbers);
+        _b = number(_after, _afterLines, numbers);
+        _deleted = new boolean[_a.length];
+        _inserted = new boolean[_b.length];
+        if (!_binary) {
+            int max = (_a.length + _b.length + 1) / 2 + 2;
+            _forward = new int[2 * max];
+            _backward = new int[2 * max];
+            compare(0, _a.length, 0, _b.length);
+            _forward = null;
+            _backward = null;
+        }
+    }
+
+    /** Returns whether either version is binary.
+     *
+     * @return boolean.
+     */
+    boolean isBinary() {
+        return _binary;
+    }
+
+    /** Returns whether the two versions differ.
+     *
+     * @return boolean.
+     */
+    boolean differs() {
+        return _binary ? !Arrays.equals(_before, _after)
+                : insertions() + deletions() > 0;
+    }
+
+    /** Returns the number of lines inserted.
+     *
+     * @return int.
+     */
+    int insertions() {
+        return count(_inserted);
+    }
+
+    /** Returns the number of lines deleted.
+     *
+     * @return int.
+     */
+    int deletions() {
+        return count(_deleted);
+    }
+
+    /** Writes the difference to OUT as a unified diff of the file NAME,
+     *  with /dev/null for a side that does not exist as EXISTED and
+     *  EXISTS say.
+     *
+     * @param out - where to write.
+     * @param name - path.
+     * @param existed - whether the old version exists.
+     * @param exists - whether the new version exists.
+     */
+    void write(OutputStream out, String name, boolean existed,
+               boolean exists) throws IOException {
+        String from = existed ? "a/" + name : "/dev/null";
+        String to = exists ? "b/" + name : "/dev/null";
+        out.write(("diff --gitlet a/" + name + " b/" + name + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        if (_binary) {
+            out.write(("Binary files " + from + " and " + to + " differ\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        out.write(("--- " + from + "\n+++ " + to + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        for (int[] hunk : hunks()) {
+            writeHunk(out, hunk);
+        }
+    }
+
+    /** Returns the line of --stat for the file NAME, with its bar scaled
+     *  so that a file with WIDEST changed lines fills STAT_WIDTH.
+     *
+     * @param name - path.
+     * @param nameWidth - width to pad names to.
+     * @param widest - most changed lines of any file.
+     * @return String.
+     */
+    String stat(String name, int nameWidth, int widest) {
+        if (_binary) {
+            return String.format(" %-" + nameWidth + "s | Bin\n", name);
+        }
+        int plus = insertions();
+        int minus = deletions();
+        if (widest > STAT_WIDTH) {
+            plus = scale(plus, widest);
+            minus = scale(minus, widest);
+        }
+        return String.format(" %-" + nameWidth + "s | %d %s%s\n", name,
+                insertions() + deletions(), "+".repeat(plus),
+                "-".repeat(minus));
+    }
+
+    /** Finds the edits between lines ALO..AHI-1 of _a and BLO..BHI-1 of
+     *  _b, marking them in _deleted and _inserted.
+     *
+     * @param aLo - first line of _a.
+     * @param aHi - end of the lines of _a.
+     * @param bLo - first line of _b.
+     * @param bHi - end of the lines of _b.
+     */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && _a[aLo] == _b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && _a[aHi - 1] == _b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            Arrays.fill(_deleted, aLo, aHi, true);
+            Arrays.fill(_inserted, bLo, bHi, true);
+            return;
+        }
+        int[] split = middleSnake(aLo, aHi, bLo, bHi);
+        if (split == null) {
+            Arrays.fill(_deleted, aLo, aHi, true);
+            Arrays.fill(_inserted, bLo, bHi, true);
+            return;
+        }
+        compare(aLo, split[0], bLo, split[1]);
+        compare(split[0], aHi, split[1], bHi);
+    }
+
+    /** Returns a point on an optimal edit path between lines ALO..AHI-1
+     *  of _a and BLO..BHI-1 of _b, as line numbers in each, found by
+     *  searching forward from the start and backward from the end until
+     *  the two searches meet. Returns null if they never do.
+     *
+     * @param aLo - first line of _a.
+     * @param aHi - end of the lines of _a.
+     * @param bLo - first line of _b.
+     * @param bHi - end of the lines of _b.
+     * @return int[] of a line of _a and a line of _b.
+     */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD + 1;
+        Arrays.fill(_forward, 0, 2 * offset + 1, -1);
+        Arrays.fill(_backward, 0, 2 * offset + 1, -1);
+        _forward[offset + 1] = 0;
+        _backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int fStart = 0, fEnd = 0, bStart = 0, bEnd = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k = -d + fStart; k <= d - fEnd; k += 2) {
+                int i = offset + k;
+                int x = k == -d || (k != d && _forward[i - 1]
+                        < _forward[i + 1]) ? _forward[i + 1]
+                        : _forward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && _a[aLo + x] == _b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                _forward[i] = x;
+                if (x > n) {
+                    fEnd += 2;
+                } else if (y > m) {
+                    fStart += 2;
+                } else if (odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j <= 2 * offset && _backward[j] != -1
+                            && x >= n - _backward[j]) {
+                        return new int[] {aLo + x, bLo + y};
+                    }
+                }
+            }
+            for (int k = -d + bStart; k <= d - bEnd; k += 2) {
+                int i = offset + k;
+                int x = k == -d || (k != d && _backward[i - 1]
+                        < _backward[i + 1]) ? _backward[i + 1]
+                        : _backward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m
+                        && _a[aHi - x - 1] == _b[bHi - y - 1]) {
+                    x += 1;
+                    y += 1;
+                }
+                _backward[i] = x;
+                if (x > n) {
+                    bEnd += 2;
+                } else if (y > m) {
+                    bStart += 2;
+                } else if (!odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j <= 2 * offset && _forward[j] != -1) {
+                        int fx = _forward[j];
+                        int fy = fx - (j - offset);
+                        if (fx >= n - x) {
+                            return new int[] {aLo + fx, bLo + fy};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns the hunks of the difference, each as the first line and
+     *  end of its lines in _before and then in _after.
+     *
+     * @return List of int[4].
+     */
+    private List<int[]> hunks() {
+        List<int[]> hunks = new ArrayList<>();
+        int i = 0, j = 0;
+        int[] hunk = null;
+        while (i < _a.length || j < _b.length) {
+            if ((i < _a.length && _deleted[i])
+                    || (j < _b.length && _inserted[j])) {
+                int i0 = i, j0 = j;
+                while (i < _a.length && _deleted[i]) {
+                    i += 1;
+                }
+                while (j < _b.length && _inserted[j]) {
+                    j += 1;
+                }
+                if (hunk != null && i0 - hunk[1] <= 2 * CONTEXT) {
+                    hunk[1] = i;
+                    hunk[3] = j;
+                } else {
+                    if (hunk != null) {
+                        close(hunk);
+                        hunks.add(hunk);
+                    }
+                    int lead = Math.min(CONTEXT, i0);
+                    hunk = new int[] {i0 - lead, i, j0 - lead, j};
+                }
+            } else {
+                i += 1;
+                j += 1;
+            }
+        }
+        if (hunk != null) {
+            close(hunk);
+            hunks.add(hunk);
+        }
+        return hunks;
+    }
+
+    /** Extends HUNK by up to CONTEXT unchanged lines after its last
+     *  change.
+     *
+     * @param hunk - first line and end in _before and in _after.
+     */
+    private void close(int[] hunk) {
+        int trail = Math.min(CONTEXT, Math.min(_a.length - hunk[1],
+                _b.length - hunk[3]));
+        hunk[1] += trail;
+        hunk[3] += trail;
+    }
+
+    /** Writes HUNK to OUT: its header, then its lines marked with ' ',
+     *  '-' or '+'.
+     *
+     * @param out - where to write.
+     * @param hunk - first line and end in _before and in _after.
+     */
+    private void writeHunk(OutputStream out, int[] hunk) throws IOException {
+        out.write(("@@ -" + range(hunk[0], hunk[1]) + " +"
+                + range(hunk[2], hunk[3]) + " @@\n")
+                .getBytes(StandardCharsets.UTF_8));
+        int i = hunk[0], j = hunk[2];
+        while (i < hunk[1] || j < hunk[3]) {
+            if (i < hunk[1] && _deleted[i]) {
+                writeLine(out, '-', _before, _beforeLines, i);
+                i += 1;
+            } else if (j < hunk[3] && _inserted[j]) {
+                writeLine(out, '+', _after, _afterLines, j);
+                j += 1;
+            } else {
+                writeLine(out, ' ', _before, _beforeLines, i);
+                i += 1;
+                j += 1;
+            }
+        }
+    }
+
+    /** Writes line I of BYTES, whose lines start at STARTS, to OUT after
+     *  MARK, noting a missing final newline.
+     *
+     * @param out - where to write.
+     * @param mark - ' ', '-' or '+'.
+     * @param bytes - contents.
+     * @param starts - line offsets, with the length last.
+     * @param i - line number.
+     */
+    private static void writeLine(OutputStream out, char mark, byte[] bytes,
+                                  int[] starts, int i) throws IOException {
+        out.write(mark);
+        out.write(bytes, starts[i], starts[i + 1] - starts[i]);
+        if (bytes[starts[i + 1] - 1] != '\n') {
+            out.write("\n\\ No newline at end of file\n"
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Returns the unified diff range of lines FROM to TO.
+     *
+     * @param from - first line, counting from 0.
+     * @param to - end of the lines.
+     * @return String.
+     */
+    private static String range(int from, int to) {
+        int count = to - from;
+        return (count == 0 ? from : from + 1) + "," + count;
+    }
+
+    /** Returns COUNT scaled so that WIDEST becomes STAT_WIDTH, but at
+     *  least 1 if COUNT is not 0.
+     *
+     * @param count - changed lines.
+     * @param widest - most changed lines of any file.
+     * @return int.
+     */
+    private static int scale(int count, int widest) {
+        return count == 0 ? 0 : Math.max(1, count * STAT_WIDTH / widest);
+    }
+
+    /** Returns the number of true values in FLAGS.
+     *
+     * @param flags - booleans.
+     * @return int.
+     */
+    private static int count(boolean[] flags) {
+        int count = 0;
+        for (boolean flag : flags) {
+            if (flag) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Returns whether BYTES has a NUL among its first BINARY_PROBE.
+     *
+     * @param bytes - contents.
+     * @return boolean.
+     */
+    private static boolean isBinary(byte[] bytes) {
+        for (int i = 0; i < Math.min(bytes.length, BINARY_PROBE); i += 1) {
+            if (bytes[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the offset of each line of BYTES, each ending after a
+     *  newline or at the end, followed by the length of BYTES.
+     *
+     * @param bytes - contents.
+     * @return int[].
+     */
+    private static int[] lines(byte[] bytes) {
+        int count = 0;
+        for (byte b : bytes) {
+            if (b == '\n') {
+                count += 1;
+            }
+        }
+        boolean partial = bytes.length > 0
+                && bytes[bytes.length - 1] != '\n';
+        int[] starts = new int[count + (partial ? 1 : 0) + 1];
+        int line = 1;
+        for (int i = 0; i < bytes.length; i += 1) {
+            if (bytes[i] == '\n' && i + 1 < bytes.length) {
+                starts[line] = i + 1;
+                line += 1;
+            }
+        }
+        starts[starts.length - 1] = bytes.length;
+        return starts;
+    }
+
+    /** Returns the number of each line of BYTES, whose lines start at
+     *  STARTS, handing out new numbers from NUMBERS for lines not seen
+     *  before.
+     *
+     * @param bytes - contents.
+     * @param starts - line offsets, with the length last.
+     * @param numbers - numbers of the lines seen so far.
+     * @return int[].
+     */
+    private static int[] number(byte[] bytes, int[] starts,
+                                Map<Line, Integer> numbers) {
+        int[] result = new int[starts.length - 1];
+        for (int i = 0; i < result.length; i += 1) {
+            Line line = new Line(bytes, starts[i], starts[i + 1]);
+            Integer known = numbers.putIfAbsent(line, numbers.size());
+            result[i] = known == null ? numbers.size() - 1 : known;
+        }
+        return result;
+    }
+
+    /** A line of a file, compared by its bytes. */
+    private static class Line {
+
+        /** Contents the line is in. */
+        private final byte[] _bytes;
+
+        /** Offset of the line. */
+        private final int _start;
+
+        /** Offset just past the line. */
+        private final int _end;
+
+        /** Hash of the line's bytes. */
+        private final int _hash;
+
+        /** The line of BYTES from START to END.
+         *
+         * @param bytes - contents.
+         * @param start - offset of the line.
+         * @param end - offset past the line.
+         */
+        Line(byte[] bytes, int start, int end) {
+            _bytes = bytes;
+            _start = start;
+            _end = end;
+            int hash = 1;
+            for (int i = start; i < end; i += 1) {
+                hash = 31 * hash + bytes[i];
+            }
+            _hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Line)) {
+                return false;
+            }
+            Line line = (Line) other;
+            return _hash == line._hash && Arrays.equals(_bytes, _start,
+                    _end, line._bytes, line._start, line._end);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Reclaims the space of commits and objects nothing refers to any
+ *  more. A commit is kept if a branch or HEAD reaches it; an object is
+ *  kept if a kept commit's tree, or the staging area, refers to it.
+ *  Anything else is removed once it is older than gc.pruneExpire
+ *  seconds, so that objects another command has only just written, and
+ *  not yet staged or committed, survive. gc repacks every kept object;
+ *  the automatic collection that runs after add, commit and merge once
+ *  there are more than gc.auto loose objects only removes and packs the
+ *  loose ones, leaving existing packs alone until there are
+ *  gc.autoPackLimit of them.
+ *  @author willharvey
+ */
+class GarbageCollector {
+
+    /** Configuration key for the grace period, in seconds. */
+    static final String PRUNE_EXPIRE = "gc.pruneExpire";
+
+    /** Default of PRUNE_EXPIRE: two weeks. */
+    static final int DEFAULT_PRUNE_EXPIRE = (int) TimeUnit.DAYS.toSeconds(14);
+
+    /** Configuration key for the number of loose objects above which
+     *  collection runs by itself; 0 turns that off. */
+    static final String AUTO = "gc.auto";
+
+    /** Default of AUTO. */
+    static final int DEFAULT_AUTO = 6700;
+
+    /** Configuration key for the number of packs at which an automatic
+     *  collection repacks everything. */
+    static final String AUTO_PACK_LIMIT = "gc.autoPackLimit";
+
+    /** Default of AUTO_PACK_LIMIT. */
+    static final int DEFAULT_AUTO_PACK_LIMIT = 50;
+
+    /** Anything last modified before this, in milliseconds, may go. */
+    private final long _expire;
+
+    /** Modification times of the pack files, by pack name. */
+    private final Map<String, Long> _packTimes = new HashMap<>();
+
+    /** Sets up a collection at the current time. */
+    private GarbageCollector() {
+        _expire = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(
+                Config.getInt(PRUNE_EXPIRE, DEFAULT_PRUNE_EXPIRE));
+        for (Pack pack : Pack.all()) {
+            _packTimes.put(pack.name(), Utils.join(Pack.PACK_DIR,
+                    pack.name() + ".pack").lastModified());
+        }
+    }
+
+    /** Removes unreferenced commits and objects past the grace period
+     *  and repacks everything else. */
+    static void run() throws IOException {
+        new GarbageCollector().collect(true);
+    }
+
+    /** Collects, loose objects only unless there are too many packs, if
+     *  there are more loose objects than gc.auto. */
+    static void auto() throws IOException {
+        int limit = Config.getInt(AUTO, DEFAULT_AUTO);
+        if (limit <= 0 || ObjectStore.looseIds().size() <= limit) {
+            return;
+        }
+        boolean full = Pack.all().size() >= Config.getInt(AUTO_PACK_LIMIT,
+                DEFAULT_AUTO_PACK_LIMIT);
+        new GarbageCollector().collect(full);
+    }
+
+    /** Removes what is unreferenced and past the grace period: commits
+     *  and every object if FULL, and otherwise loose objects only. The
+     *  surviving loose objects are packed, and if FULL the existing packs
+     *  are repacked too.
+     *
+     * @param full - whether to prune commits and packed objects.
+     */
+    private void collect(boolean full) throws IOException {
+        if (full) {
+            pruneCommits();
+        }
+        pruneTemporaries();
+        Map<String, String> paths = Repack.pathHints();
+        Set<String> staged = new HashSet<>(Stage.get().added().values());
+        Repack.run(paths, id -> paths.containsKey(id)
+                || staged.contains(id) || isRecent(id), !full);
+    }
+
+    /** Deletes the commits no branch or HEAD reaches that are past the
+     *  grace period. If any go, the commit graph, the bitmaps and the
+     *  message index, which still name them, are dropped to be built
+     *  again. */
+    private void pruneCommits() {
+        List<String> roots = Commands.branchHeads();
+        roots.add(Repository.get().read(Commands.HEAD, Commit.class)
+                .getId());
+        CommitGraph graph = CommitGraph.get();
+        Set<String> reachable = new HashSet<>();
+        Reachability.get().reachable(roots).forEach(
+                pos -> reachable.add(graph.id(pos)));
+        boolean pruned = false;
+        for (String id : CommitStore.ids()) {
+            File file = Utils.join(Commands.COMMITS, id);
+            if (!reachable.contains(id) && file.lastModified() < _expire) {
+                pruned |= file.delete();
+            }
+        }
+        if (!pruned) {
+            return;
+        }
+        CommitStore.forget();
+        CommitGraph.reload();
+        CommitGraph.GRAPH.delete();
+        CommitGraph.LOOKUP.delete();
+        Reachability.reload();
+        Reachability.BITMAPS.delete();
+        MessageIndex.reload();
+        if (MessageIndex.MESSAGES.isFile()) {
+            MessageIndex.rebuild();
+        }
+    }
+
+    /** Deletes the temporary files of object writes that never finished
+     *  and are past the grace period. */
+    private void pruneTemporaries() {
+        File[] temps = ObjectStore.TMP_DIR.listFiles();
+        if (temps == null) {
+            return;
+        }
+        for (File temp : temps) {
+            if (temp.lastModified() < _expire) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Returns whether the object with sha1 ID was stored within the
+     *  grace period, loose or in a pack.
+     *
+     * @param id - sha1 ID.
+     * @return boolean.
+     */
+    private boolean isRecent(String id) {
+        if (ObjectStore.file(id).lastModified() >= _expire) {
+            return true;
+        }
+        Pack pack = Pack.containing(id);
+        return pack != null
+                && _packTimes.getOrDefault(pack.name(), 0L) >= _expire;
+    }
+}
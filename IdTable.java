@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/** A sorted table of binary sha1 IDs within a larger buffer, such as a
+ *  mapped index file: a FANOUT-entry table counting the IDs that start
+ *  with each byte or a smaller one, then the IDs in increasing order. A
+ *  full ID is found by a binary search within the IDs sharing its first
+ *  byte, and an abbreviated one by finding where the smallest and the
+ *  largest IDs it could stand for would go.
+ *  @author willharvey
+ */
+class IdTable {
+
+    /** Number of entries in the fanout table. */
+    static final int FANOUT = 256;
+
+    /** Buffer holding the table. */
+    private final ByteBuffer _buffer;
+
+    /** Offset of the fanout table in _buffer. */
+    private final int _start;
+
+    /** Number of IDs. */
+    private final int _count;
+
+    /** Reads the table of COUNT IDs at START in BUFFER.
+     *
+     * @param buffer - buffer holding the table.
+     * @param start - offset of the fanout table.
+     * @param count - number of IDs.
+     */
+    IdTable(ByteBuffer buffer, int start, int count) {
+        _buffer = buffer;
+        _start = start;
+        _count = count;
+    }
+
+    /** Returns the size in bytes of a table of COUNT IDs.
+     *
+     * @param count - number of IDs.
+     * @return int.
+     */
+    static int size(int count) {
+        return FANOUT * Integer.BYTES + count * Pack.ID_BYTES;
+    }
+
+    /** Writes a table of the sorted hex IDS to OUT at its position.
+     *
+     * @param out - buffer.
+     * @param ids - sorted hex IDs.
+     */
+    static void write(ByteBuffer out, List<String> ids) {
+        int[] fanout = new int[FANOUT];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int b = 0; b < FANOUT; b += 1) {
+            total += fanout[b];
+            out.putInt(total);
+        }
+        for (String id : ids) {
+            out.put(Pack.toBinary(id));
+        }
+    }
+
+    /** Returns the number of IDs.
+     *
+     * @return int.
+     */
+    int count() {
+        return _count;
+    }
+
+    /** Returns the hex ID at POS.
+     *
+     * @param pos - position in the table.
+     * @return String.
+     */
+    String id(int pos) {
+        byte[] id = new byte[Pack.ID_BYTES];
+        _buffer.get(idStart() + pos * Pack.ID_BYTES, id);
+        return Utils.toHex(id);
+    }
+
+    /** Returns the position of binary ID, or -1 if it is not in the
+     *  table.
+     *
+     * @param id - binary sha1 ID.
+     * @return int.
+     */
+    int find(byte[] id) {
+        int pos = lowerBound(id);
+        return pos < _count && compare(pos, id) == 0 ? pos : -1;
+    }
+
+    /** Returns the positions of the IDs starting with PREFIX, an even or
+     *  odd number of hex digits, at least two, as the first position and
+     *  one past the last.
+     *
+     * @param prefix - hex digits.
+     * @return int array of two.
+     */
+    int[] range(String prefix) {
+        String zeros = "0".repeat(2 * Pack.ID_BYTES - prefix.length());
+        String effs = "f".repeat(zeros.length());
+        int lo = lowerBound(Pack.toBinary(prefix + zeros));
+        int hi = lo;
+        byte[] last = Pack.toBinary(prefix + effs);
+        while (hi < _count && compare(hi, last) <= 0) {
+            hi += 1;
+        }
+        return new int[] {lo, hi};
+    }
+
+    /** Returns the position of the first ID not smaller than binary ID.
+     *
+     * @param id - binary sha1 ID.
+     * @return int.
+     */
+    private int lowerBound(byte[] id) {
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, id) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the value of the fanout table for first byte B.
+     *
+     * @param b - first byte of an ID, 0 to 255.
+     * @return int.
+     */
+    private int fanout(int b) {
+        return _buffer.getInt(_start + b * Integer.BYTES);
+    }
+
+    /** Returns where the sorted IDs start in _buffer.
+     *
+     * @return int.
+     */
+    private int idStart() {
+        return _start + FANOUT * Integer.BYTES;
+    }
+
+    /** Compares the ID at POS with ID, as unsigned bytes.
+     *
+     * @param pos - position in the table.
+     * @param id - binary sha1 ID.
+     * @return negative, zero or positive.
+     */
+    private int compare(int pos, byte[] id) {
+        int start = idStart() + pos * Pack.ID_BYTES;
+        for (int i = 0; i < Pack.ID_BYTES; i += 1) {
+            int diff = (_buffer.get(start + i) & 0xff) - (id[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,280 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/** The index: for every file Gitlet has hashed, its size, mtime and
+ *  inode at the time, and the blob ID it hashed to. A file whose stat
+ *  data still matches is taken to have that blob ID without being
+ *  read. An entry is only trusted if the file's mtime is older than
+ *  the index file itself; otherwise the file may have changed within
+ *  the same clock tick as it was hashed, and it is hashed again. Files
+ *  may be looked up from several threads at once; only the entries
+ *  themselves are locked, never the hashing. The index is only a
+ *  cache: it is replaced by rename, outside the journal, and one that
+ *  cannot be read is dropped and rebuilt as files are hashed again.
+ *  @author willharvey
+ */
+class Index implements Serializable {
+
+    /** Fixed so that an index written before a change to the class that
+     *  leaves its fields alone can still be read, rather than dropped
+     *  and every file hashed again. */
+    private static final long serialVersionUID = 1498143764829277021L;
+
+    /** File that holds the index. */
+    static final File INDEX = Utils.join(Commands.GITLET_DIR, "index");
+
+    /** Index of the current command, or null before it is loaded. */
+    private static Index _current;
+
+    /** Stat data and blob IDs, by file name. */
+    private LinkedHashMap<String, Entry> _entries = new LinkedHashMap<>();
+
+    /** Modification time of INDEX when it was read, in nanoseconds. */
+    private transient long _written;
+
+    /** True if entries changed since the index was read. */
+    private transient boolean _dirty;
+
+    /** The stat data of one file and the blob it hashed to. */
+    static class Entry implements Serializable {
+        /** Fixed for the same reason as the index's own. */
+        private static final long serialVersionUID = -1919373893189601003L;
+        /** Size in bytes. */
+        private long _size;
+        /** Modification time in nanoseconds. */
+        private long _mtime;
+        /** Device and inode, as the file system reports them. */
+        private String _key;
+        /** sha1 ID of the blob the file hashed to. */
+        private String _blob;
+
+        /** Returns whether ATTRS describe the file this entry was made
+         *  from, unchanged.
+         *
+         * @param attrs - current stat data.
+         * @return boolean.
+         */
+        boolean matches(BasicFileAttributes attrs) {
+            return _size == attrs.size() && _mtime == mtime(attrs)
+                    && _key.equals(String.valueOf(attrs.fileKey()));
+        }
+    }
+
+    /** Returns the index, reading it on first use.
+     *
+     * @return Index.
+     */
+    static synchronized Index get() {
+        if (_current == null) {
+            if (INDEX.isFile()) {
+                try {
+                    _current = Utils.readObject(INDEX, Index.class);
+                    _current._written = indexTime();
+                } catch (IllegalArgumentException excp) {
+                    _current = null;
+                }
+            }
+            if (_current == null) {
+                _current = new Index();
+            }
+        }
+        return _current;
+    }
+
+    /** Writes the index back if it changed. */
+    static synchronized void flush() {
+        if (_current != null && _current._dirty
+                && Commands.GITLET_DIR.isDirectory()) {
+            try {
+                ObjectStore.TMP_DIR.mkdir();
+                File temp = File.createTempFile("index", null,
+                        ObjectStore.TMP_DIR);
+                Utils.writeObject(temp, _current);
+                Files.move(temp.toPath(), INDEX.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            _current._written = indexTime();
+            _current._dirty = false;
+        }
+    }
+
+    /** Forgets the index read so far, so that the next lookup rereads
+     *  INDEX. */
+    static synchronized void reload() {
+        _current = null;
+    }
+
+    /** Returns the modification time of INDEX in nanoseconds, or 0 if it
+     *  cannot be read.
+     *
+     * @return long.
+     */
+    private static long indexTime() {
+        try {
+            return mtime(Files.readAttributes(INDEX.toPath(),
+                    BasicFileAttributes.class));
+        } catch (IOException excp) {
+            return 0;
+        }
+    }
+
+    /** Returns the blob ID of the working file NAME, from its entry if
+     *  its stat data is unchanged and otherwise by hashing it. Returns
+     *  null if there is no such file.
+     *
+     * @param name - file name.
+     * @return String sha1 ID or null.
+     */
+    String blobId(String name) {
+        File file = Utils.join(Commands.CWD, name);
+        BasicFileAttributes attrs = stat(file);
+        if (attrs == null) {
+            forget(name);
+            return null;
+        }
+        String known = cleanBlobId(name, attrs);
+        if (known != null) {
+            return known;
+        }
+        String id = Blob.hash(file);
+        record(name, attrs, id);
+        return id;
+    }
+
+    /** Returns the blob ID recorded for NAME if the file's stat data is
+     *  unchanged and can be trusted, and null otherwise.
+     *
+     * @param name - file name.
+     * @return String sha1 ID or null.
+     */
+    String cleanBlobId(String name) {
+        BasicFileAttributes attrs = stat(Utils.join(Commands.CWD, name));
+        return attrs == null ? null : cleanBlobId(name, attrs);
+    }
+
+    /** Returns the blob ID recorded for NAME if ATTRS, its current stat
+     *  data, match the entry and the entry can be trusted, and null
+     *  otherwise.
+     *
+     * @param name - file name.
+     * @param attrs - stat data.
+     * @return String sha1 ID or null.
+     */
+    private synchronized String cleanBlobId(String name,
+                                            BasicFileAttributes attrs) {
+        Entry entry = _entries.get(name);
+        if (entry != null && entry.matches(attrs)
+                && entry._mtime < _written) {
+            return entry._blob;
+        }
+        return null;
+    }
+
+    /** Stores the working file NAME as a blob and records its stat data,
+     *  taken before it was read, and returns the blob's ID.
+     *
+     * @param name - file name.
+     * @return String sha1 ID.
+     */
+    String store(String name) {
+        File file = Utils.join(Commands.CWD, name);
+        BasicFileAttributes attrs = stat(file);
+        String id = Blob.store(file);
+        if (attrs != null) {
+            record(name, attrs, id);
+        }
+        return id;
+    }
+
+    /** Returns whether the working file NAME has the contents of the
+     *  blob with sha1 ID.
+     *
+     * @param name - file name.
+     * @param id - sha1 ID, or null.
+     * @return boolean.
+     */
+    boolean matches(String name, String id) {
+        if (id == null) {
+            return false;
+        }
+        String actual = blobId(name);
+        return id.equals(actual)
+                || (actual != null && Blob.legacyMatches(id,
+                        Utils.join(Commands.CWD, name)));
+    }
+
+    /** Records that the working file NAME, just written from the blob
+     *  with sha1 ID, has that ID.
+     *
+     * @param name - file name.
+     * @param id - sha1 ID.
+     */
+    void record(String name, String id) {
+        BasicFileAttributes attrs = stat(Utils.join(Commands.CWD, name));
+        if (attrs != null) {
+            record(name, attrs, id);
+        }
+    }
+
+    /** Records that the working file NAME with stat data ATTRS has blob
+     *  ID.
+     *
+     * @param name - file name.
+     * @param attrs - stat data.
+     * @param id - sha1 ID.
+     */
+    private synchronized void record(String name, BasicFileAttributes attrs,
+                                     String id) {
+        Entry entry = new Entry();
+        entry._size = attrs.size();
+        entry._mtime = mtime(attrs);
+        entry._key = String.valueOf(attrs.fileKey());
+        entry._blob = id;
+        _entries.put(name, entry);
+        _dirty = true;
+    }
+
+    /** Drops the entry for NAME, which no longer exists.
+     *
+     * @param name - file name.
+     */
+    private synchronized void forget(String name) {
+        if (_entries.remove(name) != null) {
+            _dirty = true;
+        }
+    }
+
+    /** Returns the stat data of FILE, or null if it is not a plain file.
+     *
+     * @param file - file.
+     * @return BasicFileAttributes.
+     */
+    static BasicFileAttributes stat(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            return attrs.isRegularFile() ? attrs : null;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the modification time in ATTRS, in nanoseconds.
+     *
+     * @param attrs - stat data.
+     * @return long.
+     */
+    static long mtime(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+}
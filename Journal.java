@@ -0,0 +1,381 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/** A write-ahead journal that makes the state-file writes of a command
+ *  one transaction. The new contents of every file are first written
+ *  to JOURNAL, followed by a checksum, and only then to the files
+ *  themselves; the journal is removed once they are all in place. A
+ *  command that dies part-way leaves either an incomplete journal,
+ *  which the next command throws away with nothing yet changed, or a
+ *  complete one, which it applies again in full; applying it twice
+ *  does no harm. The commits and objects the command created, which
+ *  the state files may name, are made durable no later than the
+ *  journal. How hard this is made to survive a power loss is set by
+ *  core.durability:
+ *      none     no journal and no syncing: each file is replaced by
+ *               rename in turn;
+ *      batched  the journal is the only file synced, once: it carries
+ *               the contents of the created files as well as the new
+ *               state files, which are then replaced by rename
+ *               without syncing (the default);
+ *      strict   the created files, the journal, each state file as it
+ *               is written and the directories that hold them are all
+ *               synced, and the journal holds the state files only.
+ *  Replacing by rename means a file is never seen half written, even
+ *  after a power loss that beats the system's own write-back; batched
+ *  mode can then lose some writes of the last command, but
+ *  never tears a state file.
+ *
+ *  The transaction covers HEAD, CURRENT_BRANCH, the branch files and
+ *  the staging area. The files derived from the commits are written
+ *  outside it, and each is checked when it is read and rebuilt or
+ *  ignored if it does not match:
+ *      commit-graph      appended to after the transaction; a torn last
+ *                        record is cut off, and commits missing from
+ *                        the graph are added when they are looked up;
+ *      commit-graph.idx  replaced by rename, and only trusted for the
+ *                        graph epoch and records it was written for;
+ *      bitmaps           ignored unless the graph still has the commits
+ *                        it was written against (see Reachability);
+ *      messages          appended to; a torn last entry is cut off, and
+ *                        its message is found again after reindex or
+ *                        gc rebuilds the log; messages.idx, replaced
+ *                        by rename, only covers the log up to the
+ *                        length it records;
+ *      index             the stat cache, replaced by rename; if it
+ *                        cannot be read, files are simply hashed again.
+ *  @author willharvey
+ */
+class Journal {
+
+    /** File that holds a pending transaction. */
+    static final File JOURNAL = Utils.join(Commands.GITLET_DIR, "journal");
+
+    /** Leading bytes of JOURNAL. */
+    static final int MAGIC = 0x474a4e31;
+
+    /** Setting that chooses the durability mode. */
+    static final String DURABILITY = "core.durability";
+
+    /** Durability mode with no journal. */
+    static final String NONE = "none";
+
+    /** Durability mode with a single fsync per command. */
+    static final String BATCHED = "batched";
+
+    /** Durability mode that syncs everything it writes. */
+    static final String STRICT = "strict";
+
+    /** Writes every file in WRITES, each to its new contents, as one
+     *  transaction. CREATED are files the command has already written
+     *  that WRITES may refer to, such as new commits and objects. In
+     *  batched mode their contents go into the journal too, so that its
+     *  one sync covers them; in strict mode each is synced first.
+     *
+     * @param writes - new contents by file.
+     * @param created - files written earlier that WRITES may name.
+     */
+    static void commit(Map<File, byte[]> writes, Collection<File> created) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        String mode = mode();
+        if (mode.equals(NONE)) {
+            apply(writes, false);
+            return;
+        }
+        boolean strict = mode.equals(STRICT);
+        List<File> carried = new ArrayList<>();
+        if (strict) {
+            sync(created);
+            syncDirectories(created);
+        } else {
+            for (File file : created) {
+                if (file.isFile()) {
+                    carried.add(file);
+                }
+            }
+        }
+        writeJournal(writes, carried);
+        if (strict) {
+            syncDirectory(Commands.GITLET_DIR);
+        }
+        apply(writes, strict);
+        JOURNAL.delete();
+    }
+
+    /** Finishes or abandons the transaction left by a command that did
+     *  not end: a complete journal is applied again and an incomplete
+     *  one dropped. */
+    static void recover() {
+        if (!JOURNAL.isFile()) {
+            return;
+        }
+        if (isComplete()) {
+            replay(mode().equals(STRICT));
+        }
+        JOURNAL.delete();
+    }
+
+    /** Returns whether MODE names a durability mode.
+     *
+     * @param mode - setting value.
+     * @return boolean.
+     */
+    static boolean isMode(String mode) {
+        return mode.equals(NONE) || mode.equals(BATCHED)
+                || mode.equals(STRICT);
+    }
+
+    /** Returns the durability mode set for this repository. A value that
+     *  names no mode, which config refuses to set, counts as BATCHED,
+     *  since the writes it would stop are already decided.
+     *
+     * @return NONE, BATCHED or STRICT.
+     */
+    private static String mode() {
+        String mode = Config.get(DURABILITY, BATCHED).trim();
+        return isMode(mode) ? mode : BATCHED;
+    }
+
+    /** Writes JOURNAL, with the new contents of each file in WRITES and
+     *  the current contents of each of CARRIED, and syncs it. Contents
+     *  are streamed into the file, so that carried objects are never all
+     *  held in memory at once.
+     *
+     * @param writes - new contents by file.
+     * @param carried - files whose contents are journaled as they are.
+     */
+    private static void writeJournal(Map<File, byte[]> writes,
+                                     List<File> carried) {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(JOURNAL.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(
+                    new CheckedOutputStream(new BufferedOutputStream(
+                            Channels.newOutputStream(channel),
+                            Blob.BUFFER_SIZE), crc));
+            out.writeInt(MAGIC);
+            out.writeInt(writes.size() + carried.size());
+            for (Map.Entry<File, byte[]> e : writes.entrySet()) {
+                out.writeUTF(name(e.getKey()));
+                out.writeInt(e.getValue().length);
+                out.write(e.getValue());
+            }
+            for (File file : carried) {
+                out.writeUTF(name(file));
+                out.writeInt((int) file.length());
+                Files.copy(file.toPath(), out);
+            }
+            out.flush();
+            ByteBuffer trailer = ByteBuffer.allocate(Long.BYTES)
+                    .putLong(crc.getValue()).flip();
+            while (trailer.hasRemaining()) {
+                channel.write(trailer);
+            }
+            channel.force(false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the path of FILE under GITLET_DIR, as JOURNAL names it.
+     *
+     * @param file - file in GITLET_DIR.
+     * @return String.
+     */
+    private static String name(File file) {
+        return Commands.GITLET_DIR.toPath().relativize(file.toPath())
+                .toString();
+    }
+
+    /** Returns whether JOURNAL is complete: long enough for its header
+     *  and trailer, and ending in the checksum of the rest.
+     *
+     * @return boolean.
+     */
+    private static boolean isComplete() {
+        long body = JOURNAL.length() - Long.BYTES;
+        if (body < 2 * Integer.BYTES) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(JOURNAL),
+                        Blob.BUFFER_SIZE))) {
+            byte[] buffer = new byte[Blob.BUFFER_SIZE];
+            for (long left = body; left > 0; ) {
+                int n = (int) Math.min(left, buffer.length);
+                in.readFully(buffer, 0, n);
+                crc.update(buffer, 0, n);
+                left -= n;
+            }
+            return in.readLong() == crc.getValue();
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Writes every file in the complete JOURNAL again, streaming each
+     *  one's contents from it, and syncs them and their directories if
+     *  SYNC.
+     *
+     * @param sync - whether to sync.
+     */
+    private static void replay(boolean sync) {
+        List<File> written = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(JOURNAL),
+                        Blob.BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            int count = in.readInt();
+            Path root = Commands.GITLET_DIR.toPath();
+            for (int i = 0; i < count; i += 1) {
+                File file = root.resolve(in.readUTF()).toFile();
+                write(file, in, in.readInt(), sync);
+                written.add(file);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (sync) {
+            syncDirectories(written);
+        }
+    }
+
+    /** Writes WRITES to their files, syncing each file and then the
+     *  directories holding them if SYNC.
+     *
+     * @param writes - new contents by file.
+     * @param sync - whether to sync.
+     */
+    private static void apply(Map<File, byte[]> writes, boolean sync) {
+        try {
+            for (Map.Entry<File, byte[]> e : writes.entrySet()) {
+                write(e.getKey(), new ByteArrayInputStream(e.getValue()),
+                        e.getValue().length, sync);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (sync) {
+            syncDirectories(writes.keySet());
+        }
+    }
+
+    /** Replaces the contents of FILE with the next LENGTH bytes of IN. If
+     *  SYNC they are written in place and synced; otherwise they go to a
+     *  temporary file that is renamed over FILE, so that without a sync
+     *  FILE is still never left half written.
+     *
+     * @param file - file to write.
+     * @param in - stream holding the new contents.
+     * @param length - number of bytes to take from IN.
+     * @param sync - whether to sync.
+     */
+    private static void write(File file, InputStream in, int length,
+                              boolean sync) throws IOException {
+        file.getParentFile().mkdirs();
+        Path target = file.toPath();
+        if (!sync) {
+            ObjectStore.TMP_DIR.mkdir();
+            target = Files.createTempFile(ObjectStore.TMP_DIR.toPath(),
+                    "journal", ".tmp");
+        }
+        try (FileChannel channel = FileChannel.open(target,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = Channels.newOutputStream(channel);
+            byte[] buffer = new byte[Math.min(length, Blob.BUFFER_SIZE)];
+            for (int left = length; left > 0; ) {
+                int n = in.read(buffer, 0, Math.min(left, buffer.length));
+                if (n < 0) {
+                    throw new EOFException(JOURNAL.toString());
+                }
+                out.write(buffer, 0, n);
+                left -= n;
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        }
+        if (!sync) {
+            Files.move(target, file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /** Syncs each of FILES that exists.
+     *
+     * @param files - files already written.
+     */
+    private static void sync(Collection<File> files) {
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.WRITE)) {
+                channel.force(false);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Syncs the directories that hold FILES.
+     *
+     * @param files - files whose directory entries to sync.
+     */
+    private static void syncDirectories(Collection<File> files) {
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (File file : files) {
+            dirs.add(file.getAbsoluteFile().getParentFile());
+        }
+        for (File dir : dirs) {
+            syncDirectory(dir);
+        }
+    }
+
+    /** Syncs the entries of DIR, where the file system allows it; some
+     *  cannot open a directory for this, and nothing is done there.
+     *
+     * @param dir - directory.
+     */
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            return;
+        }
+    }
+}
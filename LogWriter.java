@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/** Writes the entries of log and global-log to standard output as they
+ *  are produced, through a buffer, and decides which commits they show
+ *  from their options:
+ *      -n COUNT       at most COUNT commits;
+ *      --since DATE   only commits made at or after DATE;
+ *      --until DATE   only commits made at or before DATE;
+ *      --unreachable  only commits no branch reaches (global-log only).
+ *  A DATE is yyyy-mm-dd, meaning the whole day, or yyyy-mm-ddThh:mm:ss,
+ *  in local time.
+ *  @author willharvey
+ */
+class LogWriter {
+
+    /** Format of the date of each entry. */
+    static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE MMM d HH:mm:ss yyyy Z")
+            .withZone(ZoneId.systemDefault());
+
+    /** Where entries go. */
+    private final Writer _out = new BufferedWriter(
+            new OutputStreamWriter(System.out));
+
+    /** Most entries to write. */
+    private int _left = Integer.MAX_VALUE;
+
+    /** Earliest commit time shown, in milliseconds. */
+    private long _since = Long.MIN_VALUE;
+
+    /** Latest commit time shown, in milliseconds. */
+    private long _until = Long.MAX_VALUE;
+
+    /** True if only unreachable commits are shown. */
+    private boolean _unreachable;
+
+    /** Reads OPTIONS, which may include --unreachable if GLOBAL.
+     *
+     * @param options - operands after the command name.
+     * @param global - whether this is for global-log.
+     */
+    LogWriter(String[] options, boolean global) {
+        for (int i = 0; i < options.length; i += 1) {
+            String option = options[i];
+            if (option.equals("--unreachable") && global) {
+                _unreachable = true;
+                continue;
+            } else if (i + 1 == options.length) {
+                throw new GitletException("Incorrect Operands.");
+            }
+            String value = options[i += 1];
+            switch (option) {
+            case "-n":
+                try {
+                    _left = Integer.parseInt(value);
+                } catch (NumberFormatException excp) {
+                    throw new GitletException("Incorrect Operands.");
+                }
+                break;
+            case "--since":
+                _since = time(value, false);
+                break;
+            case "--until":
+                _until = time(value, true);
+                break;
+            default:
+                throw new GitletException("Incorrect Operands.");
+            }
+        }
+    }
+
+    /** Returns whether only commits no branch reaches are shown.
+     *
+     * @return boolean.
+     */
+    boolean unreachable() {
+        return _unreachable;
+    }
+
+    /** Returns whether a commit made at TIME is shown.
+     *
+     * @param time - commit time in milliseconds.
+     * @return boolean.
+     */
+    boolean accepts(long time) {
+        return time >= _since && time <= _until;
+    }
+
+    /** Returns whether as many entries as asked for have been written.
+     *
+     * @return boolean.
+     */
+    boolean full() {
+        return _left <= 0;
+    }
+
+    /** Writes the entry of the commit with sha1 ID, made at TIME with
+     *  MESSAGE.
+     *
+     * @param id - sha1 ID.
+     * @param time - commit time in milliseconds.
+     * @param message - commit message.
+     */
+    void write(String id, long time, String message) {
+        try {
+            _out.write("===\ncommit " + id + "\nDate: "
+                    + DATE_FORMAT.format(Instant.ofEpochMilli(time)) + "\n"
+                    + message + "\n\n");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _left -= 1;
+    }
+
+    /** Writes out whatever is still buffered. */
+    void flush() {
+        try {
+            _out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the time DATE stands for in milliseconds: its start, or
+     *  if END, its end.
+     *
+     * @param date - yyyy-mm-dd or yyyy-mm-ddThh:mm:ss.
+     * @param end - whether to take the end of a whole day.
+     * @return long.
+     */
+    private static long time(String date, boolean end) {
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            if (date.indexOf('T') >= 0) {
+                return LocalDateTime.parse(date).atZone(zone).toInstant()
+                        .toEpochMilli();
+            }
+            LocalDate day = LocalDate.parse(date);
+            if (end) {
+                return day.plusDays(1).atStartOfDay(zone).toInstant()
+                        .toEpochMilli() - 1;
+            }
+            return day.atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException excp) {
+            throw new GitletException("Incorrect Operands.");
+        }
+    }
+}
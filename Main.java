@@ -1,17 +1,28 @@
 package gitlet;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Will Harvey
  */
 public class Main {
 
+    /** Commands after which garbage is collected if there are too many
+     *  loose objects. */
+    private static final Set<String> AUTO_GC = Set.of("add", "commit",
+            "merge");
+
     /** Prints errors if thrown.
      *
      * @param args - list of strings.
      */
     public static void main(String... args) {
+        if (args.length > 0 && !args[0].equals("daemon")
+                && Daemon.forward(args)) {
+            return;
+        }
         try {
             Main.operate(args);
             return;
@@ -28,12 +39,46 @@ public class Main {
         if (args.length == 0) {
             throw new GitletException("Please enter a command.");
         }
+        if (Commands.GITLET_DIR.isDirectory()) {
+            Journal.recover();
+            CommitStore.migrate();
+            Stage.migrate();
+        }
+        try {
+            dispatch(args);
+        } finally {
+            flush();
+        }
+        if (AUTO_GC.contains(args[0])) {
+            try {
+                GarbageCollector.auto();
+            } finally {
+                flush();
+            }
+        }
+    }
+
+    /** Writes out what the command changed and forgets what it read. */
+    private static void flush() {
+        Stage.flush();
+        Repository.flush();
+        Index.flush();
+        CommitGraph.flush();
+        Reachability.flush();
+        MessageIndex.flush();
+    }
+
+    /** Runs the command named by ARGS[0] with operands ARGS[1..]. */
+    private static void dispatch(String... args) throws IOException {
         switch (args[0]) {
         case "init":
             Commands.init();
             break;
         case "add":
-            Commands.add(args[1]);
+            if (args.length < 2) {
+                throw new GitletException("Incorrect Operands.");
+            }
+            Commands.add(Arrays.copyOfRange(args, 1, args.length));
             break;
         case "commit":
             if (args.length == 1 || args[1].equals("")) {
@@ -52,11 +97,24 @@ public class Main {
                 throw new GitletException("Incorrect Operands.");
             }
             break;
-        case "log": Commands.log();
+        case "log": Commands.log(Arrays.copyOfRange(args, 1, args.length));
+            break;
+        case "diff": Commands.diff(Arrays.copyOfRange(args, 1, args.length));
             break;
-        case "global-log": Commands.globalLog();
+        case "global-log":
+            Commands.globalLog(Arrays.copyOfRange(args, 1, args.length));
+            break;
+        case "find":
+            if (args.length == 2) {
+                Commands.find(args[1]);
+            } else if (args.length == 3 && (args[1].equals("--word")
+                    || args[1].equals("--grep"))) {
+                Commands.find(args[1], args[2]);
+            } else {
+                throw new GitletException("Incorrect Operands.");
+            }
             break;
-        case "find": Commands.find(args[1]);
+        case "reindex": Commands.reindex();
             break;
         case "status": Commands.status();
             break;
@@ -70,6 +128,37 @@ public class Main {
             break;
         case "merge": Commands.merge(args[1]);
             break;
+        case "repack": Commands.repack();
+            break;
+        case "gc":
+            if (args.length == 1) {
+                Commands.gc();
+            } else if (args.length == 2 && args[1].equals("--auto")) {
+                GarbageCollector.auto();
+            } else {
+                throw new GitletException("Incorrect Operands.");
+            }
+            break;
+        case "daemon":
+            if (args.length == 1) {
+                Daemon.serve();
+            } else if (args.length == 2 && args[1].equals("stop")) {
+                if (!Daemon.forward(args)) {
+                    throw new GitletException("No daemon is running.");
+                }
+            } else {
+                throw new GitletException("Incorrect Operands.");
+            }
+            break;
+        case "config":
+            if (args.length == 2) {
+                Commands.config(args[1], null);
+            } else if (args.length == 3) {
+                Commands.config(args[1], args[2]);
+            } else {
+                throw new GitletException("Incorrect Operands.");
+            }
+            break;
         default: throw new GitletException(
                 "No command with that name exists.");
         } return;
@@ -0,0 +1,489 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/** The messages of all commits, searchable without reading a commit.
+ *  MESSAGES is a log with an entry per commit: its binary ID, then the
+ *  length and UTF-8 bytes of its message. It is appended to as commits
+ *  are made and memory-mapped for searches. TOKENS is an inverted index
+ *  over the log up to some length: every token, a lower-cased run of
+ *  letters and digits, in sorted order, with the offsets of the entries
+ *  whose message contains it. A search by message or by tokens reads
+ *  only the entries listed for its rarest token, plus the entries
+ *  appended since TOKENS was written, which is rewritten once they pass
+ *  MAX_UNINDEXED bytes. A search by substring reads the whole log.
+ *
+ *  The log is only appended to while it exists; a repository without
+ *  one, such as one made by an older Gitlet, gets it built from COMMITS
+ *  by its first search, as reindex does.
+ *  @author willharvey
+ */
+class MessageIndex {
+
+    /** File that holds the log of messages. */
+    static final File MESSAGES = Utils.join(Commands.GITLET_DIR,
+            "messages");
+
+    /** File that holds the inverted index. */
+    static final File TOKENS = Utils.join(Commands.GITLET_DIR,
+            "messages.idx");
+
+    /** Leading bytes of TOKENS. */
+    static final int TOKENS_MAGIC = 0x474d4931;
+
+    /** Size of the header of TOKENS: magic, log length and token count. */
+    static final int TOKENS_HEADER = 16;
+
+    /** Size of a token's entry in TOKENS: where its text is, where its
+     *  offsets are, and how many there are. */
+    static final int TOKEN_ENTRY = 12;
+
+    /** Most bytes of log left out of TOKENS before it is written again. */
+    static final int MAX_UNINDEXED = 1 << 18;
+
+    /** What separates the tokens of a message. */
+    private static final Pattern SEPARATOR = Pattern.compile(
+            "[^\\p{L}\\p{N}]+");
+
+    /** Index of the current command, or null before it is loaded. */
+    private static MessageIndex _current;
+
+    /** The mapped log. */
+    private final ByteBuffer _log;
+
+    /** True if MESSAGES existed when this index was loaded. */
+    private final boolean _exists;
+
+    /** Entries added by the current command, not yet written. */
+    private final ByteArrayOutputStream _added = new ByteArrayOutputStream();
+
+    /** The mapped inverted index, or null. */
+    private ByteBuffer _tokens;
+
+    /** Number of tokens in _tokens. */
+    private int _tokenCount;
+
+    /** Length of the log _tokens covers. */
+    private int _covered;
+
+    /** Maps MESSAGES and TOKENS, as far as they exist. A torn entry at
+     *  the end of the log, left by a command that died while appending,
+     *  is left out, and cut off by the next append. */
+    private MessageIndex() {
+        _exists = MESSAGES.isFile();
+        ByteBuffer log = _exists ? map(MESSAGES) : ByteBuffer.allocate(0);
+        ByteBuffer tokens = TOKENS.isFile() ? map(TOKENS) : null;
+        if (tokens != null && tokens.limit() >= TOKENS_HEADER
+                && tokens.getInt(0) == TOKENS_MAGIC
+                && tokens.getLong(4) <= log.limit()) {
+            _tokens = tokens;
+            _covered = (int) tokens.getLong(4);
+            _tokenCount = tokens.getInt(12);
+        }
+        _log = log.limit(complete(log, _covered));
+    }
+
+    /** Returns the index, mapping it on first use.
+     *
+     * @return MessageIndex.
+     */
+    static synchronized MessageIndex get() {
+        if (_current == null) {
+            _current = new MessageIndex();
+        }
+        return _current;
+    }
+
+    /** Returns the index, building it from COMMITS first if there is no
+     *  log yet.
+     *
+     * @return MessageIndex.
+     */
+    static synchronized MessageIndex open() {
+        if (!get()._exists) {
+            rebuild();
+        }
+        return get();
+    }
+
+    /** Appends the entries added by the current command to MESSAGES,
+     *  writes TOKENS again if too much of the log is missing from it, and
+     *  forgets the index. */
+    static synchronized void flush() {
+        MessageIndex index = _current;
+        _current = null;
+        if (index == null || !index._exists
+                || !Commands.GITLET_DIR.isDirectory()) {
+            return;
+        }
+        try {
+            if (index._added.size() > 0) {
+                try (FileChannel out = FileChannel.open(MESSAGES.toPath(),
+                        StandardOpenOption.WRITE)) {
+                    out.truncate(index._log.limit());
+                    out.position(out.size());
+                    ByteBuffer added = ByteBuffer.wrap(
+                            index._added.toByteArray());
+                    while (added.hasRemaining()) {
+                        out.write(added);
+                    }
+                }
+            }
+            if (index._log.limit() + index._added.size() - index._covered
+                    > MAX_UNINDEXED) {
+                writeTokens(index.log());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forgets the index mapped so far, dropping anything not yet
+     *  written. */
+    static synchronized void reload() {
+        _current = null;
+    }
+
+    /** Writes MESSAGES and TOKENS afresh from every commit in COMMITS. */
+    static synchronized void rebuild() {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        for (String id : CommitStore.ids()) {
+            encode(log, id, CommitStore.read(id).getMessage());
+        }
+        try {
+            replace(MESSAGES, ByteBuffer.wrap(log.toByteArray()));
+            writeTokens(ByteBuffer.wrap(log.toByteArray()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _current = null;
+    }
+
+    /** Adds the message of COMMIT, which has just been stored for the
+     *  first time, if there is a log to add it to.
+     *
+     * @param commit - new commit.
+     */
+    void add(Commit commit) {
+        if (_exists) {
+            encode(_added, commit.getId(), commit.getMessage());
+        }
+    }
+
+    /** Returns the IDs of the commits whose message is MESSAGE, in sorted
+     *  order.
+     *
+     * @param message - whole message.
+     * @return List.
+     */
+    List<String> exact(String message) {
+        return search(tokenize(message), m -> m.equals(message));
+    }
+
+    /** Returns the IDs of the commits whose message contains every token
+     *  of WORDS, in sorted order.
+     *
+     * @param words - words to look for.
+     * @return List.
+     */
+    List<String> words(String words) {
+        List<String> tokens = tokenize(words);
+        if (tokens.isEmpty()) {
+            return tokens;
+        }
+        return search(tokens, m -> tokenize(m).containsAll(tokens));
+    }
+
+    /** Returns the IDs of the commits whose message contains TEXT, in
+     *  sorted order.
+     *
+     * @param text - text to look for.
+     * @return List.
+     */
+    List<String> substring(String text) {
+        return search(new ArrayList<>(), m -> m.contains(text));
+    }
+
+    /** Returns the IDs of the commits whose message MATCHES, looking only
+     *  at the entries that contain the rarest of TOKENS, if any, and at
+     *  those TOKENS does not cover.
+     *
+     * @param tokens - tokens every match contains.
+     * @param matches - test on a message.
+     * @return List.
+     */
+    private List<String> search(List<String> tokens,
+                                Predicate<String> matches) {
+        ByteBuffer log = log();
+        TreeSet<String> ids = new TreeSet<>();
+        int from = 0;
+        if (_tokens != null && !tokens.isEmpty()) {
+            int rarest = -1;
+            for (String token : tokens) {
+                int i = findToken(token);
+                if (i < 0) {
+                    rarest = -1;
+                    break;
+                } else if (rarest < 0 || postingCount(i)
+                        < postingCount(rarest)) {
+                    rarest = i;
+                }
+            }
+            if (rarest >= 0) {
+                int start = _tokens.getInt(entry(rarest) + 4);
+                for (int k = 0; k < postingCount(rarest); k += 1) {
+                    check(log, _tokens.getInt(start + k * 4), matches, ids);
+                }
+            }
+            from = _covered;
+        }
+        for (int offset = from; offset < log.limit();
+             offset = next(log, offset)) {
+            check(log, offset, matches, ids);
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** Adds the ID of the entry at OFFSET in LOG to IDS if its message
+     *  MATCHES.
+     *
+     * @param log - log.
+     * @param offset - offset of an entry.
+     * @param matches - test on a message.
+     * @param ids - IDs found.
+     */
+    private static void check(ByteBuffer log, int offset,
+                              Predicate<String> matches, Set<String> ids) {
+        int length = log.getInt(offset + Pack.ID_BYTES);
+        byte[] message = new byte[length];
+        log.get(offset + Pack.ID_BYTES + Integer.BYTES, message);
+        if (matches.test(new String(message, StandardCharsets.UTF_8))) {
+            byte[] id = new byte[Pack.ID_BYTES];
+            log.get(offset, id);
+            ids.add(Utils.toHex(id));
+        }
+    }
+
+    /** Returns the offset of the entry after the one at OFFSET in LOG.
+     *
+     * @param log - log.
+     * @param offset - offset of an entry.
+     * @return int.
+     */
+    private static int next(ByteBuffer log, int offset) {
+        return offset + Pack.ID_BYTES + Integer.BYTES
+                + log.getInt(offset + Pack.ID_BYTES);
+    }
+
+    /** Returns the length of LOG up to the end of its last whole entry,
+     *  reading the entries from FROM, which starts one.
+     *
+     * @param log - log.
+     * @param from - offset of an entry, or the end of the log.
+     * @return int.
+     */
+    private static int complete(ByteBuffer log, int from) {
+        int end = from;
+        while (log.limit() - end >= Pack.ID_BYTES + Integer.BYTES) {
+            int length = log.getInt(end + Pack.ID_BYTES);
+            if (length < 0
+                    || length > log.limit() - end - Pack.ID_BYTES
+                    - Integer.BYTES) {
+                break;
+            }
+            end = next(log, end);
+        }
+        return end;
+    }
+
+    /** Returns the whole log, including entries not yet written.
+     *
+     * @return ByteBuffer.
+     */
+    private ByteBuffer log() {
+        if (_added.size() == 0) {
+            return _log;
+        }
+        ByteBuffer log = ByteBuffer.allocate(_log.limit() + _added.size());
+        log.put(_log.duplicate().rewind()).put(_added.toByteArray());
+        return log.flip();
+    }
+
+    /** Returns the tokens of TEXT: its runs of letters and digits, lower
+     *  cased, without repeats, in order of first appearance.
+     *
+     * @param text - text.
+     * @return List.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String token : SEPARATOR.split(
+                text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty() && seen.add(token)) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /** Returns the index in _tokens of TOKEN, or -1.
+     *
+     * @param token - token.
+     * @return int.
+     */
+    private int findToken(String token) {
+        int lo = 0;
+        int hi = _tokenCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = token(mid).compareTo(token);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the text of token I of _tokens.
+     *
+     * @param i - token index.
+     * @return String.
+     */
+    private String token(int i) {
+        int at = _tokens.getInt(entry(i));
+        byte[] bytes = new byte[_tokens.getInt(at)];
+        _tokens.get(at + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the number of entries containing token I of _tokens.
+     *
+     * @param i - token index.
+     * @return int.
+     */
+    private int postingCount(int i) {
+        return _tokens.getInt(entry(i) + 8);
+    }
+
+    /** Returns where the entry of token I starts in _tokens.
+     *
+     * @param i - token index.
+     * @return int.
+     */
+    private static int entry(int i) {
+        return TOKENS_HEADER + i * TOKEN_ENTRY;
+    }
+
+    /** Writes TOKENS for the whole of LOG.
+     *
+     * @param log - log.
+     */
+    private static void writeTokens(ByteBuffer log) throws IOException {
+        TreeMap<String, List<Integer>> postings = new TreeMap<>();
+        for (int offset = 0; offset < log.limit();
+             offset = next(log, offset)) {
+            byte[] message = new byte[log.getInt(offset + Pack.ID_BYTES)];
+            log.get(offset + Pack.ID_BYTES + Integer.BYTES, message);
+            for (String token : tokenize(new String(message,
+                    StandardCharsets.UTF_8))) {
+                postings.computeIfAbsent(token, t -> new ArrayList<>())
+                        .add(offset);
+            }
+        }
+        ByteArrayOutputStream texts = new ByteArrayOutputStream();
+        int postingStart = TOKENS_HEADER + postings.size() * TOKEN_ENTRY;
+        int total = 0;
+        for (List<Integer> offsets : postings.values()) {
+            total += offsets.size();
+        }
+        int textStart = postingStart + total * Integer.BYTES;
+        ByteBuffer header = ByteBuffer.allocate(postingStart);
+        ByteBuffer lists = ByteBuffer.allocate(total * Integer.BYTES);
+        header.putInt(TOKENS_MAGIC).putLong(log.limit())
+                .putInt(postings.size());
+        for (String token : postings.keySet()) {
+            byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+            header.putInt(textStart + texts.size())
+                    .putInt(postingStart + lists.position())
+                    .putInt(postings.get(token).size());
+            texts.writeBytes(ByteBuffer.allocate(Integer.BYTES)
+                    .putInt(bytes.length).array());
+            texts.writeBytes(bytes);
+            for (int offset : postings.get(token)) {
+                lists.putInt(offset);
+            }
+        }
+        ByteBuffer all = ByteBuffer.allocate(textStart + texts.size());
+        all.put(header.flip()).put(lists.flip()).put(texts.toByteArray());
+        replace(TOKENS, all.flip());
+    }
+
+    /** Appends an entry for the commit with sha1 ID and MESSAGE to OUT.
+     *
+     * @param out - log being written.
+     * @param id - sha1 ID.
+     * @param message - commit message.
+     */
+    private static void encode(ByteArrayOutputStream out, String id,
+                               String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        out.writeBytes(Pack.toBinary(id));
+        out.writeBytes(ByteBuffer.allocate(Integer.BYTES)
+                .putInt(bytes.length).array());
+        out.writeBytes(bytes);
+    }
+
+    /** Replaces FILE with CONTENTS, all at once.
+     *
+     * @param file - file.
+     * @param contents - new contents.
+     */
+    private static void replace(File file, ByteBuffer contents)
+            throws IOException {
+        Path temp = Files.createTempFile(Commands.GITLET_DIR.toPath(),
+                file.getName(), ".tmp");
+        try (FileChannel out = FileChannel.open(temp,
+                StandardOpenOption.WRITE)) {
+            while (contents.hasRemaining()) {
+                out.write(contents);
+            }
+        }
+        Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Returns FILE mapped read-only.
+     *
+     * @param file - file.
+     * @return ByteBuffer.
+     */
+    private static ByteBuffer map(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
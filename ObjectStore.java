@@ -0,0 +1,416 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** The object store: loose objects in BLOBS_DIR, and the Packs that
+ *  repack consolidates them into. An object is a header
+ *  "<type> <length>\0" followed by its contents, and is named by the
+ *  sha1 of those bytes. On disk it is either zlib-compressed at the
+ *  level set by core.compression or, for contents that would not
+ *  shrink, stored as is. Readers tell the two apart by the first byte,
+ *  which is 0x78 for a zlib stream and never is for a header.
+ *  @author willharvey
+ */
+class ObjectStore {
+
+    /** Configuration key for the compression level of new objects. */
+    static final String COMPRESSION = "core.compression";
+
+    /** Default compression level, favouring speed like git's loose
+     *  objects do. */
+    static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+
+    /** Objects that deflate to more than this fraction of their sampled
+     *  size are stored uncompressed. */
+    static final double MIN_SAVING = 0.95;
+
+    /** First byte of a zlib stream with the default window. */
+    private static final int ZLIB_MAGIC = 0x78;
+
+    /** Leading bytes of formats that are already compressed. */
+    private static final int[][] COMPRESSED_MAGIC = {
+        {0x1f, 0x8b}, {'P', 'K', 3, 4}, {0x89, 'P', 'N', 'G'},
+        {0xff, 0xd8, 0xff}, {'G', 'I', 'F', '8'}, {'B', 'Z', 'h'},
+        {0xfd, '7', 'z', 'X', 'Z', 0}, {0x28, 0xb5, 0x2f, 0xfd},
+        {'7', 'z', 0xbc, 0xaf, 0x27, 0x1c}, {'O', 'g', 'g', 'S'},
+    };
+
+    /** Directory objects are written to before being renamed into
+     *  BLOBS_DIR, so that one left by a command that died is never
+     *  taken for an object. */
+    static final File TMP_DIR = Utils.join(Commands.GITLET_DIR, "tmp");
+
+    /** Returns the file the loose object with sha1 ID is kept in.
+     *
+     * @param id - sha1 ID.
+     * @return File.
+     */
+    static File file(String id) {
+        return Utils.join(Commands.BLOBS_DIR, id);
+    }
+
+    /** Returns whether an object with sha1 ID is stored, packed or
+     *  loose.
+     *
+     * @param id - sha1 ID.
+     * @return boolean.
+     */
+    static boolean contains(String id) {
+        return CommitStore.isId(id)
+                && (Pack.containing(id) != null || file(id).isFile());
+    }
+
+    /** Returns the IDs of all loose objects, in sorted order.
+     *
+     * @return List.
+     */
+    static List<String> looseIds() {
+        List<String> ids = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(Commands.BLOBS_DIR);
+        if (names != null) {
+            for (String name : names) {
+                if (CommitStore.isId(name)) {
+                    ids.add(name);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Stores an object of TYPE whose LENGTH bytes of contents are read
+     *  from IN, and returns its ID. An object that is already stored is
+     *  not rewritten.
+     *
+     * @param type - object type, such as "blob".
+     * @param length - number of bytes IN will supply.
+     * @param in - contents.
+     * @return String sha1 ID.
+     */
+    static String write(String type, long length, ReadableByteChannel in)
+            throws IOException {
+        TMP_DIR.mkdir();
+        Path temp = Files.createTempFile(TMP_DIR.toPath(), "obj", ".tmp");
+        try {
+            String id;
+            try (OutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(temp), Blob.BUFFER_SIZE)) {
+                id = pump(type, length, in, out);
+            }
+            Path dest = file(id).toPath();
+            if (Files.exists(dest) || Pack.containing(id) != null) {
+                Files.delete(temp);
+            } else {
+                Files.move(temp, dest, StandardCopyOption.ATOMIC_MOVE);
+                Repository.get().created(dest.toFile());
+            }
+            return id;
+        } catch (IOException | RuntimeException excp) {
+            temp.toFile().delete();
+            throw excp;
+        }
+    }
+
+    /** Stores an object of TYPE with CONTENTS, and returns its ID.
+     *
+     * @param type - object type.
+     * @param contents - bytes.
+     * @return String sha1 ID.
+     */
+    static String write(String type, byte[] contents) throws IOException {
+        return write(type, contents.length,
+                Channels.newChannel(new ByteArrayInputStream(contents)));
+    }
+
+    /** Returns the ID an object of TYPE with LENGTH bytes of contents
+     *  read from IN would have, without storing it.
+     *
+     * @param type - object type.
+     * @param length - number of bytes IN will supply.
+     * @param in - contents.
+     * @return String sha1 ID.
+     */
+    static String hash(String type, long length, ReadableByteChannel in)
+            throws IOException {
+        return pump(type, length, in, null);
+    }
+
+    /** Returns a stream over the decoded bytes of the object with sha1
+     *  ID, starting at its header. Packs are searched first; loose
+     *  objects are the fallback.
+     *
+     * @param id - sha1 ID.
+     * @return InputStream.
+     */
+    static InputStream open(String id) throws IOException {
+        Pack pack = Pack.containing(id);
+        if (pack != null) {
+            return pack.open(id);
+        }
+        return decode(Files.newInputStream(file(id).toPath()));
+    }
+
+    /** Brings the stored bytes of the object with sha1 ID into memory,
+     *  so that a later read of it does not wait for the disk. An object
+     *  that cannot be found is left for that read to report.
+     *
+     * @param id - sha1 ID.
+     */
+    static void prefetch(String id) {
+        Pack pack = Pack.containing(id);
+        if (pack != null) {
+            pack.prefetch(id);
+            return;
+        }
+        try (FileChannel in = FileChannel.open(file(id).toPath())) {
+            if (in.size() > 0) {
+                in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()).load();
+            }
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Returns a stream over the decoded bytes of the stored object
+     *  read from RAW.
+     *
+     * @param raw - the object as stored.
+     * @return InputStream.
+     */
+    static InputStream decode(InputStream raw) throws IOException {
+        InputStream in = new BufferedInputStream(raw, Blob.BUFFER_SIZE);
+        in.mark(1);
+        int first = in.read();
+        in.reset();
+        if (first == ZLIB_MAGIC) {
+            return new BufferedInputStream(new InflaterInputStream(in,
+                    new Inflater(), Blob.BUFFER_SIZE), Blob.BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    /** Returns the whole decoded object with sha1 ID, header first.
+     *
+     * @param id - sha1 ID.
+     * @return byte array.
+     */
+    static byte[] readAll(String id) throws IOException {
+        byte[] cached = Delta.cached(id);
+        if (cached != null) {
+            return cached;
+        }
+        try (InputStream in = open(id)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /** Returns the whole decoded object with sha1 ID for use as a delta
+     *  base, keeping it in the delta-base cache for the next delta built
+     *  on it.
+     *
+     * @param id - sha1 ID.
+     * @return byte array.
+     */
+    static byte[] readBase(String id) throws IOException {
+        byte[] bytes = readAll(id);
+        Delta.cache(id, bytes);
+        return bytes;
+    }
+
+    /** Writes the decoded OBJECT to OUT as it would be stored loose.
+     *
+     * @param object - decoded object, header first.
+     * @param out - destination.
+     */
+    static void encode(byte[] object, OutputStream out) throws IOException {
+        int level = Config.getInt(COMPRESSION, DEFAULT_LEVEL);
+        ByteBuffer sample = ByteBuffer.wrap(object);
+        sample.position(Math.min(object.length, Blob.BUFFER_SIZE));
+        if (!worthCompressing(sample, level)) {
+            out.write(object);
+            return;
+        }
+        Deflater deflater = new Deflater(level);
+        try {
+            DeflaterOutputStream zip = new DeflaterOutputStream(out,
+                    deflater);
+            zip.write(object);
+            zip.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Reads the header off IN and returns it without its terminator.
+     *
+     * @param in - stream positioned at a header.
+     * @return String such as "blob 12".
+     */
+    static String readHeader(InputStream in) throws IOException {
+        StringBuilder header = new StringBuilder();
+        int c = in.read();
+        while (c > 0) {
+            header.append((char) c);
+            c = in.read();
+        }
+        if (c < 0) {
+            throw new IOException("corrupt object");
+        }
+        return header.toString();
+    }
+
+    /** Returns the header of an object of TYPE with LENGTH bytes.
+     *
+     * @param type - object type.
+     * @param length - number of content bytes.
+     * @return byte array.
+     */
+    static byte[] header(String type, long length) {
+        return (type + " " + length + "\0")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Streams the object of TYPE read from IN into OUT, compressing it
+     *  unless it would not shrink, and returns the hex sha1 of its
+     *  uncompressed bytes. OUT may be null to only hash.
+     *
+     * @param type - object type.
+     * @param length - number of bytes IN will supply.
+     * @param in - contents.
+     * @param out - destination, or null.
+     * @return String.
+     */
+    private static String pump(String type, long length,
+                               ReadableByteChannel in, OutputStream out)
+            throws IOException {
+        MessageDigest md = Utils.sha1Digest();
+        byte[] header = header(type, length);
+        md.update(header);
+        ByteBuffer buffer = ByteBuffer.allocate(Blob.BUFFER_SIZE);
+        fill(in, buffer);
+        Deflater deflater = null;
+        long total = 0;
+        try {
+            if (out != null) {
+                int level = Config.getInt(COMPRESSION, DEFAULT_LEVEL);
+                if (level < Deflater.DEFAULT_COMPRESSION
+                        || level > Deflater.BEST_COMPRESSION) {
+                    throw Utils.error("%s must be between -1 and 9.",
+                            COMPRESSION);
+                }
+                if (worthCompressing(buffer, level)) {
+                    deflater = new Deflater(level);
+                    out = new DeflaterOutputStream(out, deflater,
+                            Blob.BUFFER_SIZE);
+                }
+                out.write(header);
+            }
+            while (buffer.position() > 0) {
+                buffer.flip();
+                total += buffer.remaining();
+                md.update(buffer.array(), 0, buffer.limit());
+                if (out != null) {
+                    out.write(buffer.array(), 0, buffer.limit());
+                }
+                buffer.clear();
+                fill(in, buffer);
+            }
+            if (out instanceof DeflaterOutputStream) {
+                ((DeflaterOutputStream) out).finish();
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        if (total != length) {
+            throw new IOException("file changed while it was being read");
+        }
+        return Utils.toHex(md.digest());
+    }
+
+    /** Reads from IN until BUFFER is full or IN is exhausted.
+     *
+     * @param in - channel.
+     * @param buffer - buffer.
+     */
+    private static void fill(ReadableByteChannel in, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+            continue;
+        }
+    }
+
+    /** Returns whether an object whose first bytes are in SAMPLE is
+     *  worth compressing at LEVEL. Known compressed formats are not, and
+     *  neither is anything whose sample barely shrinks.
+     *
+     * @param sample - buffer holding the first bytes, not yet flipped.
+     * @param level - compression level.
+     * @return boolean.
+     */
+    static boolean worthCompressing(ByteBuffer sample, int level) {
+        if (level == Deflater.NO_COMPRESSION) {
+            return false;
+        }
+        byte[] bytes = sample.array();
+        int size = sample.position();
+        for (int[] magic : COMPRESSED_MAGIC) {
+            if (startsWith(bytes, size, magic)) {
+                return false;
+            }
+        }
+        Deflater trial = new Deflater(Deflater.BEST_SPEED);
+        long compressed = 0;
+        try {
+            trial.setInput(bytes, 0, size);
+            trial.finish();
+            byte[] scratch = new byte[Blob.BUFFER_SIZE];
+            while (!trial.finished()) {
+                compressed += trial.deflate(scratch);
+            }
+        } finally {
+            trial.end();
+        }
+        return compressed < size * MIN_SAVING;
+    }
+
+    /** Returns whether the first SIZE BYTES start with MAGIC.
+     *
+     * @param bytes - bytes.
+     * @param size - number of valid bytes.
+     * @param magic - expected leading bytes.
+     * @return boolean.
+     */
+    private static boolean startsWith(byte[] bytes, int size, int[] magic) {
+        if (size < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i += 1) {
+            if ((bytes[i] & 0xff) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,406 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+/** A pack of objects in PACK_DIR. The pack file holds the objects one
+ *  after the other, each as a kind byte followed either by the object
+ *  exactly as it would be stored loose (WHOLE), or by the binary ID of
+ *  a base object and a zlib-compressed Delta from it (DELTA). Its index
+ *  holds the sorted IDs with their fanout table (see IdTable), then the
+ *  offset and length of every entry. Both files are memory-mapped, so a
+ *  lookup is a binary search over the mapped index and a read is a
+ *  slice of the mapped pack.
+ *  @author willharvey
+ */
+class Pack {
+
+    /** Directory of pack files. */
+    static final File PACK_DIR = Utils.join(Commands.GITLET_DIR, "packs");
+
+    /** Entry kind of an object stored whole. */
+    static final byte WHOLE = 0;
+
+    /** Entry kind of an object stored as a delta. */
+    static final byte DELTA = 1;
+
+    /** Leading bytes of a pack file. */
+    static final int PACK_MAGIC = 0x47504b31;
+
+    /** Leading bytes of an index file. */
+    static final int INDEX_MAGIC = 0x47494431;
+
+    /** Number of bytes in a binary sha1 ID. */
+    static final int ID_BYTES = 20;
+
+    /** Size of the pack header: magic and object count. */
+    static final int PACK_HEADER = 8;
+
+    /** Offset of the fanout table in an index: after magic and count. */
+    static final int FANOUT_START = 8;
+
+    /** Largest pack written, so that it can be mapped in one piece. */
+    static final long MAX_PACK_SIZE = 1L << 30;
+
+    /** Packs opened so far, or null before the first lookup. */
+    private static List<Pack> _packs;
+
+    /** The mapped pack file. */
+    private final MappedByteBuffer _data;
+
+    /** The mapped index file. */
+    private final MappedByteBuffer _index;
+
+    /** The sorted IDs in _index. */
+    private final IdTable _ids;
+
+    /** Number of objects in this pack. */
+    private final int _count;
+
+    /** Name of this pack, without extension. */
+    private final String _name;
+
+    /** Maps the pack called NAME.
+     *
+     * @param name - file name without extension.
+     */
+    private Pack(String name) throws IOException {
+        _name = name;
+        _index = map(Utils.join(PACK_DIR, name + ".idx"));
+        _data = map(Utils.join(PACK_DIR, name + ".pack"));
+        if (_index.getInt(0) != INDEX_MAGIC
+                || _data.getInt(0) != PACK_MAGIC) {
+            throw new IOException("corrupt pack " + name);
+        }
+        _count = _index.getInt(4);
+        _ids = new IdTable(_index, FANOUT_START, _count);
+    }
+
+    /** Returns every pack in PACK_DIR, mapping them on first use. Packs
+     *  are only listed once their index exists, and the index is always
+     *  written last.
+     *
+     * @return List.
+     */
+    static synchronized List<Pack> all() {
+        if (_packs == null) {
+            List<Pack> packs = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(PACK_DIR);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        try {
+                            packs.add(new Pack(name.substring(0,
+                                    name.length() - ".idx".length())));
+                        } catch (IOException excp) {
+                            throw new IllegalArgumentException(
+                                    excp.getMessage());
+                        }
+                    }
+                }
+            }
+            _packs = packs;
+        }
+        return _packs;
+    }
+
+    /** Forgets the packs mapped so far, so that the next lookup lists
+     *  PACK_DIR again. */
+    static synchronized void reload() {
+        _packs = null;
+    }
+
+    /** Returns the pack holding the object with sha1 ID, or null.
+     *
+     * @param id - sha1 ID.
+     * @return Pack.
+     */
+    static Pack containing(String id) {
+        byte[] binary = toBinary(id);
+        for (Pack pack : all()) {
+            if (pack.find(binary) >= 0) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the name of this pack.
+     *
+     * @return String.
+     */
+    String name() {
+        return _name;
+    }
+
+    /** Returns the number of objects in this pack.
+     *
+     * @return int.
+     */
+    int size() {
+        return _count;
+    }
+
+    /** Returns the hex ID of the object at POS in the sorted index.
+     *
+     * @param pos - index position.
+     * @return String.
+     */
+    String id(int pos) {
+        return _ids.id(pos);
+    }
+
+    /** Returns the index position of the object with binary ID, or -1.
+     *
+     * @param id - binary sha1 ID.
+     * @return int.
+     */
+    int find(byte[] id) {
+        return _ids.find(id);
+    }
+
+    /** Returns a stream over the decoded bytes of the object with sha1
+     *  ID, which must be in this pack, starting at its header. A delta
+     *  is applied to its base, which comes from the delta-base cache if
+     *  it was used recently.
+     *
+     * @param id - sha1 ID.
+     * @return InputStream.
+     */
+    InputStream open(String id) throws IOException {
+        int pos = find(toBinary(id));
+        if (pos < 0) {
+            throw new IOException("object " + id + " is not in " + _name);
+        }
+        ByteBuffer entry = entry(pos);
+        byte kind = entry.get();
+        if (kind == WHOLE) {
+            return ObjectStore.decode(new BufferInputStream(entry.slice()));
+        } else if (kind != DELTA) {
+            throw new IOException("corrupt pack " + _name);
+        }
+        byte[] base = new byte[ID_BYTES];
+        entry.get(base);
+        byte[] delta;
+        try (InputStream in = new InflaterInputStream(
+                new BufferInputStream(entry.slice()))) {
+            delta = in.readAllBytes();
+        }
+        byte[] bytes = Delta.apply(ObjectStore.readBase(Utils.toHex(base)),
+                delta);
+        return new ByteArrayInputStream(bytes);
+    }
+
+    /** Brings the entry of the object with sha1 ID, which must be in
+     *  this pack, into memory, and that of its delta base if it has one.
+     *
+     * @param id - sha1 ID.
+     */
+    void prefetch(String id) {
+        int pos = find(toBinary(id));
+        if (pos < 0) {
+            return;
+        }
+        MappedByteBuffer entry = entry(pos);
+        entry.load();
+        if (entry.get(0) == DELTA) {
+            byte[] base = new byte[ID_BYTES];
+            entry.get(1, base);
+            String baseId = Utils.toHex(base);
+            if (Delta.cached(baseId) == null) {
+                ObjectStore.prefetch(baseId);
+            }
+        }
+    }
+
+    /** Returns the stored bytes of the object with sha1 ID, or null if
+     *  it is not in this pack or is stored as a delta.
+     *
+     * @param id - sha1 ID.
+     * @return ByteBuffer of the object as it would be stored loose.
+     */
+    ByteBuffer stored(String id) {
+        int pos = find(toBinary(id));
+        if (pos < 0) {
+            return null;
+        }
+        ByteBuffer entry = entry(pos);
+        if (entry.get() != WHOLE) {
+            return null;
+        }
+        return entry.slice();
+    }
+
+    /** Returns the entry at index position POS, kind byte first.
+     *
+     * @param pos - index position.
+     * @return MappedByteBuffer.
+     */
+    MappedByteBuffer entry(int pos) {
+        int offsets = FANOUT_START + IdTable.size(_count);
+        long offset = _index.getLong(offsets + pos * Long.BYTES);
+        long length = _index.getLong(offsets + (_count + pos) * Long.BYTES);
+        return _data.slice((int) offset, (int) length);
+    }
+
+    /** Writes a pack of the objects with sorted sha1 IDS, whose entries
+     *  SOURCE supplies, and returns its name.
+     *
+     * @param ids - sorted hex IDs.
+     * @param source - supplies the stored bytes of each object.
+     * @return String.
+     */
+    static String write(List<String> ids, Source source) throws IOException {
+        PACK_DIR.mkdir();
+        long[] offsets = new long[ids.size()];
+        long[] lengths = new long[ids.size()];
+        MessageDigest md = Utils.sha1Digest();
+        Path packTemp = Files.createTempFile(PACK_DIR.toPath(), "pack",
+                ".tmp");
+        try (FileChannel out = FileChannel.open(packTemp,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(PACK_HEADER);
+            header.putInt(PACK_MAGIC).putInt(ids.size()).flip();
+            out.write(header);
+            for (int i = 0; i < ids.size(); i += 1) {
+                md.update(toBinary(ids.get(i)));
+                offsets[i] = out.position();
+                source.copy(ids.get(i), out);
+                lengths[i] = out.position() - offsets[i];
+            }
+            out.force(true);
+        }
+        String name = "pack-" + Utils.toHex(md.digest());
+        Files.move(packTemp, Utils.join(PACK_DIR, name + ".pack").toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        writeIndex(name, ids, offsets, lengths);
+        return name;
+    }
+
+    /** Writes the index of the pack NAME holding the objects with sorted
+     *  IDS at OFFSETS with LENGTHS.
+     *
+     * @param name - pack name.
+     * @param ids - sorted hex IDs.
+     * @param offsets - entry offsets.
+     * @param lengths - entry lengths.
+     */
+    private static void writeIndex(String name, List<String> ids,
+                                   long[] offsets, long[] lengths)
+            throws IOException {
+        int count = ids.size();
+        ByteBuffer index = ByteBuffer.allocate(FANOUT_START
+                + IdTable.size(count) + count * 2 * Long.BYTES);
+        index.putInt(INDEX_MAGIC).putInt(count);
+        IdTable.write(index, ids);
+        for (long offset : offsets) {
+            index.putLong(offset);
+        }
+        for (long length : lengths) {
+            index.putLong(length);
+        }
+        index.flip();
+        Path temp = Files.createTempFile(PACK_DIR.toPath(), "idx", ".tmp");
+        try (FileChannel out = FileChannel.open(temp,
+                StandardOpenOption.WRITE)) {
+            while (index.hasRemaining()) {
+                out.write(index);
+            }
+            out.force(true);
+        }
+        Files.move(temp, Utils.join(PACK_DIR, name + ".idx").toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Deletes this pack's files. */
+    void delete() {
+        Utils.join(PACK_DIR, _name + ".idx").delete();
+        Utils.join(PACK_DIR, _name + ".pack").delete();
+    }
+
+    /** Supplies the entries of objects being packed. */
+    interface Source {
+        /** Appends the entry of the object with sha1 ID, kind byte
+         *  first, to OUT.
+         *
+         * @param id - sha1 ID.
+         * @param out - pack being written.
+         */
+        void copy(String id, FileChannel out) throws IOException;
+    }
+
+    /** Returns FILE mapped read-only.
+     *
+     * @param file - file.
+     * @return MappedByteBuffer.
+     */
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+    }
+
+    /** Returns hex sha1 ID as 20 bytes.
+     *
+     * @param id - hex ID.
+     * @return byte array.
+     */
+    static byte[] toBinary(String id) {
+        byte[] result = new byte[ID_BYTES];
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            result[i] = (byte) Integer.parseInt(
+                    id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** An InputStream over the remaining bytes of a ByteBuffer. */
+    static class BufferInputStream extends InputStream {
+
+        /** Bytes still to be read. */
+        private final ByteBuffer _buffer;
+
+        /** A stream over the remaining bytes of BUFFER.
+         *
+         * @param buffer - buffer.
+         */
+        BufferInputStream(ByteBuffer buffer) {
+            _buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return _buffer.hasRemaining() ? _buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            } else if (!_buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, _buffer.remaining());
+            _buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return _buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Reachability bitmaps: for selected commits, such as branch heads, the
+ *  set of commit-graph positions reachable from them, kept in BITMAPS.
+ *  The bitmap of any other commit is built by walking its history only
+ *  until it meets commits that have one, so asking whether one commit is
+ *  an ancestor of a branch head, or which commits no branch reaches, is
+ *  a lookup in a set rather than a walk of the whole history. Bitmaps
+ *  computed by a command are written when it ends, after the commit
+ *  graph, so that every position they hold is already in it; only the
+ *  MAX_BITMAPS most recently asked for are kept. BITMAPS records the
+ *  graph's epoch, its number of commits and the ID of its last one, and
+ *  is only read against a graph that still starts with those commits.
+ *  @author willharvey
+ */
+class Reachability {
+
+    /** File that holds the bitmaps. */
+    static final File BITMAPS = Utils.join(Commands.GITLET_DIR, "bitmaps");
+
+    /** Leading bytes of BITMAPS. */
+    static final int MAGIC = 0x47424d32;
+
+    /** ID written in place of the last commit of an empty graph. */
+    private static final String NO_COMMIT = "0".repeat(Utils.UID_LENGTH);
+
+    /** Most bitmaps kept. */
+    static final int MAX_BITMAPS = 64;
+
+    /** Bitmaps of the current command, or null before they are read. */
+    private static Reachability _current;
+
+    /** Stored bitmaps by commit ID, least recently asked for first. */
+    private final LinkedHashMap<String, Bitmap> _bitmaps =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Graph position of each commit in _bitmaps. */
+    private final HashMap<String, Integer> _positions = new HashMap<>();
+
+    /** True if bitmaps were added since BITMAPS was read. */
+    private boolean _dirty;
+
+    /** Returns the bitmaps, reading BITMAPS on first use.
+     *
+     * @return Reachability.
+     */
+    static synchronized Reachability get() {
+        if (_current == null) {
+            _current = new Reachability();
+            _current.load();
+        }
+        return _current;
+    }
+
+    /** Writes the bitmaps back if some were added, and forgets them. The
+     *  commit graph must have been flushed first. */
+    static synchronized void flush() {
+        Reachability bitmaps = _current;
+        _current = null;
+        if (bitmaps == null || !bitmaps._dirty
+                || !Commands.GITLET_DIR.isDirectory()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        BITMAPS.toPath())))) {
+            CommitGraph graph = CommitGraph.get();
+            out.writeInt(MAGIC);
+            out.writeLong(graph.epoch());
+            out.writeInt(graph.size());
+            out.write(Pack.toBinary(graph.size() == 0 ? NO_COMMIT
+                    : graph.id(graph.size() - 1)));
+            out.writeInt(bitmaps._bitmaps.size());
+            for (Map.Entry<String, Bitmap> e : bitmaps._bitmaps.entrySet()) {
+                out.write(Pack.toBinary(e.getKey()));
+                out.writeInt(bitmaps._positions.get(e.getKey()));
+                e.getValue().write(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forgets the bitmaps read so far, dropping any not yet written. */
+    static synchronized void reload() {
+        _current = null;
+    }
+
+    /** Returns whether the commit with sha1 ID ANCESTOR is reachable from
+     *  the one with sha1 ID DESCENDANT, or is that commit. DESCENDANT's
+     *  bitmap is stored for later questions.
+     *
+     * @param ancestor - sha1 ID.
+     * @param descendant - sha1 ID.
+     * @return boolean.
+     */
+    boolean isAncestor(String ancestor, String descendant) {
+        int pos = CommitGraph.get().position(ancestor);
+        return pos != CommitGraph.NONE && of(descendant).contains(pos);
+    }
+
+    /** Returns the positions of the commits reachable from the commits
+     *  with sha1 IDS, storing each one's bitmap.
+     *
+     * @param ids - sha1 IDs.
+     * @return Bitmap.
+     */
+    Bitmap reachable(List<String> ids) {
+        Bitmap result = new Bitmap();
+        for (String id : ids) {
+            result.or(of(id));
+        }
+        return result;
+    }
+
+    /** Returns the bitmap of the commit with sha1 ID: the graph positions
+     *  of it and all its ancestors. The walk stops at commits whose
+     *  bitmap is stored and takes their bitmap whole. The result is
+     *  stored too.
+     *
+     * @param id - sha1 ID.
+     * @return Bitmap.
+     */
+    Bitmap of(String id) {
+        Bitmap stored = _bitmaps.get(id);
+        if (stored != null) {
+            return stored;
+        }
+        CommitGraph graph = CommitGraph.get();
+        HashMap<Integer, Bitmap> known = new HashMap<>();
+        for (Map.Entry<String, Bitmap> e : _bitmaps.entrySet()) {
+            known.put(_positions.get(e.getKey()), e.getValue());
+        }
+        Bitmap result = new Bitmap();
+        int start = graph.position(id);
+        if (start == CommitGraph.NONE) {
+            return result;
+        }
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(start);
+        while (!pending.isEmpty()) {
+            int pos = pending.pop();
+            if (result.contains(pos)) {
+                continue;
+            } else if (known.containsKey(pos)) {
+                result.or(known.get(pos));
+                continue;
+            }
+            result.add(pos);
+            for (int n = 0; n < 2; n += 1) {
+                int parent = graph.parent(pos, n);
+                if (parent != CommitGraph.NONE && !result.contains(parent)) {
+                    pending.push(parent);
+                }
+            }
+        }
+        store(id, start, result);
+        return result;
+    }
+
+    /** Stores BITMAP as that of the commit with sha1 ID at POS, dropping
+     *  the least recently used bitmap if there are too many.
+     *
+     * @param id - sha1 ID.
+     * @param pos - graph position.
+     * @param bitmap - reachable positions.
+     */
+    private void store(String id, int pos, Bitmap bitmap) {
+        _bitmaps.put(id, bitmap);
+        _positions.put(id, pos);
+        _dirty = true;
+        Iterator<String> eldest = _bitmaps.keySet().iterator();
+        while (_bitmaps.size() > MAX_BITMAPS) {
+            _positions.remove(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    /** Reads BITMAPS, if there is a readable one made against the
+     *  current commit graph. Bitmaps made before the graph was built
+     *  anew, or against records it never kept, hold positions that no
+     *  longer mean the same commits. */
+    private void load() {
+        if (!BITMAPS.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(
+                        BITMAPS.toPath())))) {
+            CommitGraph graph = CommitGraph.get();
+            if (in.readInt() != MAGIC || in.readLong() != graph.epoch()) {
+                return;
+            }
+            int size = in.readInt();
+            byte[] last = new byte[Pack.ID_BYTES];
+            in.readFully(last);
+            if (size > graph.size() || (size > 0
+                    && !graph.id(size - 1).equals(Utils.toHex(last)))) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                byte[] binary = new byte[Pack.ID_BYTES];
+                in.readFully(binary);
+                String id = Utils.toHex(binary);
+                _positions.put(id, in.readInt());
+                _bitmaps.put(id, Bitmap.read(in));
+            }
+        } catch (IOException excp) {
+            _bitmaps.clear();
+            _positions.clear();
+        }
+    }
+}
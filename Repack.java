@@ -0,0 +1,336 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/** Consolidates loose objects and existing packs into new packs,
+ *  storing objects as deltas against similar ones where that pays.
+ *  Candidates are ordered by type, by the path they were committed
+ *  under and by decreasing size, so successive versions of a file sit
+ *  next to each other. Each is then compared with the pack.window
+ *  objects before it, and stored as a delta against whichever gives
+ *  the smallest one, as long as the base's chain is shorter than
+ *  pack.depth.
+ *  @author willharvey
+ */
+class Repack {
+
+    /** Configuration key for the number of objects each candidate is
+     *  compared with. */
+    static final String WINDOW = "pack.window";
+
+    /** Default of WINDOW. */
+    static final int DEFAULT_WINDOW = 10;
+
+    /** Configuration key for the longest chain of deltas. */
+    static final String DEPTH = "pack.depth";
+
+    /** Default of DEPTH. */
+    static final int DEFAULT_DEPTH = 50;
+
+    /** Objects larger than this are never stored as deltas. */
+    static final long MAX_DELTA_SIZE = 16 << 20;
+
+    /** Objects larger than this stay loose. */
+    static final long MAX_PACKED_SIZE = Pack.MAX_PACK_SIZE / 4;
+
+    /** A delta must be smaller than the object divided by this to be
+     *  used. */
+    static final int MIN_DELTA_GAIN = 2;
+
+    /** Deltas found by the current run, by target ID. */
+    private final Map<String, byte[]> _deltas = new HashMap<>();
+
+    /** Delta bases found by the current run, by target ID. */
+    private final Map<String, String> _bases = new HashMap<>();
+
+    /** Packs that existed before the current run and are repacked. */
+    private final List<Pack> _old;
+
+    /** Path hints by object ID (see pathHints). */
+    private final Map<String, String> _paths;
+
+    /** Tells which objects to keep; the others are dropped. */
+    private final Predicate<String> _keep;
+
+    /** Sets up a run that keeps the objects KEEP accepts, packing only
+     *  the loose ones if LOOSEONLY, with PATHS as path hints.
+     *
+     * @param paths - path hints by object ID.
+     * @param keep - accepts the IDs of objects to keep.
+     * @param looseOnly - whether to leave existing packs alone.
+     */
+    private Repack(Map<String, String> paths, Predicate<String> keep,
+                   boolean looseOnly) {
+        _paths = paths;
+        _keep = keep;
+        _old = looseOnly ? List.of() : new ArrayList<>(Pack.all());
+    }
+
+    /** Repacks the repository. */
+    static void run() throws IOException {
+        run(pathHints(), id -> true, false);
+    }
+
+    /** Repacks the repository, keeping only the objects KEEP accepts.
+     *  If LOOSEONLY, only loose objects are packed, into packs of their
+     *  own, and existing packs are left as they are.
+     *
+     * @param paths - path hints by object ID, as pathHints returns.
+     * @param keep - accepts the IDs of objects to keep.
+     * @param looseOnly - whether to leave existing packs alone.
+     */
+    static void run(Map<String, String> paths, Predicate<String> keep,
+                    boolean looseOnly) throws IOException {
+        new Repack(paths, keep, looseOnly).repack();
+    }
+
+    /** Packs every kept object that fits into new packs, then deletes
+     *  the old packs, the loose objects that were packed and those that
+     *  were dropped. */
+    private void repack() throws IOException {
+        TreeMap<String, Long> sizes = new TreeMap<>();
+        for (Pack pack : _old) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                String id = pack.id(i);
+                if (_keep.test(id)) {
+                    sizes.put(id, (long) pack.entry(i).remaining());
+                }
+            }
+        }
+        List<String> loose = new ArrayList<>();
+        for (String id : ObjectStore.looseIds()) {
+            long size = ObjectStore.file(id).length();
+            if (!_keep.test(id)) {
+                loose.add(id);
+            } else if (size <= MAX_PACKED_SIZE) {
+                sizes.put(id, size);
+                loose.add(id);
+            }
+        }
+        findDeltas(sizes.keySet());
+        for (String id : _deltas.keySet()) {
+            sizes.put(id, (long) (Pack.ID_BYTES + _deltas.get(id).length));
+        }
+        Set<String> kept = new TreeSet<>();
+        List<String> chunk = new ArrayList<>();
+        long chunkSize = Pack.PACK_HEADER;
+        for (String id : sizes.keySet()) {
+            if (chunkSize + sizes.get(id) + 1 > Pack.MAX_PACK_SIZE) {
+                kept.add(Pack.write(chunk, this::writeEntry));
+                chunk.clear();
+                chunkSize = Pack.PACK_HEADER;
+            }
+            chunk.add(id);
+            chunkSize += sizes.get(id) + 1;
+        }
+        if (!chunk.isEmpty()) {
+            kept.add(Pack.write(chunk, this::writeEntry));
+        }
+        for (Pack pack : _old) {
+            if (!kept.contains(pack.name())) {
+                pack.delete();
+            }
+        }
+        for (String id : loose) {
+            ObjectStore.file(id).delete();
+        }
+        Pack.reload();
+    }
+
+    /** A delta candidate. */
+    private static class Candidate {
+        /** sha1 ID. */
+        private String _id;
+        /** Object type. */
+        private String _type;
+        /** Path the object was committed under, or "". */
+        private String _path;
+        /** Size of the object's contents. */
+        private long _size;
+        /** Decoded object while it is in the window. */
+        private byte[] _bytes;
+        /** Length of the delta chain ending at this object. */
+        private int _depth;
+    }
+
+    /** Chooses delta bases for the objects with IDS. Blobs written as
+     *  serialized objects have no header and are always stored whole.
+     *
+     * @param ids - objects being packed.
+     */
+    private void findDeltas(Set<String> ids) throws IOException {
+        List<Candidate> candidates = new ArrayList<>();
+        for (String id : ids) {
+            Candidate c = new Candidate();
+            c._id = id;
+            try (InputStream in = ObjectStore.open(id)) {
+                in.mark(1);
+                boolean legacy = in.read() == Blob.LEGACY_MAGIC;
+                in.reset();
+                if (legacy) {
+                    continue;
+                }
+                String[] header = ObjectStore.readHeader(in).split(" ");
+                c._type = header[0];
+                c._size = Long.parseLong(header[1]);
+            }
+            c._path = _paths.getOrDefault(id, "");
+            if (c._size >= Delta.BLOCK && c._size <= MAX_DELTA_SIZE) {
+                candidates.add(c);
+            }
+        }
+        candidates.sort(Comparator.comparing((Candidate c) -> c._type)
+                .thenComparing(c -> c._path)
+                .thenComparing(c -> -c._size));
+        int window = Config.getInt(WINDOW, DEFAULT_WINDOW);
+        int depth = Config.getInt(DEPTH, DEFAULT_DEPTH);
+        ArrayDeque<Candidate> recent = new ArrayDeque<>();
+        for (Candidate c : candidates) {
+            c._bytes = ObjectStore.readAll(c._id);
+            Candidate best = null;
+            byte[] bestDelta = null;
+            int limit = c._bytes.length / MIN_DELTA_GAIN;
+            for (Candidate base : recent) {
+                if (!base._type.equals(c._type) || base._depth >= depth) {
+                    continue;
+                }
+                byte[] delta = Delta.create(base._bytes, c._bytes, limit);
+                if (delta != null) {
+                    best = base;
+                    bestDelta = delta;
+                    limit = delta.length;
+                }
+            }
+            if (best != null) {
+                _deltas.put(c._id, deflate(bestDelta));
+                _bases.put(c._id, best._id);
+                c._depth = best._depth + 1;
+            }
+            recent.addLast(c);
+            if (recent.size() > window) {
+                recent.removeFirst()._bytes = null;
+            }
+        }
+    }
+
+    /** Returns the path each blob and tree was first committed under,
+     *  by ID, as a hint for which objects resemble each other. Its keys
+     *  are every object some stored commit refers to.
+     *
+     * @return Map.
+     */
+    static Map<String, String> pathHints() {
+        Map<String, String> paths = new HashMap<>();
+        for (String commitId : CommitStore.ids()) {
+            pathHints(CommitStore.read(commitId).getTree(), "", paths);
+        }
+        return paths;
+    }
+
+    /** Adds PATH as the hint for the tree with sha1 ID, and hints for
+     *  everything under it, to PATHS. Trees that already have a hint
+     *  were walked before and are skipped.
+     *
+     * @param id - sha1 ID of a tree.
+     * @param path - path of the tree followed by a separator, or "".
+     * @param paths - hints by ID.
+     */
+    private static void pathHints(String id, String path,
+                                  Map<String, String> paths) {
+        if (paths.putIfAbsent(id, path) != null) {
+            return;
+        }
+        Tree tree = Tree.read(id);
+        for (Map.Entry<String, String> blob : tree.blobs().entrySet()) {
+            paths.putIfAbsent(blob.getValue(), path + blob.getKey());
+        }
+        for (Map.Entry<String, String> sub : tree.trees().entrySet()) {
+            pathHints(sub.getValue(), path + sub.getKey() + Tree.SEPARATOR,
+                    paths);
+        }
+    }
+
+    /** Appends the pack entry of the object with sha1 ID to OUT.
+     *
+     * @param id - sha1 ID.
+     * @param out - pack being written.
+     */
+    private void writeEntry(String id, FileChannel out) throws IOException {
+        byte[] delta = _deltas.get(id);
+        if (delta != null) {
+            ByteBuffer entry = ByteBuffer.allocate(1 + Pack.ID_BYTES);
+            entry.put(Pack.DELTA).put(Pack.toBinary(_bases.get(id))).flip();
+            write(entry, out);
+            write(ByteBuffer.wrap(delta), out);
+            return;
+        }
+        write(ByteBuffer.wrap(new byte[] {Pack.WHOLE}), out);
+        File loose = ObjectStore.file(id);
+        if (loose.isFile()) {
+            try (FileChannel in = FileChannel.open(loose.toPath())) {
+                long done = 0;
+                long size = in.size();
+                while (done < size) {
+                    done += in.transferTo(done, size - done, out);
+                }
+            }
+            return;
+        }
+        for (Pack pack : _old) {
+            ByteBuffer stored = pack.stored(id);
+            if (stored != null) {
+                write(stored, out);
+                return;
+            }
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ObjectStore.encode(ObjectStore.readAll(id), encoded);
+        write(ByteBuffer.wrap(encoded.toByteArray()), out);
+    }
+
+    /** Writes all of BUFFER to OUT.
+     *
+     * @param buffer - bytes.
+     * @param out - channel.
+     */
+    private static void write(ByteBuffer buffer, FileChannel out)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /** Returns BYTES zlib-compressed.
+     *
+     * @param bytes - bytes.
+     * @return byte array.
+     */
+    private static byte[] deflate(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (DeflaterOutputStream zip = new DeflaterOutputStream(out,
+                deflater)) {
+            zip.write(bytes);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,125 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/** The state files of the repository as one command sees them: HEAD,
+ *  CURRENT_BRANCH, the staging area and the branch files. Each file is
+ *  deserialized the first time the command reads it, and later reads
+ *  get the same object back. Writes only replace that object and mark
+ *  the file dirty; the dirty files are written together when the
+ *  command ends, whether or not it succeeded, so a command that fails
+ *  after changing something leaves the same state it always did. They
+ *  are written as one transaction through the Journal, so a command
+ *  that is killed while writing them leaves all or none of them.
+ *  @author willharvey
+ */
+class Repository {
+
+    /** Session of the current command, or null before it is opened. */
+    private static Repository _current;
+
+    /** Objects read or written so far, by file. */
+    private final HashMap<File, Serializable> _loaded = new HashMap<>();
+
+    /** Raw contents written so far, by file, for files that are not
+     *  serialized objects. */
+    private final HashMap<File, byte[]> _raw = new HashMap<>();
+
+    /** Files written so far, in the order they were first written. */
+    private final LinkedHashSet<File> _dirty = new LinkedHashSet<>();
+
+    /** Files the command created outside the session that the dirty
+     *  files may refer to, such as new commits. */
+    private final LinkedHashSet<File> _created = new LinkedHashSet<>();
+
+    /** Returns the session of the current command, opening it if
+     *  needed.
+     *
+     * @return Repository.
+     */
+    static synchronized Repository get() {
+        if (_current == null) {
+            _current = new Repository();
+        }
+        return _current;
+    }
+
+    /** Writes every dirty file of the current session and closes it, so
+     *  that the next command reads everything afresh. */
+    static synchronized void flush() {
+        Repository session = _current;
+        _current = null;
+        if (session == null || !Commands.GITLET_DIR.isDirectory()) {
+            return;
+        }
+        LinkedHashMap<File, byte[]> writes = new LinkedHashMap<>();
+        for (File file : session._dirty) {
+            byte[] raw = session._raw.get(file);
+            writes.put(file, raw != null ? raw
+                    : Utils.serialize(session._loaded.get(file)));
+        }
+        Journal.commit(writes, session._created);
+    }
+
+    /** Returns the object in FILE, casting it to TYPE.
+     *
+     * @param file - state file.
+     * @param type - expected class.
+     * @param <T> - type of the object.
+     * @return T.
+     */
+    <T extends Serializable> T read(File file, Class<T> type) {
+        Serializable obj = _loaded.get(file);
+        if (obj == null) {
+            obj = Utils.readObject(file, type);
+            _loaded.put(file, obj);
+        }
+        return type.cast(obj);
+    }
+
+    /** Makes OBJ the contents of FILE, to be written when the command
+     *  ends.
+     *
+     * @param file - state file.
+     * @param obj - new contents.
+     */
+    void write(File file, Serializable obj) {
+        _loaded.put(file, obj);
+        _dirty.add(file);
+    }
+
+    /** Makes CONTENTS the raw contents of FILE, to be written when the
+     *  command ends. FILE cannot be read back through read.
+     *
+     * @param file - state file that is not a serialized object.
+     * @param contents - new contents.
+     */
+    void writeBytes(File file, byte[] contents) {
+        _raw.put(file, contents);
+        _dirty.add(file);
+    }
+
+    /** Notes that the command wrote FILE itself, so that it is made
+     *  durable before any state file that may name it.
+     *
+     * @param file - newly written file.
+     */
+    synchronized void created(File file) {
+        _created.add(file);
+    }
+
+    /** Deletes FILE now, dropping anything read or written for it.
+     *
+     * @param file - state file.
+     */
+    void delete(File file) {
+        _loaded.remove(file);
+        _raw.remove(file);
+        _dirty.remove(file);
+        file.delete();
+    }
+}
@@ -0,0 +1,418 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/** The staging area: for every staged path, whether it is staged to be
+ *  added or removed and the blob staged for it. The stat data that
+ *  lets add and status skip unchanged files is the Index's, not kept
+ *  here. It is kept in STAGE, sorted by path:
+ *      header   MAGIC, number of entries;
+ *      offsets  where each entry starts, one int per entry;
+ *      entries  flags byte, binary blob ID, path length short, UTF-8
+ *               path;
+ *      trailer  CRC32 of everything before it, as a long.
+ *  The file is memory-mapped and its checksum checked when a command
+ *  first uses the staging area, and a path is looked up by a binary
+ *  search of the offsets. Changes are kept aside in path order and
+ *  merged with the mapped entries in one pass when the command ends;
+ *  the result is written with the command's other state files.
+ *  @author willharvey
+ */
+class Stage {
+
+    /** File that holds the staging area. */
+    static final File STAGE = Utils.join(Commands.GITLET_DIR, "stage");
+
+    /** Staging area for additions written by older versions: a
+     *  serialized LinkedHashMap of blob IDs by path. */
+    static final File LEGACY_ADD = Utils.join(Commands.GITLET_DIR, "add");
+
+    /** Staging area for removals written by older versions: a serialized
+     *  ArrayList of paths. */
+    static final File LEGACY_RM = Utils.join(Commands.GITLET_DIR, "rm");
+
+    /** Leading bytes of STAGE. */
+    static final int MAGIC = 0x47535432;
+
+    /** Size of the header. */
+    static final int HEADER = 8;
+
+    /** Size of an entry without its path. */
+    static final int ENTRY = 1 + Pack.ID_BYTES + Short.BYTES;
+
+    /** Flag of a path staged to be added. */
+    static final byte ADDED = 1;
+
+    /** Flag of a path staged to be removed. */
+    static final byte REMOVED = 2;
+
+    /** Staging area of the current command, or null before it is read. */
+    private static Stage _current;
+
+    /** The mapped STAGE, or null if there is none. */
+    private final ByteBuffer _base;
+
+    /** Number of entries in _base. */
+    private final int _count;
+
+    /** Entries changed by the current command, by path; null for a path
+     *  no longer staged. */
+    private final TreeMap<String, Entry> _changes = new TreeMap<>();
+
+    /** True if every entry of _base was dropped. */
+    private boolean _cleared;
+
+    /** True if anything changed since STAGE was read. */
+    private boolean _dirty;
+
+    /** One staged path. */
+    private static class Entry {
+        /** ADDED or REMOVED. */
+        private byte _flags;
+        /** Hex ID of the staged blob, or null for a removal. */
+        private String _blob;
+    }
+
+    /** Maps STAGE, checking its checksum. */
+    private Stage() {
+        if (!STAGE.isFile() || STAGE.length() == 0) {
+            _base = null;
+            _count = 0;
+            return;
+        }
+        try (FileChannel in = FileChannel.open(STAGE.toPath())) {
+            _base = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        int body = _base.limit() - Long.BYTES;
+        CRC32 crc = new CRC32();
+        if (body >= HEADER) {
+            crc.update(_base.slice(0, body));
+        }
+        if (body < HEADER || _base.getInt(0) != MAGIC
+                || _base.getLong(body) != crc.getValue()) {
+            throw Utils.error("The staging area is corrupt.");
+        }
+        _count = _base.getInt(Integer.BYTES);
+    }
+
+    /** Returns the staging area, reading it on first use.
+     *
+     * @return Stage.
+     */
+    static synchronized Stage get() {
+        if (_current == null) {
+            _current = new Stage();
+        }
+        return _current;
+    }
+
+    /** Hands the staging area to the Repository to be written with the
+     *  other state files if it changed, and forgets it. */
+    static synchronized void flush() {
+        Stage stage = _current;
+        _current = null;
+        if (stage != null && stage._dirty
+                && Commands.GITLET_DIR.isDirectory()) {
+            Repository.get().writeBytes(STAGE, stage.encode());
+        }
+    }
+
+    /** Forgets the staging area read so far, dropping any changes. */
+    static synchronized void reload() {
+        _current = null;
+    }
+
+    /** Converts the staging areas of a repository written by an older
+     *  Gitlet into STAGE, which is written to a temporary file and
+     *  renamed into place so that an interrupted conversion leaves the
+     *  old files to convert again. */
+    @SuppressWarnings("unchecked")
+    static void migrate() {
+        if (STAGE.exists() || !LEGACY_ADD.isFile()) {
+            return;
+        }
+        Stage stage = new Stage();
+        if (LEGACY_ADD.length() > 0) {
+            Map<String, String> added = Utils.readObject(LEGACY_ADD,
+                    LinkedHashMap.class);
+            added.forEach(stage::add);
+        }
+        if (LEGACY_RM.length() > 0) {
+            List<String> removed = Utils.readObject(LEGACY_RM,
+                    ArrayList.class);
+            removed.forEach(stage::remove);
+        }
+        try {
+            Path temp = Files.createTempFile(Commands.GITLET_DIR.toPath(),
+                    "stage", ".tmp");
+            try (FileChannel out = FileChannel.open(temp,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer contents = ByteBuffer.wrap(stage.encode());
+                while (contents.hasRemaining()) {
+                    out.write(contents);
+                }
+                out.force(true);
+            }
+            Files.move(temp, STAGE.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        LEGACY_ADD.delete();
+        LEGACY_RM.delete();
+    }
+
+    /** Returns the blob staged to be added as NAME, or null.
+     *
+     * @param name - path.
+     * @return String sha1 ID or null.
+     */
+    String added(String name) {
+        Entry entry = entry(name);
+        return entry != null && entry._flags == ADDED ? entry._blob : null;
+    }
+
+    /** Returns whether NAME is staged to be removed.
+     *
+     * @param name - path.
+     * @return boolean.
+     */
+    boolean isRemoved(String name) {
+        Entry entry = entry(name);
+        return entry != null && entry._flags == REMOVED;
+    }
+
+    /** Returns whether nothing is staged.
+     *
+     * @return boolean.
+     */
+    boolean isEmpty() {
+        boolean[] empty = {true};
+        forEach((name, entry) -> empty[0] = false);
+        return empty[0];
+    }
+
+    /** Returns the blobs staged to be added, by path, in path order.
+     *
+     * @return LinkedHashMap.
+     */
+    LinkedHashMap<String, String> added() {
+        LinkedHashMap<String, String> result = new LinkedHashMap<>();
+        forEach((name, entry) -> {
+            if (entry._flags == ADDED) {
+                result.put(name, entry._blob);
+            }
+        });
+        return result;
+    }
+
+    /** Returns the paths staged to be removed, in order.
+     *
+     * @return List.
+     */
+    List<String> removed() {
+        List<String> result = new ArrayList<>();
+        forEach((name, entry) -> {
+            if (entry._flags == REMOVED) {
+                result.add(name);
+            }
+        });
+        return result;
+    }
+
+    /** Stages the blob with sha1 ID BLOB to be added as NAME.
+     *
+     * @param name - path.
+     * @param blob - sha1 ID.
+     */
+    void add(String name, String blob) {
+        Entry entry = new Entry();
+        entry._flags = ADDED;
+        entry._blob = blob;
+        change(name, entry);
+    }
+
+    /** Stages NAME to be removed.
+     *
+     * @param name - path.
+     */
+    void remove(String name) {
+        Entry entry = new Entry();
+        entry._flags = REMOVED;
+        change(name, entry);
+    }
+
+    /** Drops whatever is staged for NAME.
+     *
+     * @param name - path.
+     */
+    void unstage(String name) {
+        if (entry(name) != null) {
+            change(name, null);
+        }
+    }
+
+    /** Drops everything staged. */
+    void clear() {
+        _cleared = true;
+        _changes.clear();
+        _dirty = true;
+    }
+
+    /** Records ENTRY, or null, as what is staged for NAME.
+     *
+     * @param name - path.
+     * @param entry - new entry or null.
+     */
+    private void change(String name, Entry entry) {
+        _changes.put(name, entry);
+        _dirty = true;
+    }
+
+    /** Returns what is staged for NAME, or null.
+     *
+     * @param name - path.
+     * @return Entry.
+     */
+    private Entry entry(String name) {
+        if (_changes.containsKey(name)) {
+            return _changes.get(name);
+        } else if (_cleared) {
+            return null;
+        }
+        int lo = 0;
+        int hi = _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = path(mid).compareTo(name);
+            if (cmp == 0) {
+                return read(mid);
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return null;
+    }
+
+    /** Calls ACTION on every staged path and its entry, in path order,
+     *  merging the mapped entries with the changes.
+     *
+     * @param action - consumer of path and entry.
+     */
+    private void forEach(BiConsumer<String, Entry> action) {
+        int count = _cleared ? 0 : _count;
+        int i = 0;
+        String next = i < count ? path(i) : null;
+        for (Map.Entry<String, Entry> change : _changes.entrySet()) {
+            String name = change.getKey();
+            while (next != null && next.compareTo(name) < 0) {
+                action.accept(next, read(i));
+                i += 1;
+                next = i < count ? path(i) : null;
+            }
+            if (name.equals(next)) {
+                i += 1;
+                next = i < count ? path(i) : null;
+            }
+            if (change.getValue() != null) {
+                action.accept(name, change.getValue());
+            }
+        }
+        while (next != null) {
+            action.accept(next, read(i));
+            i += 1;
+            next = i < count ? path(i) : null;
+        }
+    }
+
+    /** Returns the offset of the mapped entry at POS.
+     *
+     * @param pos - entry number.
+     * @return int.
+     */
+    private int offset(int pos) {
+        return _base.getInt(HEADER + pos * Integer.BYTES);
+    }
+
+    /** Returns the path of the mapped entry at POS.
+     *
+     * @param pos - entry number.
+     * @return String.
+     */
+    private String path(int pos) {
+        int start = offset(pos) + ENTRY;
+        byte[] bytes = new byte[_base.getShort(start - Short.BYTES)
+                & 0xffff];
+        _base.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the mapped entry at POS.
+     *
+     * @param pos - entry number.
+     * @return Entry.
+     */
+    private Entry read(int pos) {
+        ByteBuffer in = _base.duplicate().position(offset(pos));
+        Entry entry = new Entry();
+        entry._flags = in.get();
+        byte[] blob = new byte[Pack.ID_BYTES];
+        in.get(blob);
+        entry._blob = entry._flags == ADDED ? Utils.toHex(blob) : null;
+        return entry;
+    }
+
+    /** Returns the contents of STAGE for the staging area as it now
+     *  stands.
+     *
+     * @return byte array.
+     */
+    private byte[] encode() {
+        List<byte[]> paths = new ArrayList<>();
+        List<Entry> entries = new ArrayList<>();
+        int[] size = {HEADER + Long.BYTES};
+        forEach((name, entry) -> {
+            byte[] path = name.getBytes(StandardCharsets.UTF_8);
+            paths.add(path);
+            entries.add(entry);
+            size[0] += Integer.BYTES + ENTRY + path.length;
+        });
+        ByteBuffer out = ByteBuffer.allocate(size[0]);
+        out.putInt(MAGIC).putInt(entries.size());
+        int offset = HEADER + entries.size() * Integer.BYTES;
+        for (byte[] path : paths) {
+            out.putInt(offset);
+            offset += ENTRY + path.length;
+        }
+        byte[] none = new byte[Pack.ID_BYTES];
+        for (int i = 0; i < entries.size(); i += 1) {
+            Entry entry = entries.get(i);
+            out.put(entry._flags);
+            out.put(entry._blob == null ? none : Pack.toBinary(entry._blob));
+            out.putShort((short) paths.get(i).length).put(paths.get(i));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.position());
+        out.putLong(crc.getValue());
+        return out.array();
+    }
+}
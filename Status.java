@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** A snapshot of the working directory against the head commit and the
+ *  staging area, as reported by status. The head, the staging area and
+ *  the directory listing are read once; the working files that have to
+ *  be compared with a blob are then checked by Workers, on
+ *  status.threads threads if that is set. Results are assembled in a
+ *  fixed order afterwards, so the output does not depend on
+ *  scheduling.
+ *  @author willharvey
+ */
+class Status {
+
+    /** Configuration key for the number of threads files are compared
+     *  on, overriding core.threads. */
+    static final String THREADS = "status.threads";
+
+    /** Files of the head commit. */
+    private final LinkedHashMap<String, String> _head;
+
+    /** Files staged to be added. */
+    private final LinkedHashMap<String, String> _stageAdd;
+
+    /** The staging area. */
+    private final Stage _stage;
+
+    /** Paths of the plain files under the working directory, in
+     *  lexicographic order. */
+    private final List<String> _files;
+
+    /** Files of _head and _stageAdd whose working copy differs from the
+     *  blob they are compared with. */
+    private final Set<String> _changed;
+
+    /** Reads the current state and compares the working files. */
+    Status() {
+        _head = Repository.get().read(Commands.HEAD, Commit.class)
+                .getFiles();
+        _stage = Stage.get();
+        _stageAdd = _stage.added();
+        _files = Commands.workingFiles();
+        Set<String> present = new HashSet<>(_files);
+        Map<String, String> expected = new LinkedHashMap<>();
+        for (String name : _head.keySet()) {
+            if (present.contains(name) && !_stageAdd.containsKey(name)) {
+                expected.put(name, _head.get(name));
+            }
+        }
+        for (String name : _stageAdd.keySet()) {
+            if (present.contains(name)) {
+                expected.put(name, _stageAdd.get(name));
+            }
+        }
+        _changed = changed(expected);
+    }
+
+    /** Returns the files staged to be added.
+     *
+     * @return LinkedHashMap.
+     */
+    LinkedHashMap<String, String> stageAdd() {
+        return _stageAdd;
+    }
+
+    /** Returns the paths of the plain files under the working
+     *  directory.
+     *
+     * @return List.
+     */
+    List<String> files() {
+        return _files;
+    }
+
+    /** Returns the files modified or deleted but not staged, mapped to
+     *  "modified" or "deleted".
+     *
+     * @return LinkedHashMap.
+     */
+    LinkedHashMap<String, String> modified() {
+        Set<String> present = new HashSet<>(_files);
+        LinkedHashMap<String, String> result = new LinkedHashMap<>();
+        for (String name : _head.keySet()) {
+            if (present.contains(name) && _changed.contains(name)
+                    && !_stageAdd.containsKey(name)) {
+                result.put(name, "modified");
+            } else if (!present.contains(name)
+                    && !_stage.isRemoved(name)) {
+                result.put(name, "deleted");
+            }
+        }
+        for (String name : _stageAdd.keySet()) {
+            if (!present.contains(name)) {
+                result.put(name, "deleted");
+            } else if (_changed.contains(name)) {
+                result.put(name, "modified");
+            }
+        }
+        return result;
+    }
+
+    /** Returns the files neither tracked nor staged.
+     *
+     * @return ArrayList.
+     */
+    ArrayList<String> untracked() {
+        ArrayList<String> result = new ArrayList<>();
+        for (String name : _files) {
+            if (Commands.styleIndicator(name) && !_head.containsKey(name)
+                    && !_stageAdd.containsKey(name)
+                    && !_stage.isRemoved(name)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the names in EXPECTED whose working file does not have the
+     *  contents of the blob they map to.
+     *
+     * @param expected - blob IDs by file name.
+     * @return Set.
+     */
+    private static Set<String> changed(Map<String, String> expected) {
+        Index index = Index.get();
+        return Workers.map(expected.keySet(),
+                n -> index.matches(n, expected.get(n)) ? null : Boolean.TRUE,
+                THREADS).keySet();
+    }
+}
@@ -0,0 +1,329 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Tree class. A tree is an object in the ObjectStore listing one
+ *  directory: the blob ID of each file in it and the tree ID of each
+ *  subdirectory. A commit points at the tree of the working directory,
+ *  so a commit that changes one file rewrites only the trees on the
+ *  path to it and shares every other subtree with its parent by ID.
+ *  A tree is encoded as one "blob NAME\0ID\n" or "tree NAME\0ID\n"
+ *  line per entry, in name order.
+ *  @author willharvey
+ */
+class Tree {
+
+    /** Object type of trees. */
+    static final String TYPE = "tree";
+
+    /** Separator of the components of a path within a tree. */
+    static final char SEPARATOR = '/';
+
+    /** Files in this directory: blob IDs by name. */
+    private final TreeMap<String, String> _blobs = new TreeMap<>();
+
+    /** Subdirectories of this directory: tree IDs by name. */
+    private final TreeMap<String, String> _trees = new TreeMap<>();
+
+    /** Returns the files of this tree, blob IDs by name.
+     *
+     * @return SortedMap.
+     */
+    SortedMap<String, String> blobs() {
+        return Collections.unmodifiableSortedMap(_blobs);
+    }
+
+    /** Returns the subdirectories of this tree, tree IDs by name.
+     *
+     * @return SortedMap.
+     */
+    SortedMap<String, String> trees() {
+        return Collections.unmodifiableSortedMap(_trees);
+    }
+
+    /** Returns the tree with sha1 ID.
+     *
+     * @param id - sha1 ID.
+     * @return Tree.
+     */
+    static Tree read(String id) {
+        byte[] bytes;
+        try (InputStream in = ObjectStore.open(id)) {
+            ObjectStore.readHeader(in);
+            bytes = in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Tree tree = new Tree();
+        int pos = 0;
+        while (pos < bytes.length) {
+            int space = indexOf(bytes, ' ', pos);
+            int nul = indexOf(bytes, '\0', space);
+            String kind = new String(bytes, pos, space - pos,
+                    StandardCharsets.UTF_8);
+            String name = new String(bytes, space + 1, nul - space - 1,
+                    StandardCharsets.UTF_8);
+            String entry = new String(bytes, nul + 1, Utils.UID_LENGTH,
+                    StandardCharsets.UTF_8);
+            if (kind.equals(TYPE)) {
+                tree._trees.put(name, entry);
+            } else {
+                tree._blobs.put(name, entry);
+            }
+            pos = nul + 1 + Utils.UID_LENGTH + 1;
+        }
+        return tree;
+    }
+
+    /** Stores this tree and returns its ID.
+     *
+     * @return String sha1 ID.
+     */
+    String write() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TreeSet<String> names = new TreeSet<>(_blobs.keySet());
+        names.addAll(_trees.keySet());
+        for (String name : names) {
+            boolean isTree = _trees.containsKey(name);
+            String line = (isTree ? TYPE : Blob.TYPE) + " " + name + "\0"
+                    + (isTree ? _trees.get(name) : _blobs.get(name)) + "\n";
+            out.writeBytes(line.getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            return ObjectStore.write(TYPE, out.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the ID of the tree with sha1 ID, or of the empty tree if ID
+     *  is null, after CHANGES have been applied to it. CHANGES maps paths
+     *  to their new blob IDs, or to null for paths to remove. Only the
+     *  trees on the paths in CHANGES are read and rewritten.
+     *
+     * @param id - sha1 ID of a tree, or null.
+     * @param changes - blob IDs or null by path.
+     * @return String sha1 ID.
+     */
+    static String update(String id, Map<String, String> changes) {
+        Tree tree = apply(id, changes);
+        return (tree == null ? new Tree() : tree).write();
+    }
+
+    /** Returns the tree with sha1 ID, or an empty one if ID is null, with
+     *  CHANGES applied to it, or null if that leaves it empty. Changed
+     *  subtrees are written to the store.
+     *
+     * @param id - sha1 ID of a tree, or null.
+     * @param changes - blob IDs or null by path.
+     * @return Tree.
+     */
+    private static Tree apply(String id, Map<String, String> changes) {
+        Tree tree = id == null ? new Tree() : read(id);
+        Map<String, Map<String, String>> nested = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf(SEPARATOR);
+            if (slash >= 0) {
+                nested.computeIfAbsent(path.substring(0, slash),
+                        k -> new HashMap<>()).put(path.substring(slash + 1),
+                                change.getValue());
+            } else if (change.getValue() == null) {
+                tree._blobs.remove(path);
+            } else {
+                tree._trees.remove(path);
+                tree._blobs.put(path, change.getValue());
+            }
+        }
+        for (String dir : nested.keySet()) {
+            Tree sub = apply(tree._trees.get(dir), nested.get(dir));
+            if (sub == null) {
+                tree._trees.remove(dir);
+            } else {
+                tree._blobs.remove(dir);
+                tree._trees.put(dir, sub.write());
+            }
+        }
+        return tree._blobs.isEmpty() && tree._trees.isEmpty() ? null : tree;
+    }
+
+    /** Returns the files that differ between the trees with sha1 IDs FROM
+     *  and TO, either of which may be null for the empty tree: the blob
+     *  ID each has in TO, by path, or null for those TO lacks. Subtrees
+     *  with the same ID in both are not read, so the cost follows the
+     *  number of changed paths rather than the size of the trees.
+     *
+     * @param from - sha1 ID of a tree, or null.
+     * @param to - sha1 ID of a tree, or null.
+     * @return TreeMap.
+     */
+    static TreeMap<String, String> diff(String from, String to) {
+        TreeMap<String, String> changes = new TreeMap<>();
+        diff(from, to, "", changes);
+        return changes;
+    }
+
+    /** Adds the files that differ between the trees with sha1 IDs FROM
+     *  and TO to CHANGES, with PREFIX before their paths.
+     *
+     * @param from - sha1 ID of a tree, or null.
+     * @param to - sha1 ID of a tree, or null.
+     * @param prefix - path of the trees followed by SEPARATOR, or "".
+     * @param changes - blob IDs in TO or null by path.
+     */
+    private static void diff(String from, String to, String prefix,
+                             Map<String, String> changes) {
+        if (Objects.equals(from, to)) {
+            return;
+        }
+        Tree before = from == null ? new Tree() : read(from);
+        Tree after = to == null ? new Tree() : read(to);
+        for (Map.Entry<String, String> blob : before._blobs.entrySet()) {
+            String id = after._blobs.get(blob.getKey());
+            if (!blob.getValue().equals(id)) {
+                changes.put(prefix + blob.getKey(), id);
+            }
+        }
+        for (Map.Entry<String, String> blob : after._blobs.entrySet()) {
+            if (!before._blobs.containsKey(blob.getKey())) {
+                changes.put(prefix + blob.getKey(), blob.getValue());
+            }
+        }
+        TreeSet<String> dirs = new TreeSet<>(before._trees.keySet());
+        dirs.addAll(after._trees.keySet());
+        for (String dir : dirs) {
+            diff(before._trees.get(dir), after._trees.get(dir),
+                    prefix + dir + SEPARATOR, changes);
+        }
+    }
+
+    /** Returns the blob IDs of those of PATHS that are files under the
+     *  tree with sha1 ID, which may be null for the empty tree, by path.
+     *  Only the trees on PATHS are read, each once.
+     *
+     * @param id - sha1 ID of a tree, or null.
+     * @param paths - paths of files.
+     * @return TreeMap.
+     */
+    static TreeMap<String, String> lookup(String id,
+                                          Collection<String> paths) {
+        TreeMap<String, String> found = new TreeMap<>();
+        lookup(id, paths, "", found);
+        return found;
+    }
+
+    /** Adds those of PATHS that are files under the tree with sha1 ID to
+     *  FOUND, with PREFIX before their paths.
+     *
+     * @param id - sha1 ID of a tree, or null.
+     * @param paths - paths of files, relative to the tree.
+     * @param prefix - path of the tree followed by SEPARATOR, or "".
+     * @param found - blob IDs by path.
+     */
+    private static void lookup(String id, Collection<String> paths,
+                               String prefix, Map<String, String> found) {
+        if (id == null || paths.isEmpty()) {
+            return;
+        }
+        Tree tree = read(id);
+        Map<String, List<String>> nested = new TreeMap<>();
+        for (String path : paths) {
+            int slash = path.indexOf(SEPARATOR);
+            if (slash >= 0) {
+                nested.computeIfAbsent(path.substring(0, slash),
+                        k -> new ArrayList<>()).add(
+                                path.substring(slash + 1));
+            } else if (tree._blobs.containsKey(path)) {
+                found.put(prefix + path, tree._blobs.get(path));
+            }
+        }
+        for (Map.Entry<String, List<String>> dir : nested.entrySet()) {
+            lookup(tree._trees.get(dir.getKey()), dir.getValue(),
+                    prefix + dir.getKey() + SEPARATOR, found);
+        }
+    }
+
+    /** Returns every file under the tree with sha1 ID, blob IDs by path,
+     *  in the order a depth-first walk of the tree visits them.
+     *
+     * @param id - sha1 ID.
+     * @return LinkedHashMap.
+     */
+    static LinkedHashMap<String, String> flatten(String id) {
+        LinkedHashMap<String, String> files = new LinkedHashMap<>();
+        flatten(id, "", files);
+        return files;
+    }
+
+    /** Adds every file under the tree with sha1 ID to FILES, with PREFIX
+     *  before its path.
+     *
+     * @param id - sha1 ID.
+     * @param prefix - path of the tree followed by SEPARATOR, or "".
+     * @param files - blob IDs by path.
+     */
+    private static void flatten(String id, String prefix,
+                                Map<String, String> files) {
+        Tree tree = read(id);
+        TreeSet<String> names = new TreeSet<>(tree._blobs.keySet());
+        names.addAll(tree._trees.keySet());
+        for (String name : names) {
+            if (tree._trees.containsKey(name)) {
+                flatten(tree._trees.get(name), prefix + name + SEPARATOR,
+                        files);
+            } else {
+                files.put(prefix + name, tree._blobs.get(name));
+            }
+        }
+    }
+
+    /** Returns NAME, a path given on the command line, in the form paths
+     *  are kept in trees and the staging area: relative to the working
+     *  directory, with SEPARATOR between components. The working
+     *  directory itself is "".
+     *
+     * @param name - path.
+     * @return String.
+     */
+    static String path(String name) {
+        String path = name.replace(File.separatorChar, SEPARATOR);
+        while (path.startsWith("." + SEPARATOR)) {
+            path = path.substring(2);
+        }
+        while (path.endsWith(String.valueOf(SEPARATOR))) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path.equals(".") ? "" : path;
+    }
+
+    /** Returns the index of the first C in BYTES at or after FROM.
+     *
+     * @param bytes - bytes.
+     * @param c - byte to find.
+     * @param from - starting index.
+     * @return int.
+     */
+    private static int indexOf(byte[] bytes, char c, int from) {
+        for (int i = from; i < bytes.length; i += 1) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("corrupt tree");
+    }
+}
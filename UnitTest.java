@@ -1,27 +1,1463 @@
 package gitlet;
 
 import ucb.junit.textui;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 import static org.junit.Assert.*;
 
-/** The suite of all JUnit tests for the gitlet package.
+/** The suite of all JUnit tests for the gitlet package. Tests that need
+ *  a repository make one in the current directory, with their working
+ *  files under WORK, and delete both when they end; they refuse to run
+ *  where a repository already exists.
  *  @author
  */
 public class UnitTest {
 
+    /** Directory under the current one that tests put working files in. */
+    private static final String WORK = "unit-test";
+
+    /** True once setUp has found no repository here, so that tearDown
+     *  only deletes what the test made. */
+    private boolean _owned;
+
     /** Run the JUnit tests in the loa package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         System.exit(textui.runClasses(UnitTest.class));
     }
 
+    /** Refuses to run over an existing repository and starts every test
+     *  with nothing cached. */
+    @Before
+    public void setUp() {
+        assertFalse("run the unit tests outside a Gitlet repository",
+                Commands.GITLET_DIR.exists());
+        _owned = true;
+        forget();
+    }
+
+    /** Deletes the repository and working files the test made. */
+    @After
+    public void tearDown() throws IOException {
+        if (_owned) {
+            delete(Commands.GITLET_DIR);
+            delete(Utils.join(Commands.CWD, WORK));
+            forget();
+        }
+    }
+
+    /** Drops everything the gitlet classes cache between commands. */
+    private static void forget() {
+        Repository.flush();
+        Stage.reload();
+        Index.reload();
+        Config.reload();
+        CommitStore.forget();
+        CommitGraph.reload();
+        Reachability.reload();
+        MessageIndex.reload();
+        Pack.reload();
+    }
+
+    /** Deletes FILE and everything under it, if it exists.
+     *
+     * @param file - file or directory.
+     */
+    private static void delete(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(file.toPath())) {
+            paths.sorted(Comparator.reverseOrder())
+                    .forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /** Runs the gitlet command ARGS.
+     *
+     * @param args - command and operands.
+     */
+    private static void gitlet(String... args) throws IOException {
+        Main.operate(args);
+    }
+
+    /** Returns the path gitlet knows the working file NAME by.
+     *
+     * @param name - name under WORK.
+     * @return String.
+     */
+    private static String path(String name) {
+        return WORK + "/" + name;
+    }
+
+    /** Writes CONTENTS to the working file NAME.
+     *
+     * @param name - name under WORK.
+     * @param contents - new contents.
+     */
+    private static void write(String name, String contents) {
+        File file = Utils.join(Commands.CWD, path(name));
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, contents);
+    }
+
+    /** Returns the contents of the working file NAME, or null if there
+     *  is none.
+     *
+     * @param name - name under WORK.
+     * @return String.
+     */
+    private static String read(String name) {
+        File file = Utils.join(Commands.CWD, path(name));
+        return file.isFile() ? Utils.readContentsAsString(file) : null;
+    }
+
+    /** Writes CONTENTS to the working file NAME, adds it and commits it
+     *  with MESSAGE.
+     *
+     * @param name - name under WORK.
+     * @param contents - new contents.
+     * @param message - commit message.
+     */
+    private static void commit(String name, String contents,
+                               String message) throws IOException {
+        write(name, contents);
+        gitlet("add", path(name));
+        gitlet("commit", message);
+    }
+
+    /** Returns the ID of the head commit of the current branch.
+     *
+     * @return String sha1 ID.
+     */
+    private static String head() {
+        String id = Commands.getRightCommit(Commands.getCurrBr());
+        Repository.flush();
+        return id;
+    }
+
     /** A dummy test to avoid complaint. */
     @Test
     public void placeholderTest() throws IOException {
 
     }
-}
 
+    /** Every commit is a file of its own in COMMITS, named by its ID. */
+    @Test
+    public void commitFilesTest() throws IOException {
+        gitlet("init");
+        commit("a.txt", "a", "first");
+        String id = head();
+        assertTrue(Utils.join(Commands.COMMITS, id).isFile());
+        assertTrue(CommitStore.ids().contains(id));
+        CommitStore.forget();
+        assertEquals("first", CommitStore.read(id).getMessage());
+        assertNull(CommitStore.read("0".repeat(Utils.UID_LENGTH)));
+    }
+
+    /** A migration cut off after writing every commit is finished when
+     *  the next command migrates. */
+    @Test
+    public void interruptedMigrationTest() throws IOException {
+        gitlet("init");
+        commit("a.txt", "a", "first");
+        String id = head();
+        assertTrue(Commands.COMMITS.renameTo(CommitStore.MIGRATION_DIR));
+        CommitStore.migrate();
+        assertTrue(Commands.COMMITS.isDirectory());
+        assertFalse(CommitStore.MIGRATION_DIR.exists());
+        assertTrue(CommitStore.contains(id));
+    }
+
+    /** A commit's ID is the sha1 of its canonical encoding, fixed when
+     *  it is made and kept through serialization. */
+    @Test
+    public void commitIdTest() {
+        ArrayList<String> parents = new ArrayList<>();
+        parents.add(null);
+        Commit commit = new Commit("message", parents, null);
+        assertEquals(Utils.sha1(commit.encode()), commit.getId());
+        assertTrue(commit.encode().endsWith("\n\nmessage"));
+        write("commit", "");
+        File file = Utils.join(Commands.CWD, path("commit"));
+        Utils.writeObject(file, commit);
+        Commit copy = Utils.readObject(file, Commit.class);
+        assertEquals(commit.getId(), copy.getId());
+        copy.adoptId("0".repeat(Utils.UID_LENGTH));
+        assertEquals(commit.getId(), copy.getId());
+        Commit other = new Commit("other", parents, null);
+        assertNotEquals(commit.getId(), other.getId());
+    }
+
+    /** Returns LENGTH bytes running through every byte value, starting
+     *  with START.
+     *
+     * @param length - number of bytes.
+     * @param start - first byte.
+     * @return byte array.
+     */
+    private static byte[] bytes(int length, int start) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i += 1) {
+            bytes[i] = (byte) (start + i);
+        }
+        return bytes;
+    }
+
+    /** Blobs keep the raw bytes of a file, even ones that are not text
+     *  or that start like a serialized object, under the sha1 of their
+     *  header and contents. */
+    @Test
+    public void rawBlobTest() throws IOException {
+        gitlet("init");
+        byte[] contents = bytes(3 * Blob.BUFFER_SIZE + 7, Blob.LEGACY_MAGIC);
+        File file = Utils.join(Commands.CWD, path("binary"));
+        write("binary", "");
+        Utils.writeContents(file, contents);
+        String id = Blob.store(file);
+        assertEquals(Utils.sha1(ObjectStore.header(Blob.TYPE,
+                contents.length), contents), id);
+        assertEquals(id, Blob.hash(file));
+        assertArrayEquals(contents, Blob.read(id));
+        assertTrue(Blob.matches(id, file));
+        File copy = Utils.join(Commands.CWD, path("copy"));
+        Blob.copyTo(id, copy);
+        assertArrayEquals(contents, Utils.readContents(copy));
+        Utils.writeContents(copy, "changed");
+        assertFalse(Blob.matches(id, copy));
+    }
+
+    /** Returns the bytes of an object of TYPE with CONTENTS as they are
+     *  hashed and decoded, header first.
+     *
+     * @param type - object type.
+     * @param contents - bytes.
+     * @return byte array.
+     */
+    private static byte[] object(String type, byte[] contents) {
+        byte[] header = ObjectStore.header(type, contents.length);
+        byte[] object = Arrays.copyOf(header, header.length
+                + contents.length);
+        System.arraycopy(contents, 0, object, header.length,
+                contents.length);
+        return object;
+    }
+
+    /** Objects that shrink are deflated; those that would not, such as
+     *  data already gzipped, are stored as they are. Neither leaves a
+     *  temporary file behind. */
+    @Test
+    public void compressedObjectTest() throws IOException {
+        gitlet("init");
+        byte[] text = "all work and no play\n".repeat(1000)
+                .getBytes(StandardCharsets.UTF_8);
+        String id = ObjectStore.write(Blob.TYPE, text);
+        byte[] stored = Utils.readContents(ObjectStore.file(id));
+        assertTrue(stored.length < text.length / 10);
+        assertArrayEquals(object(Blob.TYPE, text), ObjectStore.readAll(id));
+        byte[] gzipped = bytes(Blob.BUFFER_SIZE, 0);
+        gzipped[0] = (byte) 0x1f;
+        gzipped[1] = (byte) 0x8b;
+        id = ObjectStore.write(Blob.TYPE, gzipped);
+        assertArrayEquals(object(Blob.TYPE, gzipped),
+                Utils.readContents(ObjectStore.file(id)));
+        assertArrayEquals(gzipped, Blob.read(id));
+        assertEquals(0, ObjectStore.TMP_DIR.list().length);
+    }
+
+    /** repack moves every loose object into one pack, whose mapped index
+     *  finds each of them again. */
+    @Test
+    public void packRoundTripTest() throws IOException {
+        gitlet("init");
+        commit("a.txt", "a", "first");
+        commit("dir/b.txt", "b", "second");
+        String a = Blob.hash(Utils.join(Commands.CWD, path("a.txt")));
+        String b = Blob.hash(Utils.join(Commands.CWD, path("dir/b.txt")));
+        gitlet("repack");
+        assertTrue(ObjectStore.looseIds().isEmpty());
+        assertEquals(1, Pack.all().size());
+        Pack pack = Pack.all().get(0);
+        for (String id : List.of(a, b)) {
+            assertSame(pack, Pack.containing(id));
+            assertEquals(id, pack.id(pack.find(Pack.toBinary(id))));
+        }
+        assertEquals("a", new String(Blob.read(a), StandardCharsets.UTF_8));
+        String missing = "0".repeat(Utils.UID_LENGTH);
+        assertNull(Pack.containing(missing));
+        assertEquals(-1, pack.find(Pack.toBinary(missing)));
+        Utils.join(Commands.CWD, path("dir/b.txt")).delete();
+        gitlet("checkout", "--", path("dir/b.txt"));
+        assertEquals("b", read("dir/b.txt"));
+    }
+
+    /** A delta between two versions of a file copies what they share
+     *  and rebuilds the new version exactly; unrelated data gets none. */
+    @Test
+    public void deltaTest() {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 500; i += 1) {
+            lines.append("line number ").append(i).append('\n');
+        }
+        byte[] base = lines.toString().getBytes(StandardCharsets.UTF_8);
+        lines.insert(lines.length() / 2, "a new line in the middle\n");
+        lines.append("and one at the end\n");
+        byte[] target = lines.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] delta = Delta.create(base, target, target.length);
+        assertNotNull(delta);
+        assertTrue(delta.length < target.length / 20);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        assertNull(Delta.create(bytes(base.length, 1), target,
+                target.length));
+        try {
+            Delta.apply(target, delta);
+            fail("applied a delta to the wrong base");
+        } catch (IllegalArgumentException excp) {
+            assertEquals("delta does not fit base", excp.getMessage());
+        }
+    }
+
+    /** The delta-base cache keeps to pack.deltaCacheSize, and notices
+     *  when the setting changes. */
+    @Test
+    public void deltaCacheTest() throws IOException {
+        gitlet("init");
+        String first = Utils.sha1("first base");
+        String second = Utils.sha1("second base");
+        Config.set(Delta.CACHE_SIZE, "100");
+        Delta.cache(first, new byte[60]);
+        Delta.cache(second, new byte[60]);
+        assertNull(Delta.cached(first));
+        assertNotNull(Delta.cached(second));
+        Config.set(Delta.CACHE_SIZE, "1000");
+        Delta.cache(first, new byte[60]);
+        assertNotNull(Delta.cached(first));
+        assertNotNull(Delta.cached(second));
+    }
+
+    /** Sets the modification time of the working file NAME to SECONDS
+     *  from now.
+     *
+     * @param name - name under WORK.
+     * @param seconds - offset from the current time.
+     */
+    private static void touch(String name, long seconds) throws IOException {
+        Files.setLastModifiedTime(Utils.join(Commands.CWD, path(name))
+                .toPath(), FileTime.fromMillis(System.currentTimeMillis()
+                + TimeUnit.SECONDS.toMillis(seconds)));
+    }
+
+    /** The index trusts a file's recorded blob ID only while its stat
+     *  data is unchanged and older than the index itself; a file that
+     *  may have changed in the same tick it was hashed in is hashed
+     *  again. */
+    @Test
+    public void statIndexTest() throws IOException {
+        gitlet("init");
+        String name = path("a.txt");
+        write("a.txt", "a");
+        touch("a.txt", -10);
+        String id = Blob.hash(Utils.join(Commands.CWD, name));
+        assertEquals(id, Index.get().blobId(name));
+        Index.flush();
+        Index.reload();
+        assertEquals(id, Index.get().cleanBlobId(name));
+
+        write("a.txt", "bb");
+        touch("a.txt", -10);
+        assertNull(Index.get().cleanBlobId(name));
+        String changed = Index.get().blobId(name);
+        assertEquals(Blob.hash(Utils.join(Commands.CWD, name)), changed);
+
+        touch("a.txt", 10);
+        assertEquals(changed, Index.get().blobId(name));
+        Index.flush();
+        Index.reload();
+        assertNull(Index.get().cleanBlobId(name));
+        assertEquals(changed, Index.get().blobId(name));
+
+        Utils.join(Commands.CWD, name).delete();
+        assertNull(Index.get().blobId(name));
+    }
+
+    /** Workers gives the same results on many threads as on one,
+     *  leaves out nulls and passes on what the work throws. */
+    @Test
+    public void workersTest() throws IOException {
+        gitlet("init");
+        Config.set(Workers.THREADS, "4");
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < 4 * Workers.PARALLEL_THRESHOLD; i += 1) {
+            items.add("item" + i);
+        }
+        Map<String, Integer> lengths = Workers.map(items,
+                item -> item.endsWith("0") ? null : item.length(), null);
+        assertEquals(items.stream().filter(item -> !item.endsWith("0"))
+                .count(), lengths.size());
+        assertEquals(Integer.valueOf(5), lengths.get("item9"));
+        assertNull(lengths.get("item10"));
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        Workers.forEach(items, seen::add, null);
+        assertEquals(new HashSet<>(items), seen);
+        try {
+            Workers.map(items, item -> {
+                throw new GitletException(item);
+            }, null);
+            fail("lost an exception");
+        } catch (GitletException excp) {
+            assertTrue(excp.getMessage().startsWith("item"));
+        }
+    }
+
+    /** status finds the same modified, deleted and untracked files
+     *  whether it compares them on one thread or several. */
+    @Test
+    public void parallelStatusTest() throws IOException {
+        gitlet("init");
+        int count = 2 * Workers.PARALLEL_THRESHOLD;
+        for (int i = 0; i < count; i += 1) {
+            write("f" + i, "version 1 of " + i);
+        }
+        gitlet("add", WORK);
+        gitlet("commit", "many files");
+        for (int i = 0; i < count; i += 7) {
+            write("f" + i, "version two of " + i);
+        }
+        Utils.join(Commands.CWD, path("f1")).delete();
+        write("new", "untracked");
+        Map<String, String> modified = null;
+        for (String threads : List.of("1", "4")) {
+            Config.set(Status.THREADS, threads);
+            Status status = new Status();
+            if (modified != null) {
+                assertEquals(modified, status.modified());
+            }
+            modified = status.modified();
+            assertTrue(status.untracked().contains(path("new")));
+        }
+        assertEquals(count / 7 + 2, modified.size());
+        assertEquals("deleted", modified.get(path("f1")));
+        assertEquals("modified", modified.get(path("f7")));
+    }
+
+    /** A tree that changes one file shares every other subtree with the
+     *  tree it was made from, and diffs and lookups only see the paths
+     *  asked about. */
+    @Test
+    public void treeTest() throws IOException {
+        gitlet("init");
+        String a = Utils.sha1("a");
+        String b = Utils.sha1("b");
+        String c = Utils.sha1("c");
+        Map<String, String> files = new TreeMap<>();
+        files.put("a", a);
+        files.put("d/b", b);
+        files.put("x/y/c", c);
+        String first = Tree.update(null, files);
+        assertEquals(files, new TreeMap<>(Tree.flatten(first)));
+
+        String second = Tree.update(first, Map.of("x/y/c", a));
+        assertEquals(Tree.read(first).trees().get("d"),
+                Tree.read(second).trees().get("d"));
+        assertNotEquals(Tree.read(first).trees().get("x"),
+                Tree.read(second).trees().get("x"));
+        assertEquals(Map.of("x/y/c", a), Tree.diff(first, second));
+        assertEquals(new TreeMap<>(files), Tree.diff(null, first));
+
+        Map<String, String> removal = new TreeMap<>();
+        removal.put("x/y/c", null);
+        String third = Tree.update(second, removal);
+        assertNull(Tree.read(third).trees().get("x"));
+        assertEquals(removal, Tree.diff(second, third));
+
+        assertEquals(Map.of("a", a, "d/b", b), Tree.lookup(first,
+                List.of("a", "d/b", "d/missing", "nowhere/b", "x/y")));
+        assertEquals(Map.of(), Tree.lookup(null, List.of("a")));
+        assertEquals("d/b", Tree.path("./d/b/"));
+
+        commit("d/b.txt", "b", "first");
+        Commit commit = CommitStore.read(head());
+        assertEquals(Blob.hash(Utils.join(Commands.CWD, path("d/b.txt"))),
+                commit.getFile(path("d/b.txt")));
+        assertNull(commit.getFile(path("d")));
+    }
+
+    /** Longest a test waits for another thread, in milliseconds. */
+    private static final long PATIENCE = 10000;
+
+    /** Returns what the daemon prints for the command ARGS, trimmed.
+     *
+     * @param args - command and operands.
+     * @return String.
+     */
+    private static String forwarded(String... args) {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            assertTrue(Daemon.forward(args));
+        } finally {
+            System.setOut(stdout);
+        }
+        return out.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    /** Commands go to a running daemon, which notices when the settings
+     *  it keeps are changed behind its back. */
+    @Test
+    public void daemonTest() throws Exception {
+        gitlet("init");
+        assertFalse(Daemon.forward("status"));
+        Thread server = new Thread(() -> {
+            try {
+                Daemon.serve();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp);
+            }
+        });
+        server.start();
+        long deadline = System.currentTimeMillis() + PATIENCE;
+        while (!Daemon.forward("daemon", "ping")
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        try {
+            forwarded("config", "test.key", "1");
+            assertEquals("1", forwarded("config", "test.key"));
+            Files.writeString(Config.CONFIG.toPath(), "test.key=2\n");
+            String value = forwarded("config", "test.key");
+            while (!value.equals("2")
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                value = forwarded("config", "test.key");
+            }
+            assertEquals("2", value);
+        } finally {
+            forwarded("daemon", "stop");
+            server.join(PATIENCE);
+        }
+        assertFalse(Daemon.SOCKET.exists());
+    }
 
+    /** add takes several files and directories at once, stages files
+     *  that match the head only to unstage them, and stages nothing if
+     *  any path is missing. */
+    @Test
+    public void multiPathAddTest() throws IOException {
+        gitlet("init");
+        commit("same", "same", "first");
+        write("a", "a");
+        write("dir/b", "b");
+        write("dir/sub/c", "c");
+        write("other/d", "d");
+        try {
+            gitlet("add", path("a"), path("missing"));
+            fail("added a missing file");
+        } catch (GitletException excp) {
+            assertEquals("File doesn't exist", excp.getMessage());
+        }
+        assertTrue(Stage.get().isEmpty());
+        gitlet("add", path("a"), path("dir"), "./" + path("same"));
+        Map<String, String> added = Stage.get().added();
+        assertEquals(Set.of(path("a"), path("dir/b"), path("dir/sub/c")),
+                added.keySet());
+        assertEquals(Blob.hash(Utils.join(Commands.CWD, path("dir/b"))),
+                added.get(path("dir/b")));
+        gitlet("add", WORK);
+        assertEquals(4, Stage.get().added().size());
+    }
+
+    /** A session reads each state file once, keeps what the command
+     *  writes until it is flushed, and starts afresh after that. */
+    @Test
+    public void repositorySessionTest() throws IOException {
+        gitlet("init");
+        Repository session = Repository.get();
+        Branch master = session.read(Commands.CURRENT_BRANCH, Branch.class);
+        assertSame(master, session.read(Commands.CURRENT_BRANCH,
+                Branch.class));
+        File file = Utils.join(Commands.BRANCH_DIR, "other");
+        Branch other = new Branch(false, "other",
+                new ArrayList<>(master.getCommit()));
+        session.write(file, other);
+        assertSame(other, session.read(file, Branch.class));
+        assertFalse(file.exists());
+        Repository.flush();
+        assertTrue(file.isFile());
+        assertNotSame(session, Repository.get());
+        Branch reread = Repository.get().read(file, Branch.class);
+        assertNotSame(other, reread);
+        assertEquals(master.getCommit(), reread.getCommit());
+        Repository.get().delete(file);
+        assertFalse(file.exists());
+        Repository.flush();
+        assertFalse(file.exists());
+    }
+
+    /** Stores a commit of an empty tree with MESSAGE and PARENTS, and
+     *  returns its ID.
+     *
+     * @param message - commit message.
+     * @param parents - sha1 IDs of its parents.
+     * @return String sha1 ID.
+     */
+    private static String store(String message, String... parents) {
+        Commit commit = new Commit(message,
+                new ArrayList<>(List.of(parents)),
+                Tree.update(null, Map.of()));
+        CommitStore.write(commit);
+        return commit.getId();
+    }
+
+    /** The commit graph gives every commit its parents' positions and a
+     *  generation one above theirs, survives being written and mapped
+     *  again, and rebuilds what a torn or missing file lost. */
+    @Test
+    public void commitGraphTest() throws IOException {
+        gitlet("init");
+        String root = head();
+        String first = store("first", root);
+        String second = store("second", first);
+        String merge = store("merge", second, root);
+        CommitGraph.flush();
+        CommitGraph graph = CommitGraph.get();
+        int pos = graph.position(merge);
+        assertEquals(merge, graph.id(pos));
+        assertEquals(4, graph.generation(pos));
+        assertEquals(graph.position(second), graph.parent(pos, 0));
+        assertEquals(graph.position(root), graph.parent(pos, 1));
+        assertEquals(1, graph.generation(graph.position(root)));
+        assertEquals(CommitGraph.NONE, graph.parent(graph.position(root), 0));
+        assertEquals(CommitStore.read(first).getStamp().getTime(),
+                graph.time(graph.position(first)));
+        assertEquals(CommitGraph.NONE,
+                graph.position("0".repeat(Utils.UID_LENGTH)));
+
+        long length = CommitGraph.GRAPH.length();
+        try (FileChannel out = FileChannel.open(CommitGraph.GRAPH.toPath(),
+                StandardOpenOption.WRITE)) {
+            out.truncate(length - CommitGraph.RECORD / 2);
+        }
+        CommitGraph.reload();
+        graph = CommitGraph.get();
+        assertEquals(3, graph.size());
+        assertEquals(4, graph.generation(graph.position(merge)));
+        CommitGraph.flush();
+        assertEquals(length, CommitGraph.GRAPH.length());
+
+        CommitGraph.GRAPH.delete();
+        CommitGraph.LOOKUP.delete();
+        CommitGraph.reload();
+        graph = CommitGraph.get();
+        assertEquals(0, graph.size());
+        assertEquals(4, graph.generation(graph.position(merge)));
+        assertEquals(4, graph.size());
+    }
+
+    /** After criss-cross merges two branches have two best common
+     *  ancestors, and the older commits below them are not merge bases;
+     *  histories that share nothing have none. */
+    @Test
+    public void crissCrossMergeBaseTest() throws IOException {
+        gitlet("init");
+        String root = head();
+        String a1 = store("a1", root);
+        String b1 = store("b1", root);
+        String a2 = store("a2", store("merge b1 into a", a1, b1));
+        String b2 = store("b2", store("merge a1 into b", b1, a1));
+        CommitGraph graph = CommitGraph.get();
+        assertEquals(Set.of(a1, b1), new HashSet<>(graph.mergeBases(a2, b2)));
+        assertEquals(2, graph.mergeBases(b2, a2).size());
+        assertEquals(List.of(a1), graph.mergeBases(a2, a1));
+        assertEquals(List.of(a2), graph.mergeBases(a2, a2));
+
+        String deeper = store("a3", a1);
+        String high = store("merge a3 into b", b2, deeper);
+        String low = store("merge b1 into a3", deeper, b1);
+        assertEquals(List.of(deeper, b1), graph.mergeBases(high, low));
+
+        String orphan = store("orphan");
+        assertEquals(List.of(), graph.mergeBases(a2, orphan));
+    }
+
+    /** Bitmaps hold sparse and dense sets of positions alike, and read
+     *  back what they wrote. */
+    @Test
+    public void bitmapTest() throws IOException {
+        int[] values = {0, 1, 63, 64, 65, 1000, 1 << 20};
+        Bitmap bitmap = new Bitmap();
+        for (int value : values) {
+            bitmap.add(value);
+        }
+        assertEquals(values.length, bitmap.cardinality());
+        assertTrue(bitmap.contains(64));
+        assertFalse(bitmap.contains(2));
+        Bitmap other = new Bitmap();
+        other.add(2);
+        other.add(64);
+        bitmap.or(other);
+        assertEquals(values.length + 1, bitmap.cardinality());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bitmap.write(new DataOutputStream(bytes));
+        Bitmap copy = Bitmap.read(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        List<Integer> read = new ArrayList<>();
+        copy.forEach(read::add);
+        assertEquals(List.of(0, 1, 2, 63, 64, 65, 1000, 1 << 20), read);
+    }
+
+    /** Ancestry answers come from stored bitmaps once written, and
+     *  bitmaps made against a commit graph that was since built anew,
+     *  whose positions mean other commits, are not used. */
+    @Test
+    public void reachabilityTest() throws IOException {
+        gitlet("init");
+        String root = head();
+        String a1 = store("a1", root);
+        String b1 = store("b1", root);
+        String a2 = store("a2", a1);
+        for (int pass = 0; pass < 3; pass += 1) {
+            Reachability bitmaps = Reachability.get();
+            if (pass == 2) {
+                CommitGraph.get().position(b1);
+            }
+            assertTrue(bitmaps.isAncestor(a1, a2));
+            assertTrue(bitmaps.isAncestor(a2, a2));
+            assertFalse(bitmaps.isAncestor(b1, a2));
+            assertFalse(bitmaps.isAncestor(a2, a1));
+            assertEquals(3, bitmaps.reachable(List.of(a2)).cardinality());
+            CommitGraph.flush();
+            Reachability.flush();
+            assertTrue(Reachability.BITMAPS.isFile());
+            if (pass == 1) {
+                CommitGraph.GRAPH.delete();
+                CommitGraph.LOOKUP.delete();
+            }
+        }
+    }
+
+    /** Abbreviated commit IDs of at least four digits resolve to the one
+     *  commit they start, whether the graph or the store answers; shorter
+     *  ones and ones naming two commits do not. */
+    @Test
+    public void abbreviatedIdTest() throws IOException {
+        gitlet("init");
+        String root = head();
+        String tree = Tree.update(null, Map.of());
+        Map<String, Commit> seen = new TreeMap<>();
+        Commit first = null;
+        Commit second = null;
+        for (int i = 0; second == null; i += 1) {
+            Commit commit = new Commit("c" + i,
+                    new ArrayList<>(List.of(root)), tree);
+            String prefix =
+                    commit.getId().substring(0, CommitGraph.MIN_PREFIX);
+            first = seen.putIfAbsent(prefix, commit);
+            if (first != null) {
+                second = commit;
+            }
+        }
+        CommitStore.write(first);
+        CommitStore.write(second);
+        String a = first.getId();
+        String b = second.getId();
+        int common = 0;
+        while (a.charAt(common) == b.charAt(common)) {
+            common += 1;
+        }
+        for (int pass = 0; pass < 2; pass += 1) {
+            assertEquals(root, Commands.sha1Elongator(root.substring(0, 7)));
+            assertEquals(a, Commands.sha1Elongator(a.substring(0, common + 1)));
+            assertEquals(b, Commands.sha1Elongator(
+                    b.substring(0, common + 1).toUpperCase()));
+            assertEquals(a, Commands.sha1Elongator(a.substring(0, 39)));
+            assertEquals(a, Commands.sha1Elongator(a));
+            String shortId = root.substring(0, CommitGraph.MIN_PREFIX - 1);
+            assertEquals(shortId, Commands.sha1Elongator(shortId));
+            assertEquals("zzzzzz", Commands.sha1Elongator("zzzzzz"));
+            try {
+                Commands.sha1Elongator(a.substring(0, common));
+                fail("ambiguous prefix resolved");
+            } catch (GitletException e) {
+                assertEquals("More than one commit has that id.",
+                        e.getMessage());
+            }
+            CommitGraph.flush();
+            forget();
+        }
+    }
+
+    /** An ID table finds every ID it holds and none it does not, and
+     *  gives the run of IDs an even or odd prefix stands for. */
+    @Test
+    public void idTableTest() {
+        List<String> ids = new ArrayList<>();
+        for (String start : List.of("00", "0a1", "0a2", "0a20", "7f",
+                "ff")) {
+            ids.add(start + "5".repeat(Utils.UID_LENGTH - start.length()));
+        }
+        ids.sort(null);
+        int start = 3;
+        ByteBuffer buffer = ByteBuffer.allocate(
+                start + IdTable.size(ids.size()));
+        buffer.position(start);
+        IdTable.write(buffer, ids);
+        IdTable table = new IdTable(buffer, start, ids.size());
+        assertEquals(ids.size(), table.count());
+        for (int pos = 0; pos < ids.size(); pos += 1) {
+            assertEquals(ids.get(pos), table.id(pos));
+            assertEquals(pos, table.find(Pack.toBinary(ids.get(pos))));
+        }
+        assertEquals(-1, table.find(Pack.toBinary("0a3" + "5".repeat(37))));
+        assertEquals(-1, table.find(Pack.toBinary("f".repeat(40))));
+        assertArrayEquals(new int[] {1, 4}, table.range("0a"));
+        assertArrayEquals(new int[] {2, 4}, table.range("0a2"));
+        assertArrayEquals(new int[] {2, 3}, table.range("0a205"));
+        assertArrayEquals(new int[] {4, 4}, table.range("0b"));
+        assertArrayEquals(new int[] {5, 6}, table.range(ids.get(5)));
+    }
+
+    /** Messages are found whole, by their words or by any part, among
+     *  commits the inverted index covers, commits made since it was
+     *  written and commits the current command has not written yet, and
+     *  a repository without an index gets one built by its first search.
+     */
+    @Test
+    public void messageIndexTest() throws IOException {
+        assertEquals(List.of("fix", "the", "parser", "it"),
+                MessageIndex.tokenize("Fix: the  parser, fix it!"));
+        gitlet("init");
+        assertTrue(MessageIndex.TOKENS.isFile());
+        commit("a.txt", "a", "Fix the parser");
+        String first = head();
+        commit("a.txt", "b", "fix parser tests");
+        String second = head();
+        commit("a.txt", "c", "Unrelated change.");
+        String third = head();
+        List<String> both = new ArrayList<>(List.of(first, second));
+        both.sort(null);
+        for (int pass = 0; pass < 3; pass += 1) {
+            MessageIndex index = MessageIndex.open();
+            assertEquals(List.of(first), index.exact("Fix the parser"));
+            assertEquals(List.of(), index.exact("fix the parser"));
+            assertEquals(both, index.words("PARSER fix"));
+            assertEquals(List.of(second), index.words("tests"));
+            assertEquals(List.of(), index.words("parser unrelated"));
+            assertEquals(both, index.substring("arse"));
+            assertEquals(List.of(third), index.substring("change."));
+            assertEquals(List.of(first), index.substring("Fix"));
+            MessageIndex.reload();
+            if (pass == 1) {
+                assertTrue(MessageIndex.MESSAGES.delete());
+                assertTrue(MessageIndex.TOKENS.delete());
+            } else {
+                MessageIndex.rebuild();
+            }
+        }
+        String pending = store("pending parser", third);
+        assertEquals(List.of(pending), MessageIndex.get().words("pending"));
+        MessageIndex.flush();
+        assertEquals(List.of(pending), MessageIndex.get().exact(
+                "pending parser"));
+        try {
+            gitlet("find", "nothing like it");
+            fail("found a missing message");
+        } catch (GitletException e) {
+            assertEquals("Found no commit with that message.",
+                    e.getMessage());
+        }
+    }
+
+    /** Returns the IDs of the commits whose entries the gitlet command
+     *  ARGS prints, in the order it prints them.
+     *
+     * @param args - log or global-log and its options.
+     * @return List.
+     */
+    private static List<String> logged(String... args) throws IOException {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            gitlet(args);
+        } finally {
+            System.setOut(stdout);
+        }
+        List<String> ids = new ArrayList<>();
+        Matcher entry = Pattern.compile("===\ncommit ([0-9a-f]+)\nDate: ")
+                .matcher(out.toString(StandardCharsets.UTF_8));
+        while (entry.find()) {
+            ids.add(entry.group(1));
+        }
+        return ids;
+    }
+
+    /** log writes the newest commits on the branch first and stops at
+     *  the count and dates asked for; global-log can be limited alike,
+     *  or to commits no branch reaches. */
+    @Test
+    public void boundedLogTest() throws IOException {
+        gitlet("init");
+        String root = head();
+        commit("a.txt", "a", "first");
+        String first = head();
+        commit("a.txt", "b", "second");
+        String second = head();
+        commit("a.txt", "c", "third");
+        String third = head();
+        assertEquals(List.of(third, second, first, root), logged("log"));
+        assertEquals(List.of(third, second), logged("log", "-n", "2"));
+        String yesterday = LocalDate.now().minusDays(1).toString();
+        String tomorrow = LocalDate.now().plusDays(1).toString();
+        assertEquals(List.of(third, second, first, root), logged("log",
+                "--since", yesterday, "--until", tomorrow));
+        assertEquals(List.of(third), logged("log", "--since", yesterday,
+                "-n", "1"));
+        assertEquals(List.of(), logged("log", "--since", tomorrow));
+        assertEquals(List.of(), logged("log", "--until", yesterday));
+        assertEquals(List.of(), logged("log", "--until",
+                "2000-01-01T00:00:00"));
+        assertEquals(List.of(), logged("global-log", "--since", tomorrow));
+        assertEquals(1, logged("global-log", "-n", "1").size());
+        assertEquals(4, logged("global-log").size());
+        gitlet("reset", first);
+        List<String> lost = logged("global-log", "--unreachable");
+        lost.sort(null);
+        List<String> expected = new ArrayList<>(List.of(second, third));
+        expected.sort(null);
+        assertEquals(expected, lost);
+        for (String[] options : new String[][] {{"log", "-n", "x"},
+            {"log", "--unreachable"}, {"log", "--since"},
+            {"global-log", "--until", "yesterday"}}) {
+            try {
+                gitlet(options);
+                fail("accepted " + String.join(" ", options));
+            } catch (GitletException e) {
+                assertEquals("Incorrect Operands.", e.getMessage());
+            }
+        }
+    }
+
+    /** Returns a journal that writes each file of WRITES to its new
+     *  contents, as Journal.commit lays it out.
+     *
+     * @param writes - new contents by file.
+     * @return byte array.
+     */
+    private static byte[] journal(Map<File, byte[]> writes)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(Journal.MAGIC);
+        out.writeInt(writes.size());
+        Path root = Commands.GITLET_DIR.toPath();
+        for (Map.Entry<File, byte[]> e : writes.entrySet()) {
+            out.writeUTF(root.relativize(e.getKey().toPath()).toString());
+            out.writeInt(e.getValue().length);
+            out.write(e.getValue());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    /** A journal left by a command that died is applied in full by the
+     *  next one if it is complete and dropped if it is torn or damaged,
+     *  and transactions leave none behind in any durability mode. */
+    @Test
+    public void journalReplayTest() throws IOException {
+        gitlet("init");
+        commit("a.txt", "a", "first");
+        String first = head();
+        commit("a.txt", "b", "second");
+        String second = head();
+        File branch = Utils.join(Commands.BRANCH_DIR, "master");
+        Map<File, byte[]> writes = new TreeMap<>();
+        writes.put(Commands.HEAD, Utils.readContents(Commands.HEAD));
+        writes.put(branch, Utils.readContents(branch));
+        writes.put(Commands.CURRENT_BRANCH,
+                Utils.readContents(Commands.CURRENT_BRANCH));
+        File commitFile = Utils.join(Commands.COMMITS, second);
+        writes.put(commitFile, Utils.readContents(commitFile));
+        File large = Utils.join(Commands.GITLET_DIR, "carried", "large");
+        writes.put(large, bytes(3 * Blob.BUFFER_SIZE + 1, 7));
+        byte[] journal = journal(writes);
+        gitlet("reset", first);
+        byte[] damaged = journal.clone();
+        damaged[journal.length / 2] ^= 1;
+        for (byte[] left : List.of(Arrays.copyOf(journal, 6),
+                Arrays.copyOf(journal, journal.length - 1), damaged)) {
+            Utils.writeContents(Journal.JOURNAL, (Object) left);
+            Journal.recover();
+            assertFalse(Journal.JOURNAL.exists());
+            forget();
+            assertEquals(first, head());
+        }
+        assertTrue(commitFile.delete());
+        Utils.writeContents(Journal.JOURNAL, (Object) journal);
+        Journal.recover();
+        assertFalse(Journal.JOURNAL.exists());
+        forget();
+        assertEquals(second, head());
+        assertArrayEquals(writes.get(branch), Utils.readContents(branch));
+        assertTrue(CommitStore.contains(second));
+        assertArrayEquals(writes.get(large), Utils.readContents(large));
+        String[] temps = ObjectStore.TMP_DIR.list();
+        assertEquals(0, temps == null ? 0 : temps.length);
+        File written = Utils.join(Commands.GITLET_DIR, "written");
+        for (String mode : List.of(Journal.NONE, Journal.BATCHED,
+                Journal.STRICT)) {
+            Config.set(Journal.DURABILITY, mode);
+            byte[] contents = mode.getBytes(StandardCharsets.UTF_8);
+            Journal.commit(Map.of(written, contents), List.of(branch));
+            assertArrayEquals(contents, Utils.readContents(written));
+            assertFalse(Journal.JOURNAL.exists());
+        }
+    }
+
+    /** The files written outside the journal recover from a torn write:
+     *  the stat cache is hashed again and the message log loses only its
+     *  torn entry, which the next append cuts off. */
+    @Test
+    public void tornDerivedFilesTest() throws IOException {
+        gitlet("init");
+        commit("a.txt", "a", "first");
+        String first = head();
+        Utils.writeContents(Index.INDEX, "torn");
+        byte[] torn = new byte[Pack.ID_BYTES + 2 * Integer.BYTES];
+        ByteBuffer.wrap(torn).putInt(Pack.ID_BYTES, Integer.MAX_VALUE);
+        Files.write(MessageIndex.MESSAGES.toPath(), torn,
+                StandardOpenOption.APPEND);
+        forget();
+        assertEquals(List.of(first), MessageIndex.get().exact("first"));
+        commit("a.txt", "b", "second");
+        String second = head();
+        assertEquals(first, CommitStore.read(second).getParent().get(0));
+        forget();
+        assertEquals(List.of(second), MessageIndex.get().exact("second"));
+        assertEquals(List.of(first), MessageIndex.get().exact("first"));
+        assertNotEquals("torn", Utils.readContentsAsString(Index.INDEX));
+    }
+
+    /** Sets the modification time of every file under DIR to SECONDS
+     *  from now.
+     *
+     * @param dir - directory.
+     * @param seconds - offset from now; negative is in the past.
+     */
+    private static void age(File dir, long seconds) throws IOException {
+        FileTime time = FileTime.fromMillis(System.currentTimeMillis()
+                + TimeUnit.SECONDS.toMillis(seconds));
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.setLastModifiedTime(file, time);
+            }
+        }
+    }
+
+    /** gc removes the commits no branch reaches and the objects nothing
+     *  kept refers to only once they are older than the grace period,
+     *  and keeps staged and recently written objects whatever their
+     *  age. */
+    @Test
+    public void gcGracePeriodTest() throws IOException {
+        gitlet("init");
+        commit("a.txt", "a", "first");
+        String first = head();
+        String kept = CommitStore.read(first).getFile(path("a.txt"));
+        commit("a.txt", "b", "second");
+        String second = head();
+        String lost = CommitStore.read(second).getFile(path("a.txt"));
+        gitlet("reset", first);
+        write("c.txt", "staged");
+        gitlet("add", path("c.txt"));
+        String staged = Stage.get().added().get(path("c.txt"));
+        forget();
+        ObjectStore.TMP_DIR.mkdirs();
+        File stale = Utils.join(ObjectStore.TMP_DIR, "stale");
+        Utils.writeContents(stale, "partial");
+        gitlet("gc");
+        assertTrue(CommitStore.contains(second));
+        assertTrue(ObjectStore.contains(lost));
+        assertTrue(stale.isFile());
+        Config.set(GarbageCollector.PRUNE_EXPIRE, "60");
+        age(Commands.GITLET_DIR, -TimeUnit.HOURS.toSeconds(1));
+        File fresh = Utils.join(ObjectStore.TMP_DIR, "fresh");
+        Utils.writeContents(fresh, "partial");
+        String recent = ObjectStore.write(Blob.TYPE,
+                "recent".getBytes(StandardCharsets.UTF_8));
+        forget();
+        gitlet("gc");
+        forget();
+        assertFalse(CommitStore.contains(second));
+        assertFalse(ObjectStore.contains(lost));
+        assertFalse(stale.exists());
+        assertTrue(CommitStore.contains(first));
+        for (String id : List.of(kept, staged, recent)) {
+            assertTrue(ObjectStore.contains(id));
+        }
+        assertTrue(fresh.isFile());
+        assertEquals(first, head());
+        assertEquals(List.of(), MessageIndex.open().exact("second"));
+    }
+
+    /** The staging area keeps its entries sorted by path behind a table
+     *  of offsets and a checksum, merges a command's changes with what
+     *  it read, and refuses a file whose checksum does not match. */
+    @Test
+    public void stageTest() throws IOException {
+        gitlet("init");
+        String blob = "ab".repeat(Pack.ID_BYTES);
+        Stage stage = Stage.get();
+        stage.add("b", blob);
+        stage.add("c/d", blob);
+        stage.remove("a");
+        stage.add("e", blob);
+        Stage.flush();
+        Repository.flush();
+        ByteBuffer file = ByteBuffer.wrap(Utils.readContents(Stage.STAGE));
+        assertEquals(Stage.MAGIC, file.getInt(0));
+        assertEquals(4, file.getInt(Integer.BYTES));
+        int body = file.limit() - Long.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(file.array(), 0, body);
+        assertEquals(crc.getValue(), file.getLong(body));
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 4; i += 1) {
+            int entry = file.getInt(Stage.HEADER + i * Integer.BYTES);
+            int length = file.getShort(entry + Stage.ENTRY - Short.BYTES);
+            paths.add(new String(file.array(), entry + Stage.ENTRY, length,
+                    StandardCharsets.UTF_8));
+            assertEquals(paths.get(i).equals("a") ? Stage.REMOVED
+                    : Stage.ADDED, file.get(entry));
+        }
+        assertEquals(List.of("a", "b", "c/d", "e"), paths);
+        stage = Stage.get();
+        assertEquals(List.of("b", "c/d", "e"),
+                new ArrayList<>(stage.added().keySet()));
+        assertEquals(blob, stage.added("c/d"));
+        assertTrue(stage.isRemoved("a"));
+        assertNull(stage.added("a"));
+        assertNull(stage.added("c"));
+        stage.unstage("b");
+        stage.add("0", blob);
+        stage.remove("e");
+        assertEquals(List.of("0", "c/d"),
+                new ArrayList<>(stage.added().keySet()));
+        Stage.flush();
+        Repository.flush();
+        stage = Stage.get();
+        assertEquals(List.of("0", "c/d"),
+                new ArrayList<>(stage.added().keySet()));
+        assertEquals(List.of("a", "e"), stage.removed());
+        stage.clear();
+        assertTrue(stage.isEmpty());
+        Stage.reload();
+        byte[] damaged = Utils.readContents(Stage.STAGE);
+        damaged[damaged.length / 2] ^= 1;
+        Utils.writeContents(Stage.STAGE, (Object) damaged);
+        try {
+            Stage.get();
+            fail("read a damaged staging area");
+        } catch (GitletException e) {
+            assertEquals("The staging area is corrupt.", e.getMessage());
+        }
+        Stage.reload();
+    }
+
+    /** The add and rm files of an older Gitlet become the staging area
+     *  when a command first runs, and stay until it is in place. */
+    @Test
+    public void stageMigrationTest() throws IOException {
+        gitlet("init");
+        commit("a.txt", "a", "first");
+        write("b.txt", "b");
+        String blob = Blob.hash(Utils.join(Commands.CWD, path("b.txt")));
+        LinkedHashMap<String, String> added = new LinkedHashMap<>();
+        added.put(path("b.txt"), blob);
+        Utils.writeObject(Stage.LEGACY_ADD, added);
+        Utils.writeObject(Stage.LEGACY_RM,
+                new ArrayList<>(List.of(path("a.txt"))));
+        assertTrue(Stage.STAGE.delete());
+        forget();
+        Stage.migrate();
+        assertTrue(Stage.STAGE.isFile());
+        assertFalse(Stage.LEGACY_ADD.exists());
+        assertFalse(Stage.LEGACY_RM.exists());
+        Stage stage = Stage.get();
+        assertEquals(Map.of(path("b.txt"), blob), stage.added());
+        assertEquals(List.of(path("a.txt")), stage.removed());
+        Stage.migrate();
+        assertEquals(blob, Stage.get().added(path("b.txt")));
+    }
+
+    /** A plan keeps the last of the writes and deletes asked of a
+     *  path, and a checkout with more files than run on one thread
+     *  writes and deletes every one of them. */
+    @Test
+    public void parallelCheckoutTest() throws IOException {
+        Checkout plan = new Checkout();
+        plan.write("a", "1");
+        plan.delete("a");
+        plan.delete("b");
+        plan.write("b", "2");
+        assertEquals(Map.of("b", "2"), plan.writes());
+        assertEquals(List.of("a"), plan.deletes());
+        gitlet("init");
+        Config.set(Checkout.THREADS, "4");
+        commit("base", "base", "first");
+        gitlet("branch", "other");
+        gitlet("checkout", "other");
+        int count = 2 * Workers.PARALLEL_THRESHOLD + 1;
+        for (int i = 0; i < count; i += 1) {
+            write("many/d" + i % 8 + "/f" + i, "f" + i);
+        }
+        write("base", "changed");
+        gitlet("add", path("many"), path("base"));
+        gitlet("commit", "many");
+        gitlet("checkout", "master");
+        assertFalse(Utils.join(Commands.CWD, path("many")).exists());
+        assertEquals("base", read("base"));
+        gitlet("checkout", "other");
+        for (int i = 0; i < count; i += 1) {
+            assertEquals("f" + i, read("many/d" + i % 8 + "/f" + i));
+        }
+        assertEquals("changed", read("base"));
+    }
+
+    /** A checkout between two commits writes only the paths whose blobs
+     *  differ and the shared files edited since, leaving the others
+     *  untouched; reset does the same and drops what was staged. */
+    @Test
+    public void incrementalCheckoutTest() throws IOException {
+        gitlet("init");
+        write("a", "1");
+        write("b", "1");
+        write("c", "1");
+        gitlet("add", path("a"), path("b"), path("c"));
+        gitlet("commit", "first");
+        String first = head();
+        write("a", "2");
+        write("d", "new");
+        gitlet("add", path("a"), path("d"));
+        gitlet("rm", path("c"));
+        gitlet("commit", "second");
+        String second = head();
+        Commit from = CommitStore.read(first);
+        Commit to = CommitStore.read(second);
+        Checkout plan = Checkout.between(from, to);
+        assertEquals(Set.of(path("a"), path("d")), plan.writes().keySet());
+        assertEquals(to.getFile(path("a")), plan.writes().get(path("a")));
+        assertEquals(List.of(path("c")), plan.deletes());
+        write("b", "edited");
+        plan = Checkout.between(from, to);
+        assertEquals(to.getFile(path("b")), plan.writes().get(path("b")));
+        write("b", "1");
+        touch("b", -100);
+        long untouched = Utils.join(Commands.CWD, path("b")).lastModified();
+        forget();
+        write("a", "staged");
+        write("d", "staged");
+        write("e", "staged");
+        gitlet("add", path("a"), path("d"), path("e"));
+        gitlet("reset", first);
+        assertEquals("1", read("a"));
+        assertEquals("1", read("c"));
+        assertNull(read("d"));
+        assertNull(read("e"));
+        assertTrue(Stage.get().isEmpty());
+        assertEquals(untouched,
+                Utils.join(Commands.CWD, path("b")).lastModified());
+        gitlet("reset", second);
+        assertEquals("2", read("a"));
+        assertEquals("new", read("d"));
+        assertNull(read("c"));
+        assertEquals(untouched,
+                Utils.join(Commands.CWD, path("b")).lastModified());
+    }
+
+    /** checkout, reset and merge refuse to overwrite untracked files,
+     *  naming all of them at once, but not ones that already hold what
+     *  would be written or are staged. */
+    @Test
+    public void untrackedInTheWayTest() throws IOException {
+        gitlet("init");
+        commit("base", "base", "first");
+        gitlet("branch", "other");
+        gitlet("checkout", "other");
+        write("x", "x");
+        write("y", "y");
+        write("z", "z");
+        gitlet("add", path("x"), path("y"), path("z"));
+        gitlet("commit", "other");
+        String other = head();
+        gitlet("checkout", "master");
+        write("x", "mine");
+        write("y", "mine");
+        write("z", "z");
+        write("w", "mine");
+        String message = "There is an untracked file in the way; delete it,"
+                + " or add and commit it first.";
+        for (String[] args : new String[][] {{"checkout", "other"},
+            {"reset", other}, {"merge", "other"}}) {
+            try {
+                gitlet(args);
+                fail(args[0] + " overwrote untracked files");
+            } catch (GitletException e) {
+                assertEquals(message + "\n    " + path("x") + "\n    "
+                        + path("y"), e.getMessage());
+            }
+            forget();
+            assertEquals("master", Commands.getCurrBr().getName());
+            assertEquals("mine", read("x"));
+        }
+        gitlet("add", path("y"));
+        try {
+            gitlet("checkout", "other");
+            fail("checkout overwrote an untracked file");
+        } catch (GitletException e) {
+            assertEquals(message + "\n    " + path("x"), e.getMessage());
+        }
+        forget();
+        assertTrue(Utils.join(Commands.CWD, path("x")).delete());
+        gitlet("checkout", "other");
+        assertEquals("x", read("x"));
+        assertEquals("y", read("y"));
+        assertEquals("mine", read("w"));
+    }
+
+    /** Returns the unified diff of the file f from BEFORE to AFTER, null
+     *  standing for a missing side, without its first header line.
+     *
+     * @param before - old contents, or null.
+     * @param after - new contents, or null.
+     * @return String.
+     */
+    private static String unified(String before, String after)
+        throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Diff(before == null ? null : before.getBytes(
+                StandardCharsets.UTF_8), after == null ? null
+                : after.getBytes(StandardCharsets.UTF_8))
+                .write(out, "f", before != null, after != null);
+        String diff = out.toString(StandardCharsets.UTF_8);
+        assertTrue(diff.startsWith("diff --gitlet a/f b/f\n"));
+        return diff.substring(diff.indexOf('\n') + 1);
+    }
+
+    /** Returns the lines "1" to "COUNT", each ending in a newline, with
+     *  line I replaced by LINES[I - 1] where that is not null.
+     *
+     * @param count - number of lines.
+     * @param lines - replacements by line, from line 1.
+     * @return String.
+     */
+    private static String numbered(int count, String... lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= count; i += 1) {
+            String line = i <= lines.length && lines[i - 1] != null
+                    ? lines[i - 1] : String.valueOf(i);
+            text.append(line).append('\n');
+        }
+        return text.toString();
+    }
+
+    /** Diffs come out as unified hunks with three lines of context,
+     *  joined when their contexts meet, and mark new, deleted, binary
+     *  and unterminated files as diff does. */
+    @Test
+    public void diffHunksTest() throws IOException {
+        assertEquals("--- a/f\n+++ b/f\n@@ -1,3 +1,3 @@\n a\n-b\n+B\n c\n",
+                unified("a\nb\nc\n", "a\nB\nc\n"));
+        assertEquals("--- a/f\n+++ b/f\n"
+                + "@@ -1,5 +1,5 @@\n 1\n-2\n+x\n 3\n 4\n 5\n"
+                + "@@ -15,6 +15,6 @@\n 15\n 16\n 17\n-18\n+y\n 19\n 20\n",
+                unified(numbered(20), numbered(20, null, "x", null, null,
+                        null, null, null, null, null, null, null, null,
+                        null, null, null, null, null, "y")));
+        assertTrue(unified(numbered(20), numbered(20, null, "x", null,
+                null, null, null, null, "z")).contains("@@ -1,11 +1,11 @@"));
+        assertEquals("--- /dev/null\n+++ b/f\n@@ -0,0 +1,2 @@\n+a\n+b\n",
+                unified(null, "a\nb\n"));
+        assertEquals("--- a/f\n+++ /dev/null\n@@ -1,1 +0,0 @@\n-a\n",
+                unified("a\n", null));
+        assertEquals("--- a/f\n+++ b/f\n@@ -1,1 +1,1 @@\n-a\n+a\n"
+                + "\\ No newline at end of file\n", unified("a\n", "a"));
+        assertEquals("Binary files a/f and b/f differ\n",
+                unified("a\0b", "a\0c"));
+        Diff binary = new Diff("a\0".getBytes(StandardCharsets.UTF_8),
+                "a\0".getBytes(StandardCharsets.UTF_8));
+        assertTrue(binary.isBinary());
+        assertFalse(binary.differs());
+        Diff same = new Diff(numbered(5).getBytes(StandardCharsets.UTF_8),
+                numbered(5).getBytes(StandardCharsets.UTF_8));
+        assertFalse(same.differs());
+        assertEquals("--- a/f\n+++ b/f\n", unified(numbered(5), numbered(5)));
+        Diff change = new Diff("a\nb\n".getBytes(StandardCharsets.UTF_8),
+                "a\nc\nd\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(" f   | 3 ++-\n", change.stat("f", 3, 3));
+    }
+
+    /** Diffs are shortest edit scripts: their insertions and deletions
+     *  add up to the lines outside a longest common subsequence. */
+    @Test
+    public void diffMinimalTest() {
+        Random random = new Random(61);
+        for (int trial = 0; trial < 200; trial += 1) {
+            String[] a = new String[random.nextInt(30)];
+            String[] b = new String[random.nextInt(30)];
+            for (String[] lines : List.of(a, b)) {
+                for (int i = 0; i < lines.length; i += 1) {
+                    lines[i] = String.valueOf((char) ('a'
+                            + random.nextInt(3)));
+                }
+            }
+            int[][] common = new int[a.length + 1][b.length + 1];
+            for (int i = a.length - 1; i >= 0; i -= 1) {
+                for (int j = b.length - 1; j >= 0; j -= 1) {
+                    common[i][j] = a[i].equals(b[j]) ? common[i + 1][j + 1] + 1
+                            : Math.max(common[i + 1][j], common[i][j + 1]);
+                }
+            }
+            Diff diff = new Diff(numbered(a.length, a).getBytes(
+                    StandardCharsets.UTF_8), numbered(b.length, b)
+                    .getBytes(StandardCharsets.UTF_8));
+            assertEquals(a.length + b.length - 2 * common[0][0],
+                    diff.insertions() + diff.deletions());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/** Runs per-file work, such as hashing or writing files, on a pool of
+ *  threads. The pool has core.threads threads, one per processor unless
+ *  set otherwise, and a command may have its own setting on top.
+ *  @author willharvey
+ */
+class Workers {
+
+    /** Configuration key for the number of threads. */
+    static final String THREADS = "core.threads";
+
+    /** Fewer items than this are handled on the calling thread. */
+    static final int PARALLEL_THRESHOLD = 64;
+
+    /** Returns the number of threads to use where KEY, if set, overrides
+     *  core.threads.
+     *
+     * @param key - configuration key, or null.
+     * @return int.
+     */
+    static int threads(String key) {
+        int threads = Config.getInt(THREADS,
+                Runtime.getRuntime().availableProcessors());
+        return key == null ? threads : Config.getInt(key, threads);
+    }
+
+    /** Returns the results of FN applied to each of ITEMS, by item, using
+     *  as many threads as KEY calls for. Items FN maps to null are left
+     *  out. Runtime exceptions thrown by FN are thrown again here.
+     *
+     * @param items - inputs.
+     * @param fn - work on one item.
+     * @param key - configuration key overriding core.threads, or null.
+     * @param <T> - result type.
+     * @return Map.
+     */
+    static <T> Map<String, T> map(Collection<String> items,
+                                  Function<String, T> fn, String key) {
+        Map<String, T> results = new ConcurrentHashMap<>();
+        int threads = threads(key);
+        if (threads <= 1 || items.size() < PARALLEL_THRESHOLD) {
+            for (String item : items) {
+                put(results, item, fn.apply(item));
+            }
+            return results;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> items.parallelStream()
+                    .forEach(item -> put(results, item, fn.apply(item))))
+                    .get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    /** Calls FN on each of ITEMS, using as many threads as KEY calls
+     *  for. Threads take the items in list order, so work that was
+     *  prepared in that order, such as prefetched reads, is met in that
+     *  order too. Runtime exceptions thrown by FN are thrown again here.
+     *
+     * @param items - inputs, in the order to take them.
+     * @param fn - work on one item.
+     * @param key - configuration key overriding core.threads, or null.
+     */
+    static void forEach(List<String> items, Consumer<String> fn,
+                        String key) {
+        int threads = threads(key);
+        if (threads <= 1 || items.size() < PARALLEL_THRESHOLD) {
+            items.forEach(fn);
+            return;
+        }
+        AtomicInteger next = new AtomicInteger();
+        Runnable taker = () -> {
+            for (int i = next.getAndIncrement(); i < items.size();
+                 i = next.getAndIncrement()) {
+                fn.accept(items.get(i));
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> takers = new ArrayList<>();
+            for (int t = 0; t < threads; t += 1) {
+                takers.add(pool.submit(taker));
+            }
+            for (Future<?> done : takers) {
+                done.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            next.set(items.size());
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Adds ITEM's RESULT to RESULTS unless it is null.
+     *
+     * @param results - results by item.
+     * @param item - input.
+     * @param result - result, or null.
+     * @param <T> - result type.
+     */
+    private static <T> void put(Map<String, T> results, String item,
+                                T result) {
+        if (result != null) {
+            results.put(item, result);
+        }
+    }
+}